@@ -1,6 +1,7 @@
 plugins {
     id("java")
     id("jacoco")
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "hw.okit"
@@ -22,6 +23,17 @@ dependencies {
     testImplementation("org.mockito:mockito-junit-jupiter:5.16.1")
 }
 
+jmh {
+    jmhVersion.set("1.37")
+    warmupIterations.set(2)
+    iterations.set(5)
+    fork.set(1)
+    // -Pjmh.includes=<regex> narrows the run, e.g. -Pjmh.includes=AccountBenchmark
+    (findProperty("jmh.includes") as String?)?.let { includes.set(listOf(it)) }
+    profilers.set(listOf("gc"))
+    resultFormat.set("JSON")
+}
+
 tasks.test {
     useJUnitPlatform()
 }
@@ -0,0 +1,87 @@
+package hw.okit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Account money operations against the in-memory stand-in, one session per thread.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AccountBenchmark {
+
+        @State(Scope.Benchmark)
+        public static class Server {
+                @Param({"0", "20000"})
+                public long serverLatencyNanos;
+
+                InMemoryServerConnection connection;
+                final AtomicInteger threadIds = new AtomicInteger();
+
+                @Setup(Level.Trial)
+                public void setUp() {
+                        connection = new InMemoryServerConnection(1024, MoneyScale.CENTS);
+                        connection.setLatency(serverLatencyNanos, TimeUnit.NANOSECONDS);
+                }
+        }
+
+        @State(Scope.Thread)
+        public static class Session {
+                Account account;
+
+                @Setup(Level.Trial)
+                public void setUp(Server server) {
+                        String login = "bench-" + server.threadIds.getAndIncrement();
+                        server.connection.addAccount(login, "secret", Long.MAX_VALUE / 2);
+                        account = new Account();
+                        account.callLogin(server.connection, login, "secret");
+                }
+        }
+
+        @Benchmark
+        @Threads(1)
+        public LocalOperationResponse deposit1(Session s) {
+                return s.account.deposit(1.0);
+        }
+
+        @Benchmark
+        @Threads(Threads.MAX)
+        public LocalOperationResponse depositMax(Session s) {
+                return s.account.deposit(1.0);
+        }
+
+        @Benchmark
+        @Threads(1)
+        public LocalOperationResponse withdraw1(Session s) {
+                return s.account.withdraw(1.0);
+        }
+
+        @Benchmark
+        @Threads(Threads.MAX)
+        public LocalOperationResponse withdrawMax(Session s) {
+                return s.account.withdraw(1.0);
+        }
+
+        @Benchmark
+        @Threads(1)
+        public LocalOperationResponse getBalance1(Session s) {
+                return s.account.getBalance();
+        }
+
+        @Benchmark
+        @Threads(Threads.MAX)
+        public LocalOperationResponse getBalanceMax(Session s) {
+                return s.account.getBalance();
+        }
+}
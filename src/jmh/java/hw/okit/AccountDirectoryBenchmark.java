@@ -0,0 +1,100 @@
+package hw.okit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup cost of a directory of 1M and 10M logins: mapping the file against filling a map
+ * with one placeholder Account per login, the way stored accounts used to be registered.
+ * The heapBytes counter reports what each approach leaves on the heap (the map's figure is
+ * the drop in free heap after a GC, so it is approximate). lookup measures indexOf on a
+ * mapped directory.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class AccountDirectoryBenchmark {
+
+        @Param({"1000000", "10000000"})
+        int entries;
+
+        Path file;
+        AccountDirectory opened;
+        int next;
+
+        @AuxCounters(AuxCounters.Type.EVENTS)
+        @State(Scope.Thread)
+        public static class Footprint {
+                public long heapBytes;
+        }
+
+        // Written directly in sorted order; zero-padded numbers sort the same as bytes.
+        @Setup(Level.Trial)
+        public void writeFile() throws IOException {
+                file = Files.createTempFile("account-directory", ".dir");
+                try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                        for (int i = 0; i < entries; i++) {
+                                out.write(login(i));
+                                out.write('\n');
+                        }
+                }
+                opened = AccountDirectory.open(file);
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteFile() throws IOException {
+                opened = null;
+                Files.deleteIfExists(file);
+        }
+
+        static String login(int i) {
+                return String.format("user%09d", i);
+        }
+
+        @Benchmark
+        public AccountDirectory openMapped(Footprint footprint) throws IOException {
+                AccountDirectory directory = AccountDirectory.open(file);
+                footprint.heapBytes = directory.getIndexBytes();
+                return directory;
+        }
+
+        @Benchmark
+        public ConcurrentHashMap<String, Account> eagerPlaceholders(Footprint footprint) throws IOException {
+                long before = usedHeap();
+                ConcurrentHashMap<String, Account> registry = new ConcurrentHashMap<>();
+                Files.lines(file, StandardCharsets.UTF_8).forEach(login -> registry.put(login, new Account()));
+                footprint.heapBytes = usedHeap() - before;
+                return registry;
+        }
+
+        @Benchmark
+        @BenchmarkMode(Mode.AverageTime)
+        @OutputTimeUnit(TimeUnit.NANOSECONDS)
+        public int lookup() {
+                next = (next + 7_919) % entries;
+                return opened.indexOf(login(next));
+        }
+
+        private static long usedHeap() {
+                Runtime runtime = Runtime.getRuntime();
+                System.gc();
+                return runtime.totalMemory() - runtime.freeMemory();
+        }
+}
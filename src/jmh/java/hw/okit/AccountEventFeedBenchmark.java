@@ -0,0 +1,103 @@
+package hw.okit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Deposit throughput with the event feed off, and on with fast or slow subscribers. A slow
+ * subscriber takes one event at a time and spends 50 us on each, so it falls behind at once;
+ * the deposits should not notice it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class AccountEventFeedBenchmark {
+
+        @Param({"off", "fast", "slow"})
+        String subscribers;
+
+        @Param({"1", "4"})
+        int subscriberCount;
+
+        InMemoryServerConnection connection;
+        AccountEventFeed feed;
+        final AtomicInteger threadIds = new AtomicInteger();
+
+        @State(Scope.Thread)
+        public static class Session {
+                Account account;
+
+                @Setup(Level.Trial)
+                public void setUp(AccountEventFeedBenchmark b) {
+                        String login = "bench-" + b.threadIds.getAndIncrement();
+                        b.connection.addAccount(login, "secret", Long.MAX_VALUE / 2);
+                        account = new Account();
+                        account.callLogin(b.connection, login, "secret");
+                        if (b.feed != null)
+                                account.events = b.feed.source(login);
+                }
+        }
+
+        static final class Consumer implements Flow.Subscriber<AccountEvent> {
+                final long pauseNanos;
+                Flow.Subscription subscription;
+
+                Consumer(long pauseNanos) {
+                        this.pauseNanos = pauseNanos;
+                }
+
+                public void onSubscribe(Flow.Subscription subscription) {
+                        this.subscription = subscription;
+                        subscription.request(pauseNanos == 0 ? Long.MAX_VALUE : 1);
+                }
+
+                public void onNext(AccountEvent item) {
+                        if (pauseNanos > 0) {
+                                LockSupport.parkNanos(pauseNanos);
+                                subscription.request(1);
+                        }
+                }
+
+                public void onError(Throwable throwable) {
+                }
+
+                public void onComplete() {
+                }
+        }
+
+        @Setup(Level.Trial)
+        public void setUp() {
+                connection = new InMemoryServerConnection(1024, MoneyScale.CENTS);
+                if (subscribers.equals("off"))
+                        return;
+                feed = new AccountEventFeed(1 << 16);
+                for (int i = 0; i < subscriberCount; i++)
+                        feed.subscribe(new Consumer(subscribers.equals("slow") ? TimeUnit.MICROSECONDS.toNanos(50) : 0));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+                if (feed != null)
+                        feed.close();
+        }
+
+        @Benchmark
+        @Threads(Threads.MAX)
+        public LocalOperationResponse deposit(Session s) {
+                return s.account.deposit(1.0);
+        }
+}
@@ -0,0 +1,114 @@
+package hw.okit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AccountManager session and failure bookkeeping. Each thread cycles through its own logins.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AccountManagerBenchmark {
+
+        @State(Scope.Benchmark)
+        public static class Manager {
+                @Param({"0", "20000"})
+                public long serverLatencyNanos;
+
+                InMemoryServerConnection server;
+                AccountManager manager;
+                final AtomicInteger threadIds = new AtomicInteger();
+
+                @Setup(Level.Trial)
+                public void startServer() {
+                        server = new InMemoryServerConnection(256 * 1024, MoneyScale.CENTS);
+                        server.setLatency(serverLatencyNanos, TimeUnit.NANOSECONDS);
+                }
+
+                @Setup(Level.Iteration)
+                public void setUp() throws OperationFailedException {
+                        manager = new AccountManager();
+                        manager.AccountManager(server, password -> password);
+                }
+        }
+
+        @State(Scope.Thread)
+        public static class Logins {
+                String[] names;
+                int next;
+
+                @Setup(Level.Trial)
+                public void setUp(Manager m) {
+                        int id = m.threadIds.getAndIncrement();
+                        names = new String[256];
+                        for (int i = 0; i < names.length; i++) {
+                                names[i] = "bench-" + id + "-" + i;
+                                m.server.addAccount(names[i], "secret", 0);
+                        }
+                }
+
+                String next() {
+                        return names[next++ & (names.length - 1)];
+                }
+        }
+
+        @Benchmark
+        @Threads(1)
+        public Account loginLogout1(Manager m, Logins l) throws OperationFailedException {
+                return loginLogout(m.manager, l.next());
+        }
+
+        @Benchmark
+        @Threads(Threads.MAX)
+        public Account loginLogoutMax(Manager m, Logins l) throws OperationFailedException {
+                return loginLogout(m.manager, l.next());
+        }
+
+        @Benchmark
+        @Threads(1)
+        public void registerFailure1(Manager m) {
+                m.manager.registerFailure(LocalOperationResponse.INCORRECT_SESSION_RESPONSE);
+        }
+
+        @Benchmark
+        @Threads(Threads.MAX)
+        public void registerFailureMax(Manager m) {
+                m.manager.registerFailure(LocalOperationResponse.INCORRECT_SESSION_RESPONSE);
+        }
+
+        @Benchmark
+        @Threads(1)
+        public Collection<OperationFailedException> getExceptions1(Manager m) {
+                return m.manager.getExceptions();
+        }
+
+        @Benchmark
+        @Threads(Threads.MAX)
+        public Collection<OperationFailedException> getExceptionsMax(Manager m) {
+                return m.manager.getExceptions();
+        }
+
+        @Benchmark
+        @Threads(1)
+        public FailureJournal.Snapshot getFailureSnapshot1(Manager m) {
+                return m.manager.getFailureSnapshot();
+        }
+
+        static Account loginLogout(AccountManager manager, String name) throws OperationFailedException {
+                Account a = manager.login(name, "secret");
+                manager.logout(a);
+                return a;
+        }
+}
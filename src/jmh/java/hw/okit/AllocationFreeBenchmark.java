@@ -0,0 +1,109 @@
+package hw.okit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Boxed LocalOperationResponse calls next to the BalanceResult path. Run with the gc profiler:
+ * the primitive benchmarks should report gc.alloc.rate.norm of 0 B/op.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class AllocationFreeBenchmark {
+
+        @Param({"false", "true"})
+        public boolean balanceCache;
+
+        Account account;
+        final BalanceResult result = new BalanceResult();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+                account = new Account();
+                account.callLogin(new PrimitiveServer(), "bench", "secret");
+                if (balanceCache)
+                        account.enableBalanceCache(1, TimeUnit.HOURS);
+        }
+
+        @Benchmark
+        public LocalOperationResponse depositBoxed() {
+                return account.deposit(1.0);
+        }
+
+        @Benchmark
+        public int depositPrimitive() {
+                return account.deposit(1.0, result);
+        }
+
+        @Benchmark
+        public LocalOperationResponse withdrawBoxed() {
+                return account.withdraw(1.0);
+        }
+
+        @Benchmark
+        public int withdrawPrimitive() {
+                return account.withdraw(1.0, result);
+        }
+
+        @Benchmark
+        public LocalOperationResponse getBalanceBoxed() {
+                return account.getBalance();
+        }
+
+        @Benchmark
+        public int getBalancePrimitive() {
+                return account.getBalance(result);
+        }
+
+        // One session with an unbounded balance; the boxed methods allocate, the primitive ones do not.
+        static final class PrimitiveServer implements IServerConnection {
+                private static final long SESSION = 42L;
+                private double balance = 1_000_000.0;
+
+                public ServerResponse login(String userName, String mdPass) {
+                        return new ServerResponse(ServerResponse.SUCCESS, SESSION);
+                }
+
+                public ServerResponse logout(long session) {
+                        return new ServerResponse(ServerResponse.SUCCESS, null);
+                }
+
+                public ServerResponse withdraw(long session, double amount) {
+                        balance -= amount;
+                        return new ServerResponse(ServerResponse.SUCCESS, balance);
+                }
+
+                public ServerResponse deposit(long session, double amount) {
+                        balance += amount;
+                        return new ServerResponse(ServerResponse.SUCCESS, balance);
+                }
+
+                public ServerResponse getBalance(long session) {
+                        return new ServerResponse(ServerResponse.SUCCESS, balance);
+                }
+
+                public int withdraw(long session, double amount, BalanceResult result) {
+                        balance -= amount;
+                        return result.set(ServerResponse.SUCCESS, balance, null);
+                }
+
+                public int deposit(long session, double amount, BalanceResult result) {
+                        balance += amount;
+                        return result.set(ServerResponse.SUCCESS, balance, null);
+                }
+
+                public int getBalance(long session, BalanceResult result) {
+                        return result.set(ServerResponse.SUCCESS, balance, null);
+                }
+        }
+}
@@ -0,0 +1,95 @@
+package hw.okit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Login/logout throughput while every thread works with its own logins.
+ * {@code mode=global} wraps each login in one shared lock, the way the manager used to,
+ * so the two modes can be compared at 1, 4 and all available threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LoginContentionBenchmark {
+
+        @State(Scope.Benchmark)
+        public static class Manager {
+                @Param({"lockFree", "global"})
+                public String mode;
+
+                @Param({"50000"})
+                public long serverLatencyNanos;
+
+                InMemoryServerConnection server;
+                AccountManager manager;
+                final Lock globalLock = new ReentrantLock();
+                final AtomicInteger threadIds = new AtomicInteger();
+
+                @Setup(Level.Trial)
+                public void setUp() throws OperationFailedException {
+                        server = new InMemoryServerConnection(256 * 1024, MoneyScale.CENTS);
+                        server.setLatency(serverLatencyNanos, TimeUnit.NANOSECONDS);
+                        manager = new AccountManager();
+                        manager.AccountManager(server, password -> password);
+                }
+        }
+
+        @State(Scope.Thread)
+        public static class Logins {
+                String[] names;
+                int next;
+
+                @Setup(Level.Trial)
+                public void setUp(Manager m) {
+                        int id = m.threadIds.getAndIncrement();
+                        names = new String[256];
+                        for (int i = 0; i < names.length; i++) {
+                                names[i] = "bench-" + id + "-" + i;
+                                m.server.addAccount(names[i], "secret", 0);
+                        }
+                }
+        }
+
+        @Benchmark
+        @Threads(1)
+        public Account login1(Manager m, Logins l) throws OperationFailedException {
+                return loginLogout(m, l);
+        }
+
+        @Benchmark
+        @Threads(4)
+        public Account login4(Manager m, Logins l) throws OperationFailedException {
+                return loginLogout(m, l);
+        }
+
+        @Benchmark
+        @Threads(Threads.MAX)
+        public Account loginMax(Manager m, Logins l) throws OperationFailedException {
+                return loginLogout(m, l);
+        }
+
+        private static Account loginLogout(Manager m, Logins l) throws OperationFailedException {
+                String name = l.names[l.next++ & (l.names.length - 1)];
+                if (!"global".equals(m.mode))
+                        return AccountManagerBenchmark.loginLogout(m.manager, name);
+                m.globalLock.lock();
+                try {
+                        return AccountManagerBenchmark.loginLogout(m.manager, name);
+                } finally {
+                        m.globalLock.unlock();
+                }
+        }
+}
@@ -0,0 +1,75 @@
+package hw.okit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the same 1024 deposits and withdrawals to a balance held as double, as long
+ * minor units with overflow checks, and as BigDecimal.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class MoneyArithmeticBenchmark {
+        private static final int OPS = 1024;
+
+        double[] amounts;
+        long[] minorAmounts;
+        BigDecimal[] decimalAmounts;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+                MoneyScale scale = MoneyScale.CENTS;
+                amounts = new double[OPS];
+                minorAmounts = new long[OPS];
+                decimalAmounts = new BigDecimal[OPS];
+                for (int i = 0; i < OPS; i++) {
+                        double amount = (i % 2 == 0 ? 1 : -1) * (i % 97 + 0.01 * (i % 100));
+                        amounts[i] = amount;
+                        minorAmounts[i] = scale.toMinor(amount);
+                        decimalAmounts[i] = BigDecimal.valueOf(minorAmounts[i], scale.getScale());
+                }
+        }
+
+        @Benchmark
+        public double doubleBalance() {
+                double balance = 0;
+                for (double amount : amounts)
+                        balance += amount;
+                return balance;
+        }
+
+        @Benchmark
+        public long minorUnitBalance() {
+                long balance = 0;
+                for (long amount : minorAmounts)
+                        balance = MoneyScale.add(balance, amount);
+                return balance;
+        }
+
+        @Benchmark
+        public BigDecimal bigDecimalBalance() {
+                BigDecimal balance = BigDecimal.ZERO;
+                for (BigDecimal amount : decimalAmounts)
+                        balance = balance.add(amount);
+                return balance;
+        }
+
+        @Benchmark
+        public long minorUnitFromDoubleInput() {
+                MoneyScale scale = MoneyScale.CENTS;
+                long balance = 0;
+                for (double amount : amounts)
+                        balance = MoneyScale.add(balance, scale.toMinor(amount));
+                return balance;
+        }
+}
@@ -0,0 +1,104 @@
+package hw.okit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * getBalance over localhost NIO with the benchmark threads spread across 1..N client
+ * connections: throughput and sampled latency of blocking calls, and throughput of a caller
+ * keeping PIPELINE requests in flight on its connection.
+ */
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class NioTransportBenchmark {
+        static final int PIPELINE = 32;
+
+        @Param({"1", "4", "16"})
+        int connections;
+
+        NioServer server;
+        NioServerConnection[] clients;
+        long[] sessions;
+        final AtomicInteger nextClient = new AtomicInteger();
+
+        @State(Scope.Thread)
+        public static class Caller {
+                NioServerConnection client;
+                long session;
+
+                @Setup(Level.Trial)
+                public void pick(NioTransportBenchmark b) {
+                        int i = b.nextClient.getAndIncrement() % b.connections;
+                        client = b.clients[i];
+                        session = b.sessions[i];
+                }
+        }
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+                InMemoryServerConnection store = new InMemoryServerConnection(64, MoneyScale.CENTS);
+                server = NioServer.start(store, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                clients = new NioServerConnection[connections];
+                sessions = new long[connections];
+                for (int i = 0; i < connections; i++) {
+                        store.addAccount("bench" + i, "p", 1_000_000);
+                        clients[i] = NioServerConnection.connect(server.getAddress());
+                        sessions[i] = (Long) clients[i].login("bench" + i, "p").data;
+                }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+                for (NioServerConnection c : clients)
+                        c.close();
+                server.close();
+        }
+
+        @Benchmark
+        @BenchmarkMode(Mode.Throughput)
+        @Threads(Threads.MAX)
+        public ServerResponse blockingThroughput(Caller caller) {
+                return caller.client.getBalance(caller.session);
+        }
+
+        @Benchmark
+        @BenchmarkMode(Mode.SampleTime)
+        @Threads(Threads.MAX)
+        public ServerResponse blockingLatency(Caller caller) {
+                return caller.client.getBalance(caller.session);
+        }
+
+        @Benchmark
+        @BenchmarkMode(Mode.Throughput)
+        @Threads(4)
+        @OperationsPerInvocation(PIPELINE)
+        public ServerResponse pipelinedThroughput(Caller caller) {
+                IAsyncServerConnection async = caller.client.async();
+                List<CompletableFuture<ServerResponse>> inFlight = new ArrayList<>(PIPELINE);
+                for (int i = 0; i < PIPELINE; i++)
+                        inFlight.add(async.getBalance(caller.session));
+                ServerResponse last = null;
+                for (CompletableFuture<ServerResponse> f : inFlight)
+                        last = f.join();
+                return last;
+        }
+}
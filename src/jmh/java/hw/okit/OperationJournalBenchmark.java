@@ -0,0 +1,65 @@
+package hw.okit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of journaling one withdraw (intent + outcome) under each fsync policy, from one thread
+ * and from all cores; with GROUP_COMMIT the concurrent writers share their forces.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class OperationJournalBenchmark {
+        @Param({"NONE", "GROUP_COMMIT", "ALWAYS"})
+        String policy;
+
+        Path file;
+        OperationJournal journal;
+
+        // A fresh file per iteration keeps the journal from filling up.
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException {
+                file = Files.createTempFile("operation-journal", ".wal");
+                journal = OperationJournal.open(file, 1 << 30, OperationJournal.FsyncPolicy.valueOf(policy));
+                journal.session(42L, "bench");
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+                journal.close();
+                Files.deleteIfExists(file);
+        }
+
+        @Benchmark
+        @Threads(1)
+        public long journalWithdraw1() {
+                return journalWithdraw(journal);
+        }
+
+        @Benchmark
+        @Threads(Threads.MAX)
+        public long journalWithdrawMax() {
+                return journalWithdraw(journal);
+        }
+
+        static long journalWithdraw(OperationJournal journal) {
+                long id = journal.intent(42L, Operation.WITHDRAW, 1.0);
+                journal.outcome(id, LocalOperationResponse.SUCCEED, 99.0);
+                return id;
+        }
+}
@@ -0,0 +1,67 @@
+package hw.okit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Login/logout throughput from all cores against 1..N shards, each shard with its own
+ * in-memory server, so the shard count is the only thing that changes between runs.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ShardedAccountManagerBenchmark {
+
+        @State(Scope.Benchmark)
+        public static class Manager {
+                @Param({"1", "2", "4", "8"})
+                public int shards;
+
+                InMemoryServerConnection[] servers;
+                ShardedAccountManager manager;
+                final AtomicInteger threadIds = new AtomicInteger();
+
+                @Setup(Level.Trial)
+                public void setUp() throws OperationFailedException {
+                        servers = new InMemoryServerConnection[shards];
+                        for (int i = 0; i < shards; i++)
+                                servers[i] = new InMemoryServerConnection(64 * 1024, MoneyScale.CENTS);
+                        manager = new ShardedAccountManager((IServerConnection[]) servers, password -> password);
+                }
+        }
+
+        @State(Scope.Thread)
+        public static class Logins {
+                String[] names;
+                int next;
+
+                @Setup(Level.Trial)
+                public void setUp(Manager m) {
+                        int id = m.threadIds.getAndIncrement();
+                        names = new String[256];
+                        for (int i = 0; i < names.length; i++) {
+                                names[i] = "bench-" + id + "-" + i;
+                                m.servers[m.manager.shardOf(names[i])].addAccount(names[i], "secret", 0);
+                        }
+                }
+        }
+
+        @Benchmark
+        @Threads(Threads.MAX)
+        public Account loginLogoutMax(Manager m, Logins l) throws OperationFailedException {
+                String name = l.names[l.next++ & (l.names.length - 1)];
+                Account a = m.manager.login(name, "secret");
+                m.manager.logout(a);
+                return a;
+        }
+}
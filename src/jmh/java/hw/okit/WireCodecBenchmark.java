@@ -0,0 +1,117 @@
+package hw.okit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One withdraw request and its balance answer encoded and decoded with WireCodec next to the
+ * same two messages through Java serialization. The bytes counter reports what each approach
+ * puts on the wire per round trip.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class WireCodecBenchmark {
+
+        @AuxCounters(AuxCounters.Type.OPERATIONS)
+        @State(Scope.Thread)
+        public static class Wire {
+                public long bytes;
+
+                @Setup(Level.Iteration)
+                public void reset() {
+                        bytes = 0;
+                }
+        }
+
+        // What a generic transport would ship: the request fields and a ServerResponse look-alike.
+        static final class Request implements Serializable {
+                private static final long serialVersionUID = 1L;
+                final int type;
+                final long session;
+                final double amount;
+
+                Request(int type, long session, double amount) {
+                        this.type = type;
+                        this.session = session;
+                        this.amount = amount;
+                }
+        }
+
+        static final class Response implements Serializable {
+                private static final long serialVersionUID = 1L;
+                final int code;
+                final Object data;
+
+                Response(int code, Object data) {
+                        this.code = code;
+                        this.data = data;
+                }
+        }
+
+        final ByteBuffer request = ByteBuffer.allocate(WireCodec.MONEY_REQUEST_BYTES);
+        final ByteBuffer response = ByteBuffer.allocate(WireCodec.MAX_RESPONSE_BYTES);
+        final BalanceResult result = new BalanceResult();
+        long session = 42;
+
+        @Benchmark
+        public double wireCodec(Wire wire) {
+                request.clear();
+                WireCodec.encodeMoney(request, WireCodec.WITHDRAW, session, 1.0, 0);
+                request.flip();
+                wire.bytes += request.remaining();
+                request.get();
+                long s = request.getLong();
+                double amount = request.getDouble();
+                request.getLong();
+
+                response.clear();
+                result.set(ServerResponse.SUCCESS, s + amount, null);
+                WireCodec.encodeResponse(response, result);
+                response.flip();
+                wire.bytes += response.remaining();
+                WireCodec.decodeResponse(response, result);
+                return result.balance;
+        }
+
+        @Benchmark
+        public Object javaSerialization(Wire wire) throws IOException, ClassNotFoundException {
+                byte[] sent = serialize(new Request(Operation.WITHDRAW, session, 1.0));
+                wire.bytes += sent.length;
+                Request r = (Request) deserialize(sent);
+
+                byte[] answer = serialize(new Response(ServerResponse.SUCCESS, r.session + r.amount));
+                wire.bytes += answer.length;
+                return ((Response) deserialize(answer)).data;
+        }
+
+        private static byte[] serialize(Object o) throws IOException {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+                try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                        out.writeObject(o);
+                }
+                return bytes.toByteArray();
+        }
+
+        private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+                try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                        return in.readObject();
+                }
+        }
+}
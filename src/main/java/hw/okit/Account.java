@@ -1,19 +1,425 @@
 package hw.okit;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
 public class Account {
   protected IServerConnection serverConnection;
+  protected IAsyncServerConnection asyncConnection;
   protected String login;
-  protected Long activeSession;
+  // Volatile: the idle-eviction thread clears it while the owner may be reading it.
+  protected volatile Long activeSession;
+  protected BalanceCache balanceCache;
+  protected MoneyScale moneyScale = MoneyScale.CENTS;
+  protected OperationMetrics metrics;
+  protected AdmissionControl.Gate admission;
+  protected SessionLifecycleManager lifecycle;
+  protected volatile long lastAccessTick;
+  protected OperationJournal journal;
+  protected IdempotencyCache idempotency;
+  protected AccountEventFeed.Source events;
   public String getLogin() {
     return login;
   }
   public Long getActiveSession() {
     return activeSession;
   }
+  /** Lets getBalance answer from the last balance the server reported while it is at most maxStaleness old. */
+  public void enableBalanceCache(long maxStaleness, TimeUnit unit) {
+    balanceCache = new BalanceCache(maxStaleness, unit);
+  }
+  public BalanceCache getBalanceCache() {
+    return balanceCache;
+  }
+  public MoneyScale getMoneyScale() {
+    return moneyScale;
+  }
+  public void setMoneyScale(MoneyScale moneyScale) {
+    this.moneyScale = moneyScale;
+  }
   protected LocalOperationResponse callLogin(IServerConnection serverConnection, String login, String password) {
     this.serverConnection = serverConnection;
+    long start = start();
     ServerResponse response = serverConnection.login(login, password);
+    return timed(OperationMetrics.LOGIN, start, journalSession(login, loginResult(response)));
+  }
+  protected CompletableFuture<LocalOperationResponse> callLoginAsync(IServerConnection serverConnection,
+      IAsyncServerConnection asyncConnection, String login, String password) {
+    this.serverConnection = serverConnection;
+    this.asyncConnection = asyncConnection;
+    long start = start();
+    return asyncConnection.login(login, password).thenApply(r -> timed(OperationMetrics.LOGIN, start, journalSession(login, loginResult(r))));
+  }
+  protected LocalOperationResponse callLogout() {
+    if(balanceCache != null)
+      balanceCache.invalidate();
+    Long session = activeSession;
+    if(session == null)
+      return counted(OperationMetrics.LOGOUT, LocalOperationResponse.NOT_LOGGED_RESPONSE);
+    long start = start();
+    ServerResponse response = serverConnection.logout(session);
+    return timed(OperationMetrics.LOGOUT, start, logoutResult(response));
+  }
+  public LocalOperationResponse withdraw(double amount) {
+    Long session = activeSession;
+    if(session == null)
+      return counted(OperationMetrics.WITHDRAW, LocalOperationResponse.NOT_LOGGED_RESPONSE);
+    if(!admitted())
+      return counted(OperationMetrics.WITHDRAW, LocalOperationResponse.RATE_LIMITED_RESPONSE);
+    long id = intent(session, OperationMetrics.WITHDRAW, amount);
+    long start = start();
+    ServerResponse response = serverConnection.withdraw(session, amount);
+    return timed(OperationMetrics.WITHDRAW, start, journaled(id, cache(response, withdrawResult(response))));
+  }
+
+  public LocalOperationResponse deposit(double amount){
+    Long session = activeSession;
+    if(session == null)
+      return counted(OperationMetrics.DEPOSIT, LocalOperationResponse.NOT_LOGGED_RESPONSE);
+    if(!admitted())
+      return counted(OperationMetrics.DEPOSIT, LocalOperationResponse.RATE_LIMITED_RESPONSE);
+    long id = intent(session, OperationMetrics.DEPOSIT, amount);
+    long start = start();
+    ServerResponse response = serverConnection.deposit(session, amount);
+    return timed(OperationMetrics.DEPOSIT, start, journaled(id, cache(response, depositResult(response))));
+  }
+  public LocalOperationResponse getBalance(){
+    Long session = activeSession;
+    if(session == null)
+      return counted(OperationMetrics.GET_BALANCE, LocalOperationResponse.NOT_LOGGED_RESPONSE);
+    LocalOperationResponse cached = cachedBalance();
+    if(cached != null)
+      return counted(OperationMetrics.GET_BALANCE, cached);
+    if(!admitted())
+      return counted(OperationMetrics.GET_BALANCE, LocalOperationResponse.RATE_LIMITED_RESPONSE);
+    long start = start();
+    ServerResponse response = serverConnection.getBalance(session);
+    return timed(OperationMetrics.GET_BALANCE, start, cache(response, balanceResult(response)));
+  }
+
+  /**
+   * Withdraw carrying an idempotency key: retrying with the same key after a timeout cannot
+   * withdraw twice, and concurrent duplicates share one server call. See IdempotencyCache.newKey.
+   */
+  public LocalOperationResponse withdraw(double amount, long idempotencyKey) {
+    checkKey(idempotencyKey);
+    Long session = activeSession;
+    if(session == null)
+      return counted(OperationMetrics.WITHDRAW, LocalOperationResponse.NOT_LOGGED_RESPONSE);
+    if(!admitted())
+      return counted(OperationMetrics.WITHDRAW, LocalOperationResponse.RATE_LIMITED_RESPONSE);
+    long id = intent(session, OperationMetrics.WITHDRAW, amount);
+    long start = start();
+    ServerResponse response = keyed(session, idempotencyKey, () -> serverConnection.withdrawIdempotent(session, amount, idempotencyKey));
+    return timed(OperationMetrics.WITHDRAW, start, journaled(id, cache(response, withdrawResult(response))));
+  }
+
+  public LocalOperationResponse deposit(double amount, long idempotencyKey) {
+    checkKey(idempotencyKey);
+    Long session = activeSession;
+    if(session == null)
+      return counted(OperationMetrics.DEPOSIT, LocalOperationResponse.NOT_LOGGED_RESPONSE);
+    if(!admitted())
+      return counted(OperationMetrics.DEPOSIT, LocalOperationResponse.RATE_LIMITED_RESPONSE);
+    long id = intent(session, OperationMetrics.DEPOSIT, amount);
+    long start = start();
+    ServerResponse response = keyed(session, idempotencyKey, () -> serverConnection.depositIdempotent(session, amount, idempotencyKey));
+    return timed(OperationMetrics.DEPOSIT, start, journaled(id, cache(response, depositResult(response))));
+  }
+
+  // One server call moving the amount from this session to the payee's; both must be open on the same connection.
+  protected LocalOperationResponse callTransfer(Transfer transfer) {
+    LocalOperationResponse refused = beginTransfer(transfer);
+    if(refused != null)
+      return refused;
+    return endTransfer(transfer, serverConnection.transfer(transfer.fromSession, transfer.toSession, transfer.amount));
+  }
+
+  // Local checks before the transfer is sent: the refusal, or null when it may go. A transfer is journaled
+  // as a withdraw here and a deposit on the payee, so recovery sees both sides of an interrupted one.
+  LocalOperationResponse beginTransfer(Transfer transfer) {
+    Long from = activeSession, to = transfer.to.activeSession;
+    if(from == null || to == null)
+      return counted(OperationMetrics.TRANSFER, LocalOperationResponse.NOT_LOGGED_RESPONSE);
+    if(!admitted())
+      return counted(OperationMetrics.TRANSFER, LocalOperationResponse.RATE_LIMITED_RESPONSE);
+    transfer.fromSession = from;
+    transfer.toSession = to;
+    transfer.paid = intent(from, OperationMetrics.WITHDRAW, transfer.amount);
+    transfer.received = transfer.to.intent(to, OperationMetrics.DEPOSIT, transfer.amount);
+    transfer.start = start();
+    return null;
+  }
+
+  // The answer carries the payer's balance, like a withdraw; the payee's cached balance is dropped.
+  LocalOperationResponse endTransfer(Transfer transfer, ServerResponse response) {
+    LocalOperationResponse result = journaled(transfer.paid, cache(response, withdrawResult(response)));
+    Account to = transfer.to;
+    if(transfer.received >= 0)
+      to.journal.outcome(transfer.received, result.code, Double.NaN);
+    if(to.balanceCache != null)
+      to.balanceCache.invalidate();
+    return timed(OperationMetrics.TRANSFER, transfer.start, result);
+  }
+
+  /** Allocation-free withdraw: fills result and returns its LocalOperationResponse code. */
+  public int withdraw(double amount, BalanceResult result) {
+    Long session = activeSession;
+    if(session == null)
+      return counted(OperationMetrics.WITHDRAW, result.set(LocalOperationResponse.NOT_LOGGED, Double.NaN, null));
+    if(!admitted())
+      return counted(OperationMetrics.WITHDRAW, result.set(LocalOperationResponse.RATE_LIMITED, Double.NaN, null));
+    long id = intent(session, OperationMetrics.WITHDRAW, amount);
+    long start = start();
+    serverConnection.withdraw(session, amount, result);
+    return timed(OperationMetrics.WITHDRAW, start, journaled(id, result, cache(withdrawResult(result))), result.balance);
+  }
+
+  public int deposit(double amount, BalanceResult result) {
+    Long session = activeSession;
+    if(session == null)
+      return counted(OperationMetrics.DEPOSIT, result.set(LocalOperationResponse.NOT_LOGGED, Double.NaN, null));
+    if(!admitted())
+      return counted(OperationMetrics.DEPOSIT, result.set(LocalOperationResponse.RATE_LIMITED, Double.NaN, null));
+    long id = intent(session, OperationMetrics.DEPOSIT, amount);
+    long start = start();
+    serverConnection.deposit(session, amount, result);
+    return timed(OperationMetrics.DEPOSIT, start, journaled(id, result, cache(depositResult(result))), result.balance);
+  }
+
+  public int getBalance(BalanceResult result) {
+    Long session = activeSession;
+    if(session == null)
+      return counted(OperationMetrics.GET_BALANCE, result.set(LocalOperationResponse.NOT_LOGGED, Double.NaN, null));
+    if(balanceCache != null) {
+      double cached = balanceCache.lookup();
+      if(!Double.isNaN(cached)) {
+        touch();
+        return counted(OperationMetrics.GET_BALANCE, result.set(LocalOperationResponse.SUCCEED, cached, null));
+      }
+    }
+    if(!admitted())
+      return counted(OperationMetrics.GET_BALANCE, result.set(LocalOperationResponse.RATE_LIMITED, Double.NaN, null));
+    long start = start();
+    serverConnection.getBalance(session, result);
+    return timed(OperationMetrics.GET_BALANCE, start, cache(balanceResult(result)), result.balance);
+  }
+
+  /** Exact withdraw in minor units of the account's MoneyScale; the answer carries the new balance as a Long. */
+  public LocalOperationResponse withdrawMinor(long amount) {
+    Long session = activeSession;
+    if(session == null)
+      return counted(OperationMetrics.WITHDRAW, LocalOperationResponse.NOT_LOGGED_RESPONSE);
+    if(!admitted())
+      return counted(OperationMetrics.WITHDRAW, LocalOperationResponse.RATE_LIMITED_RESPONSE);
+    long id = intent(session, OperationMetrics.WITHDRAW, moneyScale.toMajor(amount));
+    long start = start();
+    ServerResponse response = serverConnection.withdrawMinor(session, amount, moneyScale);
+    return timed(OperationMetrics.WITHDRAW, start, journaled(id, cacheMinor(minorResult(response))));
+  }
+
+  public LocalOperationResponse depositMinor(long amount) {
+    Long session = activeSession;
+    if(session == null)
+      return counted(OperationMetrics.DEPOSIT, LocalOperationResponse.NOT_LOGGED_RESPONSE);
+    if(!admitted())
+      return counted(OperationMetrics.DEPOSIT, LocalOperationResponse.RATE_LIMITED_RESPONSE);
+    long id = intent(session, OperationMetrics.DEPOSIT, moneyScale.toMajor(amount));
+    long start = start();
+    ServerResponse response = serverConnection.depositMinor(session, amount, moneyScale);
+    return timed(OperationMetrics.DEPOSIT, start, journaled(id, cacheMinor(minorResult(response))));
+  }
+
+  public LocalOperationResponse getBalanceMinor() {
+    Long session = activeSession;
+    if(session == null)
+      return counted(OperationMetrics.GET_BALANCE, LocalOperationResponse.NOT_LOGGED_RESPONSE);
+    if(!admitted())
+      return counted(OperationMetrics.GET_BALANCE, LocalOperationResponse.RATE_LIMITED_RESPONSE);
+    long start = start();
+    ServerResponse response = serverConnection.getBalanceMinor(session, moneyScale);
+    return timed(OperationMetrics.GET_BALANCE, start, cacheMinor(minorResult(response)));
+  }
+
+  public CompletableFuture<LocalOperationResponse> withdrawAsync(double amount) {
+    Long session = activeSession;
+    if(session == null)
+      return CompletableFuture.completedFuture(counted(OperationMetrics.WITHDRAW, LocalOperationResponse.NOT_LOGGED_RESPONSE));
+    if(!admitted())
+      return CompletableFuture.completedFuture(counted(OperationMetrics.WITHDRAW, LocalOperationResponse.RATE_LIMITED_RESPONSE));
+    long id = intent(session, OperationMetrics.WITHDRAW, amount);
+    long start = start();
+    return asyncConnection().withdraw(session, amount)
+      .thenApply(r -> timed(OperationMetrics.WITHDRAW, start, journaled(id, cache(r, withdrawResult(r)))));
+  }
+
+  public CompletableFuture<LocalOperationResponse> depositAsync(double amount) {
+    Long session = activeSession;
+    if(session == null)
+      return CompletableFuture.completedFuture(counted(OperationMetrics.DEPOSIT, LocalOperationResponse.NOT_LOGGED_RESPONSE));
+    if(!admitted())
+      return CompletableFuture.completedFuture(counted(OperationMetrics.DEPOSIT, LocalOperationResponse.RATE_LIMITED_RESPONSE));
+    long id = intent(session, OperationMetrics.DEPOSIT, amount);
+    long start = start();
+    return asyncConnection().deposit(session, amount)
+      .thenApply(r -> timed(OperationMetrics.DEPOSIT, start, journaled(id, cache(r, depositResult(r)))));
+  }
+
+  public CompletableFuture<LocalOperationResponse> getBalanceAsync() {
+    Long session = activeSession;
+    if(session == null)
+      return CompletableFuture.completedFuture(counted(OperationMetrics.GET_BALANCE, LocalOperationResponse.NOT_LOGGED_RESPONSE));
+    LocalOperationResponse cached = cachedBalance();
+    if(cached != null)
+      return CompletableFuture.completedFuture(counted(OperationMetrics.GET_BALANCE, cached));
+    if(!admitted())
+      return CompletableFuture.completedFuture(counted(OperationMetrics.GET_BALANCE, LocalOperationResponse.RATE_LIMITED_RESPONSE));
+    long start = start();
+    return asyncConnection().getBalance(session)
+      .thenApply(r -> timed(OperationMetrics.GET_BALANCE, start, cache(r, balanceResult(r))));
+  }
+
+  private boolean admitted() {
+    touch();
+    AdmissionControl.Gate gate = admission;
+    return gate == null || gate.tryAcquire();
+  }
+
+  // Id of the journal intent written for the operation, or -1 without a journal.
+  private long intent(long session, int operation, double amount) {
+    OperationJournal j = journal;
+    return j == null ? -1 : j.intent(session, operation, amount);
+  }
+
+  private LocalOperationResponse journaled(long id, LocalOperationResponse result) {
+    if(id >= 0)
+      journal.outcome(id, result.code, balanceOf(result));
+    return result;
+  }
+
+  private int journaled(long id, BalanceResult result, int code) {
+    if(id >= 0)
+      journal.outcome(id, code, balanceOf(code, result.balance));
+    return code;
+  }
+
+  private LocalOperationResponse journalSession(String login, LocalOperationResponse result) {
+    OperationJournal j = journal;
+    if(j != null && result.code == LocalOperationResponse.SUCCEED)
+      j.session(activeSession, login);
+    return result;
+  }
+
+  // Before anything else, so a bad key neither takes an admission permit nor leaves an intent behind.
+  private static void checkKey(long key) {
+    if(key == 0)
+      throw new IllegalArgumentException("idempotency key 0 is reserved");
+  }
+
+  private ServerResponse keyed(long session, long key, Supplier<ServerResponse> call) {
+    IdempotencyCache c = idempotency;
+    return c == null ? call.get() : c.execute(session, key, call);
+  }
+
+  private void touch() {
+    SessionLifecycleManager l = lifecycle;
+    if(l != null)
+      l.touch(this);
+  }
+
+  private long start() {
+    return metrics == null ? 0 : System.nanoTime();
+  }
+
+  private LocalOperationResponse timed(int operation, long start, LocalOperationResponse result) {
+    OperationMetrics m = metrics;
+    if(m != null)
+      m.record(operation, result.code, System.nanoTime() - start);
+    return published(operation, result);
+  }
+
+  private int timed(int operation, long start, int code, double balance) {
+    OperationMetrics m = metrics;
+    if(m != null)
+      m.record(operation, code, System.nanoTime() - start);
+    return published(operation, code, balance);
+  }
+
+  private LocalOperationResponse counted(int operation, LocalOperationResponse result) {
+    OperationMetrics m = metrics;
+    if(m != null)
+      m.count(operation, result.code);
+    return published(operation, result);
+  }
+
+  private int counted(int operation, int code) {
+    OperationMetrics m = metrics;
+    if(m != null)
+      m.count(operation, code);
+    return published(operation, code, Double.NaN);
+  }
+
+  // A login answer carries the session, not a balance.
+  private LocalOperationResponse published(int operation, LocalOperationResponse result) {
+    if(events != null)
+      published(operation, result.code, operation == OperationMetrics.LOGIN ? Double.NaN : balanceOf(result));
+    return result;
+  }
+
+  private int published(int operation, int code, double balance) {
+    AccountEventFeed.Source e = events;
+    if(e != null) {
+      Long session = activeSession;
+      e.publish(operation, session == null ? 0 : session, code, balanceOf(code, balance));
+    }
+    return code;
+  }
+
+  // The balance an answer reports in major units, or NaN when its code says the payload is something else.
+  private double balanceOf(LocalOperationResponse result) {
+    Object r = result.response;
+    return balanceOf(result.code, r instanceof Double ? (Double) r : r instanceof Long ? moneyScale.toMajor((Long) r) : Double.NaN);
+  }
+
+  private static double balanceOf(int code, double balance) {
+    return LocalOperationResponse.carriesBalance(code) ? balance : Double.NaN;
+  }
+
+  private LocalOperationResponse cachedBalance() {
+    if(balanceCache == null)
+      return null;
+    double balance = balanceCache.lookup();
+    if(Double.isNaN(balance))
+      return null;
+    touch();
+    return new LocalOperationResponse(LocalOperationResponse.SUCCEED, balance);
+  }
+
+  // Successful and NO_MONEY answers both carry the current balance; a lost session drops it.
+  private LocalOperationResponse cache(ServerResponse response, LocalOperationResponse result) {
+    BalanceCache c = balanceCache;
+    if(c == null)
+      return result;
+    if(response.code == ServerResponse.NOT_LOGGED || response.code == ServerResponse.INCORRECT_SESSION)
+      c.invalidate();
+    else if((result.code == LocalOperationResponse.SUCCEED || result.code == LocalOperationResponse.NO_MONEY)
+        && result.response instanceof Double)
+      c.update((Double) result.response);
+    return result;
+  }
+
+  // Sessions opened through the blocking callLogin run their async calls on the caller's thread.
+  private IAsyncServerConnection asyncConnection() {
+    if(asyncConnection == null)
+      asyncConnection = new BlockingAsyncServerConnection(serverConnection, Runnable::run);
+    return asyncConnection;
+  }
+
+  private LocalOperationResponse loginResult(ServerResponse response) {
     switch(response.code) {
+      case ServerResponse.UNAVAILABLE:
+        return LocalOperationResponse.SERVICE_UNAVAILABLE_RESPONSE;
       case ServerResponse.ALREADY_LOGGED:
         return LocalOperationResponse.ACCOUNT_MANAGER_RESPONSE;
       case ServerResponse.NO_USER_INCORRECT_PASSWORD:
@@ -29,26 +435,146 @@ public class Account {
     }
     return new LocalOperationResponse(LocalOperationResponse.INCORRECT_RESPONSE, response);
   }
-  protected LocalOperationResponse callLogout() {
-    if(activeSession == null)
-      return LocalOperationResponse.NOT_LOGGED_RESPONSE;
-    ServerResponse response = serverConnection.logout(activeSession);
+
+  private LocalOperationResponse cacheMinor(LocalOperationResponse result) {
+    BalanceCache c = balanceCache;
+    if(c == null)
+      return result;
+    if(result.code == LocalOperationResponse.NOT_LOGGED || result.code == LocalOperationResponse.INCORRECT_SESSION)
+      c.invalidate();
+    else if((result.code == LocalOperationResponse.SUCCEED || result.code == LocalOperationResponse.NO_MONEY)
+        && result.response instanceof Long)
+      c.update(moneyScale.toMajor((Long) result.response));
+    return result;
+  }
+
+  private int cache(BalanceResult result) {
+    BalanceCache c = balanceCache;
+    if(c == null)
+      return result.code;
+    if(result.code == LocalOperationResponse.NOT_LOGGED || result.code == LocalOperationResponse.INCORRECT_SESSION)
+      c.invalidate();
+    else if(result.code == LocalOperationResponse.SUCCEED || result.code == LocalOperationResponse.NO_MONEY)
+      c.update(result.balance);
+    return result.code;
+  }
+
+  // The three mappings below rewrite a ServerResponse code in place, mirroring the boxed versions.
+  private static BalanceResult withdrawResult(BalanceResult result) {
+    switch(result.code){
+      case ServerResponse.NOT_LOGGED:
+        result.set(LocalOperationResponse.NOT_LOGGED, Double.NaN, null);
+        return result;
+      case ServerResponse.UNAVAILABLE:
+        result.set(LocalOperationResponse.SERVICE_UNAVAILABLE, Double.NaN, result.detail);
+        return result;
+      case ServerResponse.UNDEFINED_ERROR:
+        result.code = LocalOperationResponse.UNDEFINED_ERROR;
+        return result;
+      case ServerResponse.INCORRECT_SESSION:
+        result.code = LocalOperationResponse.INCORRECT_SESSION;
+        return result;
+      case ServerResponse.NO_MONEY:
+        if(result.hasBalance()) {
+          result.code = LocalOperationResponse.NO_MONEY;
+          return result;
+        }
+        break;
+      case ServerResponse.SUCCESS:
+        if(result.hasBalance()) {
+          result.code = LocalOperationResponse.SUCCEED;
+          return result;
+        }
+        break;
+    }
+    result.set(LocalOperationResponse.INCORRECT_RESPONSE, Double.NaN, result.detail);
+    return result;
+  }
+
+  private static BalanceResult depositResult(BalanceResult result) {
+    switch(result.code){
+      case ServerResponse.NOT_LOGGED:
+        result.set(LocalOperationResponse.NOT_LOGGED, Double.NaN, null);
+        return result;
+      case ServerResponse.UNAVAILABLE:
+        result.set(LocalOperationResponse.SERVICE_UNAVAILABLE, Double.NaN, result.detail);
+        return result;
+      case ServerResponse.NO_MONEY:
+        if(result.hasBalance()) {
+          result.code = LocalOperationResponse.NO_MONEY;
+          return result;
+        }
+        break;
+      case ServerResponse.SUCCESS:
+        if(result.hasBalance()) {
+          result.code = LocalOperationResponse.SUCCEED;
+          return result;
+        }
+        break;
+    }
+    result.set(LocalOperationResponse.INCORRECT_RESPONSE, Double.NaN, result.detail);
+    return result;
+  }
+
+  private static BalanceResult balanceResult(BalanceResult result) {
+    switch(result.code){
+      case ServerResponse.NOT_LOGGED:
+        result.set(LocalOperationResponse.NOT_LOGGED, Double.NaN, null);
+        return result;
+      case ServerResponse.UNAVAILABLE:
+        result.set(LocalOperationResponse.SERVICE_UNAVAILABLE, Double.NaN, result.detail);
+        return result;
+      case ServerResponse.SUCCESS:
+        if(result.hasBalance()) {
+          result.code = LocalOperationResponse.SUCCEED;
+          return result;
+        }
+        break;
+    }
+    result.set(LocalOperationResponse.INCORRECT_RESPONSE, Double.NaN, result.detail);
+    return result;
+  }
+
+  static LocalOperationResponse logoutResult(ServerResponse response) {
     switch(response.code){
       case ServerResponse.NOT_LOGGED:
         return LocalOperationResponse.NOT_LOGGED_RESPONSE;
+      case ServerResponse.UNAVAILABLE:
+        return LocalOperationResponse.SERVICE_UNAVAILABLE_RESPONSE;
       case ServerResponse.SUCCESS:
         return LocalOperationResponse.SUCCEED_RESPONSE;
     }
     return new LocalOperationResponse(LocalOperationResponse.INCORRECT_RESPONSE, response);
-    
   }
-  public LocalOperationResponse withdraw(double amount) {
-    if(activeSession == null)
-      return LocalOperationResponse.NOT_LOGGED_RESPONSE;
-    ServerResponse response = serverConnection.withdraw(activeSession, amount);
+
+  private static LocalOperationResponse minorResult(ServerResponse response) {
+    switch(response.code){
+      case ServerResponse.NOT_LOGGED:
+        return LocalOperationResponse.NOT_LOGGED_RESPONSE;
+      case ServerResponse.UNAVAILABLE:
+        return LocalOperationResponse.SERVICE_UNAVAILABLE_RESPONSE;
+      case ServerResponse.UNDEFINED_ERROR:
+        return new LocalOperationResponse(LocalOperationResponse.UNDEFINED_ERROR, response.data);
+      case ServerResponse.INCORRECT_SESSION:
+        return new LocalOperationResponse(LocalOperationResponse.INCORRECT_SESSION, response.data);
+      case ServerResponse.NO_MONEY:
+        if(response.data instanceof Long)
+          return new LocalOperationResponse(LocalOperationResponse.NO_MONEY, response.data);
+        break;
+      case ServerResponse.SUCCESS:
+        if(response.data instanceof Long)
+          return new LocalOperationResponse(LocalOperationResponse.SUCCEED, response.data);
+        break;
+    }
+    return new LocalOperationResponse(LocalOperationResponse.INCORRECT_RESPONSE, response);
+  }
+
+  private static LocalOperationResponse withdrawResult(ServerResponse response) {
     switch(response.code){
       case ServerResponse.NOT_LOGGED:
         return LocalOperationResponse.NOT_LOGGED_RESPONSE;
+      case ServerResponse.UNAVAILABLE:
+        return LocalOperationResponse.SERVICE_UNAVAILABLE_RESPONSE;
       case ServerResponse.UNDEFINED_ERROR:
         return new LocalOperationResponse(LocalOperationResponse.UNDEFINED_ERROR, response.data);
       case ServerResponse.INCORRECT_SESSION:
@@ -68,13 +594,12 @@ public class Account {
     return new LocalOperationResponse(LocalOperationResponse.INCORRECT_RESPONSE, response);
   }
 
-  public LocalOperationResponse deposit(double amount){
-    if(activeSession == null)
-      return LocalOperationResponse.NOT_LOGGED_RESPONSE;
-    ServerResponse response = serverConnection.deposit(activeSession, amount);
+  private static LocalOperationResponse depositResult(ServerResponse response) {
     switch(response.code){
       case ServerResponse.NOT_LOGGED:
         return LocalOperationResponse.NOT_LOGGED_RESPONSE;
+      case ServerResponse.UNAVAILABLE:
+        return LocalOperationResponse.SERVICE_UNAVAILABLE_RESPONSE;
       case ServerResponse.NO_MONEY:
         Object r = response.data;
         if(r!=null && r instanceof Double)
@@ -87,14 +612,14 @@ public class Account {
         break;
     }
     return new LocalOperationResponse(LocalOperationResponse.INCORRECT_RESPONSE, response);
-  }  
-  public LocalOperationResponse getBalance(){
-    if(activeSession == null)
-      return LocalOperationResponse.NOT_LOGGED_RESPONSE;
-    ServerResponse response = serverConnection.getBalance(activeSession);
+  }
+
+  private static LocalOperationResponse balanceResult(ServerResponse response) {
     switch(response.code){
       case ServerResponse.NOT_LOGGED:
         return LocalOperationResponse.NOT_LOGGED_RESPONSE;
+      case ServerResponse.UNAVAILABLE:
+        return LocalOperationResponse.SERVICE_UNAVAILABLE_RESPONSE;
       case ServerResponse.SUCCESS:
         Object r = response.data;
         if(r!=null && r instanceof Double)
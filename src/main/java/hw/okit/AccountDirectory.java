@@ -0,0 +1,246 @@
+package hw.okit;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Read-only set of known logins, kept as a sorted string table: one UTF-8 login per line in
+ * unsigned byte order, usually a memory-mapped file. Opening it makes one sequential pass to
+ * check the order and remember where every 16th line starts, so the heap holds about 4 bytes
+ * per 16 logins and the rest stays in the page cache. A lookup binary-searches those samples
+ * and scans at most 16 lines. Each login has a dense index, which AccountManager uses to
+ * create Account placeholders only when a login is first touched.
+ */
+public class AccountDirectory {
+  private static final int SAMPLE = 16;
+  private static final byte NEWLINE = '\n';
+  private static final AccountDirectory EMPTY = new AccountDirectory(ByteBuffer.allocate(0));
+
+  private final ByteBuffer data;
+  private final int size;
+  // Lines in the mapping; size is smaller in a view.
+  private final int lines;
+  // Offset of line 0, 16, 32, ...
+  private final int[] samples;
+  // Only in a view: which lines of each block of 16 it holds, and how many it holds before the block.
+  private final short[] owned;
+  private final int[] ranks;
+
+  private AccountDirectory(ByteBuffer data) {
+    this.data = data;
+    int limit = data.limit();
+    int lines = 0;
+    for(int i = 0; i < limit; i++)
+      if(data.get(i) == NEWLINE)
+        lines++;
+    if(limit > 0 && data.get(limit - 1) != NEWLINE)
+      lines++;
+    int[] s = new int[(lines + SAMPLE - 1) / SAMPLE];
+    int start = 0, previous = -1;
+    for(int line = 0; line < lines; line++) {
+      int end = lineEnd(start);
+      if(end == start)
+        throw new IllegalArgumentException("empty login on line " + (line + 1));
+      if(previous >= 0 && compareLines(previous, start) >= 0)
+        throw new IllegalArgumentException("logins must be unique and sorted by UTF-8 bytes, see line " + (line + 1));
+      if(line % SAMPLE == 0)
+        s[line / SAMPLE] = start;
+      previous = start;
+      start = end + 1;
+    }
+    this.size = lines;
+    this.lines = lines;
+    this.samples = s;
+    this.owned = null;
+    this.ranks = null;
+  }
+
+  private AccountDirectory(AccountDirectory base, short[] owned) {
+    this.data = base.data;
+    this.lines = base.lines;
+    this.samples = base.samples;
+    this.owned = owned;
+    this.ranks = new int[owned.length];
+    int n = 0;
+    for(int b = 0; b < owned.length; b++) {
+      ranks[b] = n;
+      n += Integer.bitCount(owned[b] & 0xFFFF);
+    }
+    this.size = n;
+  }
+
+  /** Maps a directory file written by write (or any file of sorted, unique, newline-separated logins). */
+  public static AccountDirectory open(Path file) throws IOException {
+    try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long length = channel.size();
+      if(length > Integer.MAX_VALUE)
+        throw new IOException("directory file larger than 2 GB");
+      return new AccountDirectory(channel.map(FileChannel.MapMode.READ_ONLY, 0, length));
+    }
+  }
+
+  /** A small directory on the heap, e.g. for defaults and tests. */
+  public static AccountDirectory of(String... logins) {
+    if(logins.length == 0)
+      return EMPTY;
+    byte[][] sorted = sort(Arrays.asList(logins));
+    int length = 0;
+    for(byte[] b : sorted)
+      length += b.length + 1;
+    ByteBuffer data = ByteBuffer.allocate(length);
+    for(byte[] b : sorted)
+      data.put(b).put(NEWLINE);
+    return new AccountDirectory(data.flip());
+  }
+
+  /** Writes logins to file in the directory format, sorted and without duplicates. */
+  public static void write(Path file, Iterable<String> logins) throws IOException {
+    List<String> all = new ArrayList<>();
+    for(String login : logins)
+      all.add(login);
+    byte[][] sorted = sort(all);
+    try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+      for(byte[] b : sorted) {
+        out.write(b);
+        out.write(NEWLINE);
+      }
+    }
+  }
+
+  /**
+   * Splits the logins into parts views of this directory in one sequential pass, each login going
+   * to the part the function names, e.g. the shard that owns it. The views share this mapping and
+   * add about 6 bytes per 16 logins of their own; each numbers its logins densely from 0.
+   */
+  AccountDirectory[] split(int parts, ToIntFunction<String> part) {
+    int blocks = samples.length;
+    short[][] owned = new short[parts][blocks];
+    int start = 0;
+    for(int line = 0; line < lines; line++) {
+      int end = lineEnd(start);
+      byte[] login = new byte[end - start];
+      data.get(start, login);
+      owned[part.applyAsInt(new String(login, StandardCharsets.UTF_8))][line / SAMPLE] |= (short) (1 << (line % SAMPLE));
+      start = end + 1;
+    }
+    AccountDirectory[] views = new AccountDirectory[parts];
+    for(int i = 0; i < parts; i++)
+      views[i] = new AccountDirectory(this, owned[i]);
+    return views;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** Heap taken by the index, not counting the mapped file. */
+  public long getIndexBytes() {
+    return 16L + 4L * samples.length + (owned == null ? 0 : 6L * owned.length);
+  }
+
+  public boolean contains(String login) {
+    return indexOf(login) >= 0;
+  }
+
+  /** Position of the login in sort order, 0..size-1, or -1 when it is not in the directory. */
+  public int indexOf(String login) {
+    if(size == 0)
+      return -1;
+    int line = lineOf(login);
+    if(line < 0 || owned == null)
+      return line;
+    int block = line / SAMPLE, bits = owned[block] & 0xFFFF, bit = 1 << (line % SAMPLE);
+    return (bits & bit) == 0 ? -1 : ranks[block] + Integer.bitCount(bits & (bit - 1));
+  }
+
+  // Line number of the login in the whole mapping, ignoring any view.
+  private int lineOf(String login) {
+    if(login == null || samples.length == 0)
+      return -1;
+    byte[] key = login.getBytes(StandardCharsets.UTF_8);
+    int lo = 0, hi = samples.length - 1, block = -1;
+    while(lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if(compare(samples[mid], key) <= 0) {
+        block = mid;
+        lo = mid + 1;
+      } else
+        hi = mid - 1;
+    }
+    if(block < 0)
+      return -1;
+    int at = samples[block];
+    for(int i = block * SAMPLE; i < Math.min(lines, (block + 1) * SAMPLE); i++) {
+      int c = compare(at, key);
+      if(c == 0)
+        return i;
+      if(c > 0)
+        return -1;
+      at = lineEnd(at) + 1;
+    }
+    return -1;
+  }
+
+  private int lineEnd(int start) {
+    int limit = data.limit();
+    int i = start;
+    while(i < limit && data.get(i) != NEWLINE)
+      i++;
+    return i;
+  }
+
+  // Unsigned byte order of the line at offset against key.
+  private int compare(int offset, byte[] key) {
+    int limit = data.limit();
+    for(int i = 0; ; i++) {
+      boolean lineDone = offset + i >= limit || data.get(offset + i) == NEWLINE;
+      if(i == key.length)
+        return lineDone ? 0 : 1;
+      if(lineDone)
+        return -1;
+      int c = Byte.toUnsignedInt(data.get(offset + i)) - Byte.toUnsignedInt(key[i]);
+      if(c != 0)
+        return c;
+    }
+  }
+
+  private int compareLines(int a, int b) {
+    int limit = data.limit();
+    for(int i = 0; ; i++) {
+      boolean aDone = a + i >= limit || data.get(a + i) == NEWLINE;
+      boolean bDone = b + i >= limit || data.get(b + i) == NEWLINE;
+      if(aDone || bDone)
+        return aDone == bDone ? 0 : aDone ? -1 : 1;
+      int c = Byte.toUnsignedInt(data.get(a + i)) - Byte.toUnsignedInt(data.get(b + i));
+      if(c != 0)
+        return c;
+    }
+  }
+
+  private static byte[][] sort(List<String> logins) {
+    byte[][] bytes = new byte[logins.size()][];
+    for(int i = 0; i < bytes.length; i++) {
+      bytes[i] = logins.get(i).getBytes(StandardCharsets.UTF_8);
+      for(byte b : bytes[i])
+        if(b == NEWLINE)
+          throw new IllegalArgumentException("login contains a line break");
+    }
+    Arrays.sort(bytes, Arrays::compareUnsigned);
+    int distinct = 0;
+    for(int i = 0; i < bytes.length; i++)
+      if(distinct == 0 || !Arrays.equals(bytes[distinct - 1], bytes[i]))
+        bytes[distinct++] = bytes[i];
+    return Arrays.copyOf(bytes, distinct);
+  }
+}
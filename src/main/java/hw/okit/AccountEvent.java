@@ -0,0 +1,29 @@
+package hw.okit;
+
+/**
+ * Outcome of one Account operation as published by AccountEventFeed. Sequence numbers are
+ * consecutive across the feed, so a gap means the subscriber fell behind and events were skipped.
+ */
+public class AccountEvent {
+  public final long sequence;
+  // An OperationMetrics operation: LOGIN, LOGOUT, WITHDRAW, DEPOSIT, GET_BALANCE or TRANSFER.
+  public final int operation;
+  public final String login;
+  // 0 when the account had no session, e.g. a refused login.
+  public final long session;
+  // A LocalOperationResponse code.
+  public final int code;
+  // Balance the answer carried, in major units, or NaN when it carried none.
+  public final double balance;
+  AccountEvent(long sequence, int operation, String login, long session, int code, double balance) {
+    this.sequence = sequence;
+    this.operation = operation;
+    this.login = login;
+    this.session = session;
+    this.code = code;
+    this.balance = balance;
+  }
+  public boolean hasBalance() {
+    return !Double.isNaN(balance);
+  }
+}
@@ -0,0 +1,259 @@
+package hw.okit;
+
+import java.lang.invoke.VarHandle;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes the outcome of Account operations to any number of Flow subscribers, so consumers
+ * can follow balances as they change instead of polling getBalance. Events go into a ring of
+ * capacity slots written in place by the threads finishing the operations; a producer never
+ * allocates and never waits for a subscriber. Each subscriber reads the ring at its own pace on
+ * the feed's executor, only as far as its requested demand allows. One that falls a whole ring
+ * behind skips to the oldest event still held, which shows as a gap in AccountEvent.sequence.
+ */
+public class AccountEventFeed implements Flow.Publisher<AccountEvent>, AutoCloseable {
+  private final int capacity;
+  private final int mask;
+  // Per slot: seq + 1 once event seq can be read, -(seq + 1) while it is being written, 0 before first use.
+  private final AtomicLongArray stamps;
+  private final int[] operations;
+  private final String[] logins;
+  private final long[] sessions;
+  private final int[] codes;
+  private final double[] balances;
+  private final AtomicLong next = new AtomicLong();
+  private final CopyOnWriteArrayList<Feed> feeds = new CopyOnWriteArrayList<>();
+  private final Executor executor;
+  private final ExecutorService ownExecutor;
+  private volatile boolean closed;
+
+  private final LongAdder published = new LongAdder();
+  private final LongAdder overwritten = new LongAdder();
+  private final LongAdder skipped = new LongAdder();
+
+  /** Delivers to subscribers on a pool of daemon threads owned by the feed. */
+  public AccountEventFeed(int capacity) {
+    this(capacity, null);
+  }
+
+  public AccountEventFeed(int capacity, Executor executor) {
+    if(capacity < 2 || Integer.bitCount(capacity) != 1)
+      throw new IllegalArgumentException("capacity must be a power of two");
+    this.capacity = capacity;
+    this.mask = capacity - 1;
+    stamps = new AtomicLongArray(capacity);
+    operations = new int[capacity];
+    logins = new String[capacity];
+    sessions = new long[capacity];
+    codes = new int[capacity];
+    balances = new double[capacity];
+    ownExecutor = executor == null ? Executors.newCachedThreadPool(r -> {
+      Thread t = new Thread(r, "account-event-feed");
+      t.setDaemon(true);
+      return t;
+    }) : null;
+    this.executor = executor == null ? ownExecutor : executor;
+  }
+
+  /** Handle through which the accounts of one login publish, as AdmissionControl hands out gates. */
+  public Source source(String login) {
+    return new Source(login);
+  }
+
+  /** Subscribers see the events published after they subscribe. */
+  public void subscribe(Flow.Subscriber<? super AccountEvent> subscriber) {
+    Objects.requireNonNull(subscriber);
+    Feed feed = new Feed(subscriber, next.get());
+    subscriber.onSubscribe(feed);
+    feeds.add(feed);
+    if(closed)
+      feed.schedule();
+  }
+
+  public void publish(int operation, String login, long session, int code, double balance) {
+    if(closed)
+      return;
+    long seq = next.getAndIncrement();
+    int slot = (int) seq & mask;
+    // Waits out a writer one lap behind in the same slot; gives up if one a lap ahead already has it.
+    while(true) {
+      long stamp = stamps.get(slot);
+      if(Math.abs(stamp) > seq + 1) {
+        overwritten.increment();
+        return;
+      }
+      if(stamp >= 0 && stamps.compareAndSet(slot, stamp, -(seq + 1)))
+        break;
+      Thread.onSpinWait();
+    }
+    operations[slot] = operation;
+    logins[slot] = login;
+    sessions[slot] = session;
+    codes[slot] = code;
+    balances[slot] = balance;
+    stamps.set(slot, seq + 1);
+    published.increment();
+    for(Feed feed : feeds)
+      feed.signal();
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+  public int getSubscriberCount() {
+    return feeds.size();
+  }
+  public long getPublished() {
+    return published.sum();
+  }
+  /** Events lost because producers lapped the ring while one of them was still writing. */
+  public long getOverwritten() {
+    return overwritten.sum();
+  }
+  /** Events subscribers missed by falling more than a ring behind, summed over subscribers. */
+  public long getSkipped() {
+    return skipped.sum();
+  }
+
+  /** Stops publishing; each subscriber completes once it has taken everything already published. */
+  public void close() {
+    closed = true;
+    for(Feed feed : feeds)
+      feed.schedule();
+    if(ownExecutor != null)
+      ownExecutor.shutdown();
+  }
+
+  public final class Source {
+    private final String login;
+
+    Source(String login) {
+      this.login = login;
+    }
+
+    public void publish(int operation, long session, int code, double balance) {
+      AccountEventFeed.this.publish(operation, login, session, code, balance);
+    }
+  }
+
+  private final class Feed implements Flow.Subscription {
+    private final Flow.Subscriber<? super AccountEvent> subscriber;
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger work = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile IllegalArgumentException invalidRequest;
+    // Only touched by the drain, which never runs twice at once.
+    private long cursor;
+    private boolean done;
+
+    Feed(Flow.Subscriber<? super AccountEvent> subscriber, long cursor) {
+      this.subscriber = subscriber;
+      this.cursor = cursor;
+    }
+
+    public void request(long n) {
+      if(n <= 0)
+        invalidRequest = new IllegalArgumentException("non-positive request: " + n);
+      else
+        requested.accumulateAndGet(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+      schedule();
+    }
+
+    public void cancel() {
+      cancelled = true;
+      feeds.remove(this);
+    }
+
+    void signal() {
+      if(requested.get() > 0 || closed)
+        schedule();
+    }
+
+    void schedule() {
+      if(work.getAndIncrement() != 0)
+        return;
+      try {
+        executor.execute(this::drain);
+      } catch(RejectedExecutionException e) {
+        // The owned pool is shut down on close; finish on the calling thread.
+        drain();
+      }
+    }
+
+    private void drain() {
+      int missed = 1;
+      do {
+        deliver();
+        missed = work.addAndGet(-missed);
+      } while(missed != 0);
+    }
+
+    private void deliver() {
+      if(done)
+        return;
+      if(cancelled) {
+        done = true;
+        return;
+      }
+      if(invalidRequest != null) {
+        cancel();
+        done = true;
+        subscriber.onError(invalidRequest);
+        return;
+      }
+      long demand = requested.get();
+      long delivered = 0;
+      while(delivered < demand && !cancelled) {
+        long head = next.get();
+        if(head - cursor > capacity) {
+          skipped.add(head - capacity - cursor);
+          cursor = head - capacity;
+        }
+        if(cursor >= head)
+          break;
+        int slot = (int) cursor & mask;
+        long stamp = stamps.get(slot);
+        if(stamp != cursor + 1) {
+          if(Math.abs(stamp) > cursor + 1) {
+            skipped.increment();
+            cursor++;
+            continue;
+          }
+          // Still being written; its producer signals once it is published.
+          break;
+        }
+        AccountEvent event = new AccountEvent(cursor, operations[slot], logins[slot], sessions[slot], codes[slot], balances[slot]);
+        VarHandle.acquireFence();
+        if(stamps.get(slot) != stamp)
+          continue;
+        cursor++;
+        delivered++;
+        try {
+          subscriber.onNext(event);
+        } catch(Throwable t) {
+          cancel();
+          done = true;
+          subscriber.onError(t);
+          return;
+        }
+      }
+      if(delivered > 0 && demand != Long.MAX_VALUE)
+        requested.addAndGet(-delivered);
+      if(closed && !cancelled && cursor >= next.get()) {
+        feeds.remove(this);
+        done = true;
+        subscriber.onComplete();
+      }
+    }
+  }
+}
@@ -1,21 +1,40 @@
 package hw.okit;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
 
 public class AccountManager {
-        private static String[] storedAccounts = new String[]{"user1", "user2", "user3"};
+        private static final AccountDirectory STORED_ACCOUNTS = AccountDirectory.of("user1", "user2", "user3");
         private IServerConnection serverConnection;
+        private IAsyncServerConnection asyncConnection;
+        private Executor blockingExecutor = Runnable::run;
+        private long balanceCacheNanos = -1;
+        private MoneyScale moneyScale = MoneyScale.CENTS;
         private IPasswordEncoder passEncoder;
-        private ConcurrentLinkedDeque<OperationFailedException> exceptionsList = new ConcurrentLinkedDeque<>();
-        private Lock accountsLock = new ReentrantLock();
-        private Lock exceptionsLock = new ReentrantLock();
-        private HashMap<String, Account> activeAccounts = new HashMap<>();
+        private FailureJournal failures = new FailureJournal(1024);
+        private static final int LOGOUT_BATCH = 256;
+        private ConcurrentHashMap<String, Account> activeAccounts = new ConcurrentHashMap<>();
+        // Directory logins count as registered until their first login or logout; a set bit means that has happened.
+        private AccountDirectory directory = STORED_ACCOUNTS;
+        private AtomicLongArray materialized = new AtomicLongArray(words(STORED_ACCOUNTS.size()));
+        private OperationMetrics metrics;
+        private AdmissionControl admission;
+        private SessionLifecycleManager lifecycle;
+        private OperationJournal journal;
+        private IdempotencyCache idempotency;
+        private AccountEventFeed eventFeed;
 
         public void AccountManager(IServerConnection s, IPasswordEncoder encoder) throws OperationFailedException {
                 init(s, encoder);
@@ -27,59 +46,391 @@ public class AccountManager {
                 if (s == null || encoder == null)
                         throw new OperationFailedException(LocalOperationResponse.NULL_ARGUMENT_EXCEPTION);
                 serverConnection = s;
-                Arrays.stream(storedAccounts).parallel().forEach(
-                        one -> activeAccounts.put(one, new Account())
-                );
+                passEncoder = encoder;
+        }
+
+        /**
+         * Replaces the built-in stored accounts with a directory, typically a file opened with
+         * AccountDirectory.open. Its logins behave as already registered, without an Account
+         * being created for any of them until it is first used. Call before the first login.
+         */
+        public void setAccountDirectory(AccountDirectory accountDirectory) {
+                if (accountDirectory == null) {
+                        registerFailure(LocalOperationResponse.NULL_ARGUMENT_EXCEPTION);
+                        return;
+                }
+                directory = accountDirectory;
+                materialized = new AtomicLongArray(words(accountDirectory.size()));
         }
 
         public Account login(String login, String password) throws OperationFailedException {
                 if (login == null || password == null) {
-                        registerException(new OperationFailedException(LocalOperationResponse.NULL_ARGUMENT_EXCEPTION));
+                        registerFailure(LocalOperationResponse.NULL_ARGUMENT_EXCEPTION);
                         return null;
                 }
-                accountsLock.lock();
-                Account session = activeAccounts.get(login);
-                if (session != null)
-                        registerException(new OperationFailedException(LocalOperationResponse.ALREADY_INITIATED_RESPONSE));
+                String securePassword;
+                try {
+                        securePassword = passEncoder.makeSecure(password);
+                } catch (OperationFailedException e) {
+                        registerFailure(e.response);
+                        throw e;
+                }
                 Account a = new Account();
-                activeAccounts.put(login, a);
-                a.callLogin(serverConnection, login, passEncoder.makeSecure(password));
-                accountsLock.unlock();
+                prepare(a, login);
+                // The registry put and the directory bit are each atomic, so concurrent logins need no lock.
+                if (activeAccounts.put(login, a) != null || materialize(login))
+                        registerFailure(LocalOperationResponse.ALREADY_INITIATED_RESPONSE);
+                a.callLogin(serverConnection, login, securePassword);
+                if (lifecycle != null)
+                        lifecycle.register(login, a);
                 return a;
         }
 
+        public CompletableFuture<Account> loginAsync(String login, String password) {
+                if (login == null || password == null) {
+                        registerFailure(LocalOperationResponse.NULL_ARGUMENT_EXCEPTION);
+                        return CompletableFuture.completedFuture(null);
+                }
+                return encodeAsync(password).thenCompose(securePassword -> {
+                        Account a = new Account();
+                        prepare(a, login);
+                        if (activeAccounts.put(login, a) != null || materialize(login))
+                                registerFailure(LocalOperationResponse.ALREADY_INITIATED_RESPONSE);
+                        return a.callLoginAsync(serverConnection, asyncConnection(), login, securePassword).thenApply(r -> {
+                                if (lifecycle != null)
+                                        lifecycle.register(login, a);
+                                return a;
+                        });
+                });
+        }
+
+        private CompletableFuture<String> encodeAsync(String password) {
+                if (passEncoder instanceof PasswordEncodingStage) {
+                        return ((PasswordEncodingStage) passEncoder).encodeAsync(password).whenComplete((secure, failure) -> {
+                                if (failure != null)
+                                        registerFailure(PasswordEncodingStage.failure(failure).response);
+                        });
+                }
+                try {
+                        return CompletableFuture.completedFuture(passEncoder.makeSecure(password));
+                } catch (OperationFailedException e) {
+                        registerFailure(e.response);
+                        return CompletableFuture.failedFuture(e);
+                }
+        }
+
+        /**
+         * Moves password encoding onto its own pool of threads with a queue of queueCapacity;
+         * logins arriving while the queue is full fail fast with ENCODING_ERROR.
+         */
+        public PasswordEncodingStage enablePasswordEncodingStage(int threads, int queueCapacity) {
+                PasswordEncodingStage stage = new PasswordEncodingStage(passEncoder, threads, queueCapacity);
+                passEncoder = stage;
+                return stage;
+        }
+
+        public void setAsyncServerConnection(IAsyncServerConnection connection) {
+                asyncConnection = connection;
+        }
+
+        /**
+         * Chooses where the blocking server calls behind loginAsync and the Account async operations run.
+         * Replaces any connection set through setAsyncServerConnection.
+         */
+        public void setExecutionMode(ExecutionMode mode) {
+                blockingExecutor = mode.newExecutor();
+                asyncConnection = null;
+        }
+
+        /**
+         * Routes the money operations of sessions opened from now on through one shared coalescer,
+         * so calls from different sessions travel to the server together. Close the returned
+         * connection on shutdown to flush what is still queued.
+         */
+        public BatchingServerConnection enableBatching(int maxBatchSize, long maxDelay, TimeUnit unit) {
+                BatchingServerConnection batching = new BatchingServerConnection(serverConnection, maxBatchSize, maxDelay, unit);
+                serverConnection = batching;
+                asyncConnection = batching.async();
+                return batching;
+        }
+
+        /**
+         * Replaces the server connection with a pool of size connections made by factory,
+         * each allowing maxInFlight concurrent calls.
+         */
+        public PooledServerConnection enablePooling(Supplier<? extends IServerConnection> factory, int size, int maxInFlight) {
+                PooledServerConnection pool = new PooledServerConnection(factory, size, maxInFlight);
+                serverConnection = pool;
+                asyncConnection = null;
+                return pool;
+        }
+
+        /**
+         * Wraps the server connection in a circuit breaker with default thresholds; tune it through
+         * the returned object. Calls made while the breaker is open answer SERVICE_UNAVAILABLE at once.
+         */
+        public ResilientServerConnection enableCircuitBreaker() {
+                ResilientServerConnection resilient = new ResilientServerConnection(serverConnection);
+                serverConnection = resilient;
+                asyncConnection = null;
+                return resilient;
+        }
+
+        /**
+         * Sends a second getBalance when the first has not answered within the 95th percentile of
+         * recent read latency, spending at most budgetRatio extra reads per read. Enable it after
+         * pooling so the second request takes another connection of the pool.
+         */
+        public HedgingServerConnection enableHedging(double budgetRatio) {
+                HedgingServerConnection hedging = new HedgingServerConnection(serverConnection).withBudget(budgetRatio, 10);
+                serverConnection = hedging;
+                asyncConnection = null;
+                return hedging;
+        }
+
+        /**
+         * Limits the money operations of sessions opened from now on to perLoginRate per second for
+         * each login and globalRate per second in total; refused calls answer RATE_LIMITED.
+         */
+        public AdmissionControl enableAdmissionControl(double perLoginRate, int perLoginBurst, double globalRate, int globalBurst) {
+                admission = new AdmissionControl(perLoginRate, perLoginBurst, globalRate, globalBurst);
+                return admission;
+        }
+
+        /**
+         * Logs out sessions opened from now on once they have not been used for idleTimeout,
+         * checking about 64 times per timeout and sending the logouts in batches.
+         */
+        public SessionLifecycleManager enableIdleEviction(long idleTimeout, TimeUnit unit) {
+                if (lifecycle == null) {
+                        long tick = Math.max(TimeUnit.MILLISECONDS.toNanos(1), unit.toNanos(idleTimeout) / 64);
+                        lifecycle = new SessionLifecycleManager(activeAccounts, idleTimeout, unit,
+                                tick, TimeUnit.NANOSECONDS, LOGOUT_BATCH, System::nanoTime);
+                        lifecycle.start();
+                }
+                return lifecycle;
+        }
+
+        /** Logs out every open session for shutdown, in parallel batches; returns how many were open. */
+        public int logoutAll() {
+                return SessionLifecycleManager.logoutAll(activeAccounts, LOGOUT_BATCH);
+        }
+
+        /**
+         * Journals the withdraw and deposit calls of sessions opened from now on to file, so that
+         * after a crash OperationJournal.recover can tell which of them may have reached the server.
+         */
+        public OperationJournal enableJournal(Path file, int capacity, OperationJournal.FsyncPolicy policy) throws IOException {
+                journal = OperationJournal.open(file, capacity, policy);
+                return journal;
+        }
+
+        /**
+         * Shares one deduplication cache between all sessions opened from now on, so keyed withdraw
+         * and deposit calls repeated within ttl reach the server once.
+         */
+        public IdempotencyCache enableIdempotencyCache(int maxEntries, long ttl, TimeUnit unit) {
+                idempotency = new IdempotencyCache(maxEntries, ttl, unit);
+                return idempotency;
+        }
+
+        /**
+         * Starts collecting outcome counters and server call latencies for sessions opened from now on,
+         * along with login lock wait times. Register the result with JMX or poll its snapshot.
+         */
+        public OperationMetrics enableMetrics() {
+                if (metrics == null)
+                        metrics = new OperationMetrics(activeAccounts::size);
+                return metrics;
+        }
+
+        /**
+         * Publishes the outcome of every operation of sessions opened from now on, balance included,
+         * to the returned feed's subscribers. The feed holds the last capacity events (a power of two);
+         * subscribers that fall further behind skip ahead rather than slow the operations down.
+         */
+        public AccountEventFeed enableEventFeed(int capacity) {
+                if (eventFeed == null)
+                        eventFeed = new AccountEventFeed(capacity);
+                return eventFeed;
+        }
+
+        public OperationMetrics getMetrics() {
+                return metrics;
+        }
+
+        public AccountDirectory getAccountDirectory() {
+                return directory;
+        }
+
+        /** Gives every session opened from now on a balance cache with the given staleness bound. */
+        public void enableBalanceCache(long maxStaleness, TimeUnit unit) {
+                balanceCacheNanos = unit.toNanos(maxStaleness);
+        }
+
+        /** Minor-unit scale given to every session opened from now on. */
+        public void setMoneyScale(MoneyScale scale) {
+                moneyScale = scale;
+        }
+
+        private void prepare(Account a, String login) {
+                a.login = login;
+                a.asyncConnection = asyncConnection();
+                a.moneyScale = moneyScale;
+                a.metrics = metrics;
+                if (admission != null)
+                        a.admission = admission.gate(login);
+                a.lifecycle = lifecycle;
+                a.journal = journal;
+                a.idempotency = idempotency;
+                if (eventFeed != null)
+                        a.events = eventFeed.source(login);
+                if (balanceCacheNanos >= 0)
+                        a.enableBalanceCache(balanceCacheNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private IAsyncServerConnection asyncConnection() {
+                IAsyncServerConnection c = asyncConnection;
+                if (c == null)
+                        asyncConnection = c = new BlockingAsyncServerConnection(serverConnection, blockingExecutor);
+                return c;
+        }
+
         public void logout(Account account) {
                 if (account == null || account.getLogin() == null) {
-                        registerException(new OperationFailedException(LocalOperationResponse.NULL_ARGUMENT_EXCEPTION));
+                        registerFailure(LocalOperationResponse.NULL_ARGUMENT_EXCEPTION);
                         return;
                 }
                 Account b = activeAccounts.remove(account.getLogin());
+                if (b == null && materialize(account.getLogin())) {
+                        b = new Account();
+                        b.login = account.getLogin();
+                }
                 if (b == null) {
-                        registerException(new OperationFailedException(LocalOperationResponse.INCORRECT_SESSION_RESPONSE));
+                        registerFailure(LocalOperationResponse.INCORRECT_SESSION_RESPONSE);
                         return;
                 }
                 b.callLogout();
+                if (admission != null)
+                        admission.release(account.getLogin());
         }
 
-        private void registerException(OperationFailedException exception) {
-                exceptionsLock.lock();
-                accountsLock.lock();
-                try {
-                        exceptionsList.add(exception);
-                } finally {
-                        accountsLock.unlock();
-                        exceptionsLock.unlock();
+        /**
+         * Moves amount from one open session to another and answers like a withdraw on from. Sessions on
+         * the same server connection take a single IServerConnection.transfer call; otherwise it is a
+         * withdraw and a deposit, and the money is deposited back if the deposit is refused.
+         */
+        public LocalOperationResponse transfer(Account from, Account to, double amount) {
+                return transfer(new Transfer(from, to, amount));
+        }
+
+        /**
+         * Runs the transfers and answers in their order. Those whose sessions share a server connection
+         * are sent to it together in one executeBatch; the rest run one by one as in transfer.
+         */
+        public List<LocalOperationResponse> transferAll(List<Transfer> transfers) {
+                if (transfers == null) {
+                        registerFailure(LocalOperationResponse.NULL_ARGUMENT_EXCEPTION);
+                        return new ArrayList<>();
+                }
+                LocalOperationResponse[] results = new LocalOperationResponse[transfers.size()];
+                Map<IServerConnection, List<Integer>> byConnection = new IdentityHashMap<>();
+                for (int i = 0; i < results.length; i++) {
+                        Transfer t = transfers.get(i);
+                        if (t == null || t.from == null || t.to == null || t.from.serverConnection != t.to.serverConnection) {
+                                results[i] = transfer(t);
+                                continue;
+                        }
+                        results[i] = t.from.beginTransfer(t);
+                        if (results[i] == null)
+                                byConnection.computeIfAbsent(t.from.serverConnection, c -> new ArrayList<>()).add(i);
                 }
+                for (Map.Entry<IServerConnection, List<Integer>> e : byConnection.entrySet()) {
+                        List<Integer> group = e.getValue();
+                        List<Operation> operations = new ArrayList<>(group.size());
+                        for (int i : group) {
+                                Transfer t = transfers.get(i);
+                                operations.add(Operation.transfer(t.fromSession, t.toSession, t.amount));
+                        }
+                        List<ServerResponse> responses = e.getKey().executeBatch(operations);
+                        for (int k = 0; k < group.size(); k++) {
+                                Transfer t = transfers.get(group.get(k));
+                                ServerResponse response = responses != null && k < responses.size() ? responses.get(k) : null;
+                                results[group.get(k)] = t.from.endTransfer(t,
+                                        response != null ? response : new ServerResponse(ServerResponse.UNDEFINED_ERROR, t));
+                        }
+                }
+                return Arrays.asList(results);
         }
 
-        public Collection<OperationFailedException> getExceptions() {
-                exceptionsLock.lock();
-                accountsLock.lock();
-                try {
-                        return Collections.unmodifiableCollection(exceptionsList);
-                } finally {
-                        accountsLock.unlock();
-                        exceptionsLock.unlock();
+        private LocalOperationResponse transfer(Transfer t) {
+                if (t == null || t.from == null || t.to == null) {
+                        registerFailure(LocalOperationResponse.NULL_ARGUMENT_EXCEPTION);
+                        return LocalOperationResponse.NULL_ARGUMENT_EXCEPTION;
                 }
+                if (t.from.serverConnection == t.to.serverConnection)
+                        return t.from.callTransfer(t);
+                return compensatingTransfer(t);
+        }
+
+        // Sessions on different connections: no server sees both, so the two halves are separate calls.
+        private static LocalOperationResponse compensatingTransfer(Transfer t) {
+                if (t.from.activeSession == null || t.to.activeSession == null)
+                        return LocalOperationResponse.NOT_LOGGED_RESPONSE;
+                LocalOperationResponse withdrawn = t.from.withdraw(t.amount);
+                if (withdrawn.code != LocalOperationResponse.SUCCEED)
+                        return withdrawn;
+                LocalOperationResponse deposited = t.to.deposit(t.amount);
+                if (deposited.code == LocalOperationResponse.SUCCEED)
+                        return withdrawn;
+                // A deposit that timed out may have gone through; putting the money back could pay it twice.
+                if (deposited.code == LocalOperationResponse.SERVICE_UNAVAILABLE)
+                        return deposited;
+                LocalOperationResponse refunded = t.from.deposit(t.amount);
+                if (refunded.code != LocalOperationResponse.SUCCEED)
+                        return new LocalOperationResponse(LocalOperationResponse.UNDEFINED_ERROR, refunded);
+                return deposited;
+        }
+
+        void registerFailure(LocalOperationResponse response) {
+                failures.record(response);
+        }
+
+        /** The most recent failures, oldest first, as stackless exceptions. */
+        public Collection<OperationFailedException> getExceptions() {
+                return failures.snapshot().toExceptions();
+        }
+
+        public FailureJournal.Snapshot getFailureSnapshot() {
+                return failures.snapshot();
+        }
+
+        public long getFailureCount(int code) {
+                return failures.count(code);
+        }
+
+        /** Replaces the failure journal with an empty one holding at most capacity records. */
+        public void setFailureJournalCapacity(int capacity) {
+                failures = new FailureJournal(capacity);
+        }
+
+        // True exactly once per directory login: when its implicit registration is first used up.
+        private boolean materialize(String login) {
+                int i = directory.indexOf(login);
+                if (i < 0)
+                        return false;
+                AtomicLongArray bits = materialized;
+                long bit = 1L << (i & 63);
+                long word;
+                do {
+                        word = bits.get(i >>> 6);
+                        if ((word & bit) != 0)
+                                return false;
+                } while (!bits.compareAndSet(i >>> 6, word, word | bit));
+                return true;
+        }
+
+        private static int words(int bits) {
+                return (bits + 63) >>> 6;
         }
 }
@@ -0,0 +1,83 @@
+package hw.okit;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Admits money operations against a bucket per login and one global bucket. A login has to
+ * get past its own bucket first, so a single busy login can use at most its own rate and
+ * cannot drain the global capacity that the other logins share. A permit taken from the login
+ * bucket is given back when the global bucket then refuses.
+ */
+public class AdmissionControl {
+  private final double perLoginRate;
+  private final int perLoginBurst;
+  private final RateLimiter global;
+  private final LongSupplier clock;
+  private final ConcurrentHashMap<String, RateLimiter> perLogin = new ConcurrentHashMap<>();
+  private final LongAdder admitted = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+
+  public AdmissionControl(double perLoginRate, int perLoginBurst, double globalRate, int globalBurst) {
+    this(perLoginRate, perLoginBurst, globalRate, globalBurst, System::nanoTime);
+  }
+
+  public AdmissionControl(double perLoginRate, int perLoginBurst, double globalRate, int globalBurst, LongSupplier nanoClock) {
+    this.perLoginRate = perLoginRate;
+    this.perLoginBurst = perLoginBurst;
+    this.global = new RateLimiter(globalRate, globalBurst, nanoClock);
+    this.clock = nanoClock;
+  }
+
+  /** The admission handle for one login; sessions of the same login share its bucket. */
+  public Gate gate(String login) {
+    return new Gate(login, perLogin.computeIfAbsent(login, l -> new RateLimiter(perLoginRate, perLoginBurst, clock)));
+  }
+
+  /** Drops the login's bucket if it has refilled completely, so idle logins do not pile up. */
+  public void release(String login) {
+    RateLimiter limiter = perLogin.get(login);
+    if(limiter != null && limiter.isIdle())
+      perLogin.remove(login, limiter);
+  }
+
+  public long getAdmitted() {
+    return admitted.sum();
+  }
+  public long getRejected() {
+    return rejected.sum();
+  }
+  public int getTrackedLogins() {
+    return perLogin.size();
+  }
+
+  public class Gate {
+    private final String name;
+    private final RateLimiter login;
+
+    Gate(String name, RateLimiter login) {
+      this.name = name;
+      this.login = login;
+    }
+
+    public boolean tryAcquire() {
+      if(!login.tryAcquire()) {
+        rejected.increment();
+        return false;
+      }
+      if(!global.tryAcquire()) {
+        login.refund();
+        rejected.increment();
+        return false;
+      }
+      admitted.increment();
+      return true;
+    }
+
+    /** Same as AdmissionControl.release for the gate's login. */
+    public void release() {
+      AdmissionControl.this.release(name);
+    }
+  }
+}
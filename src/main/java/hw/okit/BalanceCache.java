@@ -0,0 +1,75 @@
+package hw.okit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Last balance the server reported for one session, served to getBalance while it is
+ * younger than the staleness bound.
+ */
+public class BalanceCache {
+  private final long maxStalenessNanos;
+  private final StampedLock lock = new StampedLock();
+  private double balance;
+  private long storedAt;
+  private boolean valid;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  public BalanceCache(long maxStaleness, TimeUnit unit) {
+    this.maxStalenessNanos = unit.toNanos(maxStaleness);
+  }
+
+  /** Returns the cached balance, or NaN when there is nothing fresh enough. Counts a hit or a miss. */
+  public double lookup() {
+    long stamp = lock.tryOptimisticRead();
+    double b = balance;
+    long at = storedAt;
+    boolean v = valid;
+    if(!lock.validate(stamp)) {
+      stamp = lock.readLock();
+      try {
+        b = balance;
+        at = storedAt;
+        v = valid;
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+    if(v && System.nanoTime() - at < maxStalenessNanos) {
+      hits.increment();
+      return b;
+    }
+    misses.increment();
+    return Double.NaN;
+  }
+
+  public void update(double newBalance) {
+    long stamp = lock.writeLock();
+    try {
+      balance = newBalance;
+      storedAt = System.nanoTime();
+      valid = true;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  public void invalidate() {
+    long stamp = lock.writeLock();
+    try {
+      valid = false;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+}
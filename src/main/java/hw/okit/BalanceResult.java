@@ -0,0 +1,40 @@
+package hw.okit;
+
+/**
+ * Caller-owned, reusable result of a money operation. Servers fill it with a ServerResponse
+ * code; Account then rewrites the code to the matching LocalOperationResponse code. The
+ * balance is NaN when the answer carried none. Reusing one holder per thread keeps the
+ * primitive withdraw/deposit/getBalance path free of allocations.
+ */
+public class BalanceResult {
+  public int code;
+  public double balance = Double.NaN;
+  // Whatever non-balance data came back, e.g. the raw answer behind INCORRECT_RESPONSE.
+  public Object detail;
+
+  public int set(int code, double balance, Object detail) {
+    this.code = code;
+    this.balance = balance;
+    this.detail = detail;
+    return code;
+  }
+
+  /** Copies a boxed ServerResponse into this holder, for servers without a primitive path. */
+  public int fill(ServerResponse response) {
+    Object data = response.data;
+    if(data instanceof Double)
+      return set(response.code, (Double) data, null);
+    return set(response.code, Double.NaN, response);
+  }
+
+  public boolean hasBalance() {
+    return !Double.isNaN(balance);
+  }
+
+  /** Compatibility view for code written against the LocalOperationResponse API. */
+  public LocalOperationResponse toLocalOperationResponse() {
+    if(code == LocalOperationResponse.NOT_LOGGED)
+      return LocalOperationResponse.NOT_LOGGED_RESPONSE;
+    return new LocalOperationResponse(code, hasBalance() ? (Object) balance : detail);
+  }
+}
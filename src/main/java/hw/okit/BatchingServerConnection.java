@@ -0,0 +1,221 @@
+package hw.okit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coalesces logout/withdraw/deposit/getBalance/transfer calls from any number of sessions into
+ * {@link IServerConnection#executeBatch} calls on the delegate. A batch is sent once
+ * {@code maxBatchSize} operations are queued or the oldest queued one has waited
+ * {@code maxDelayNanos}, whichever comes first. The batching thread only cuts batches; up to
+ * {@code maxInFlight} sender threads carry them to the delegate, so a slow batch does not hold
+ * back the next one. When every sender is busy the batching thread sends the batch itself.
+ * Logins pass straight through; after close every operation is sent on its own from the
+ * calling thread.
+ */
+public class BatchingServerConnection implements IServerConnection, AutoCloseable {
+  private final IServerConnection delegate;
+  private final int maxBatchSize;
+  private final long maxDelayNanos;
+  private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger queued = new AtomicInteger();
+  private final AtomicBoolean timerArmed = new AtomicBoolean();
+  private final AtomicBoolean fullFlushArmed = new AtomicBoolean();
+  private volatile boolean closed;
+  private final ScheduledExecutorService timer;
+  private final ThreadPoolExecutor senders;
+
+  /** At most 4 batches in flight at once. */
+  public BatchingServerConnection(IServerConnection delegate, int maxBatchSize, long maxDelay, TimeUnit unit) {
+    this(delegate, maxBatchSize, maxDelay, unit, 4);
+  }
+
+  public BatchingServerConnection(IServerConnection delegate, int maxBatchSize, long maxDelay, TimeUnit unit, int maxInFlight) {
+    if(maxBatchSize < 1)
+      throw new IllegalArgumentException("maxBatchSize must be positive");
+    if(maxInFlight < 1)
+      throw new IllegalArgumentException("maxInFlight must be positive");
+    this.delegate = delegate;
+    this.maxBatchSize = maxBatchSize;
+    this.maxDelayNanos = unit.toNanos(maxDelay);
+    this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "batching-server-connection");
+      t.setDaemon(true);
+      return t;
+    });
+    this.senders = new ThreadPoolExecutor(0, maxInFlight, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+      Thread t = new Thread(r, "batching-server-connection-sender");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  public ServerResponse login(String userName, String mdPass) {
+    return delegate.login(userName, mdPass);
+  }
+  public ServerResponse logout(long session) {
+    return submit(Operation.logout(session)).join();
+  }
+  public ServerResponse withdraw(long session, double balance) {
+    return submit(Operation.withdraw(session, balance)).join();
+  }
+  public ServerResponse deposit(long session, double balance) {
+    return submit(Operation.deposit(session, balance)).join();
+  }
+  public ServerResponse getBalance(long session) {
+    return submit(Operation.getBalance(session)).join();
+  }
+
+  public ServerResponse withdrawIdempotent(long session, double balance, long key) {
+    return submit(Operation.withdraw(session, balance, key)).join();
+  }
+  public ServerResponse depositIdempotent(long session, double balance, long key) {
+    return submit(Operation.deposit(session, balance, key)).join();
+  }
+  public ServerResponse transfer(long fromSession, long toSession, double amount) {
+    return submit(Operation.transfer(fromSession, toSession, amount)).join();
+  }
+
+  public List<ServerResponse> executeBatch(List<Operation> operations) {
+    return delegate.executeBatch(operations);
+  }
+
+  public CompletableFuture<ServerResponse> submit(Operation operation) {
+    Pending p = new Pending(operation);
+    queue.add(p);
+    int size = queued.incrementAndGet();
+    // Checked after queueing: either close's own flush or this one sends p.
+    if(closed) {
+      flush(Integer.MAX_VALUE);
+      return p.future;
+    }
+    try {
+      if(size >= maxBatchSize) {
+        if(fullFlushArmed.compareAndSet(false, true))
+          timer.execute(this::flushFull);
+      } else if(timerArmed.compareAndSet(false, true))
+        timer.schedule(this::flushOnTimer, maxDelayNanos, TimeUnit.NANOSECONDS);
+    } catch(RejectedExecutionException e) {
+      // Closed between the check and the hand-off.
+      flush(Integer.MAX_VALUE);
+    }
+    return p.future;
+  }
+
+  /** Async view whose futures complete when the batch carrying the call returns. */
+  public IAsyncServerConnection async() {
+    return new IAsyncServerConnection() {
+      public CompletableFuture<ServerResponse> login(String userName, String mdPass) {
+        return CompletableFuture.completedFuture(delegate.login(userName, mdPass));
+      }
+      public CompletableFuture<ServerResponse> logout(long session) {
+        return submit(Operation.logout(session));
+      }
+      public CompletableFuture<ServerResponse> withdraw(long session, double balance) {
+        return submit(Operation.withdraw(session, balance));
+      }
+      public CompletableFuture<ServerResponse> deposit(long session, double balance) {
+        return submit(Operation.deposit(session, balance));
+      }
+      public CompletableFuture<ServerResponse> getBalance(long session) {
+        return submit(Operation.getBalance(session));
+      }
+    };
+  }
+
+  /** Sends everything queued so far and stops the batching and sender threads. */
+  public void close() {
+    closed = true;
+    flush(Integer.MAX_VALUE);
+    timer.shutdown();
+    senders.shutdown();
+  }
+
+  private void flushOnTimer() {
+    // Disarm first: anything queued after this point arms a fresh timer instead of being missed.
+    timerArmed.set(false);
+    dispatch(Integer.MAX_VALUE);
+  }
+
+  private void flushFull() {
+    fullFlushArmed.set(false);
+    while(queued.get() >= maxBatchSize)
+      dispatch(maxBatchSize);
+  }
+
+  // On the batching thread: hands the batches to senders.
+  private void dispatch(int limit) {
+    while(limit > 0) {
+      List<Pending> batch = drain(Math.min(limit, maxBatchSize));
+      if(batch.isEmpty())
+        return;
+      limit -= batch.size();
+      try {
+        senders.execute(() -> send(batch));
+      } catch(RejectedExecutionException e) {
+        // Every sender busy, or closed meanwhile: send it here, which also slows down the cutting.
+        send(batch);
+      }
+    }
+  }
+
+  // On the calling thread, for close and whatever is submitted after it.
+  private void flush(int limit) {
+    while(limit > 0) {
+      List<Pending> batch = drain(Math.min(limit, maxBatchSize));
+      if(batch.isEmpty())
+        return;
+      limit -= batch.size();
+      send(batch);
+    }
+  }
+
+  private List<Pending> drain(int max) {
+    List<Pending> batch = new ArrayList<>(Math.min(max, queued.get() + 1));
+    Pending p;
+    while(batch.size() < max && (p = queue.poll()) != null) {
+      queued.decrementAndGet();
+      batch.add(p);
+    }
+    return batch;
+  }
+
+  private void send(List<Pending> batch) {
+    List<Operation> operations = new ArrayList<>(batch.size());
+    for(Pending p : batch)
+      operations.add(p.operation);
+    List<ServerResponse> responses;
+    try {
+      responses = delegate.executeBatch(operations);
+    } catch(RuntimeException e) {
+      for(Pending p : batch)
+        p.future.completeExceptionally(e);
+      return;
+    }
+    for(int i = 0; i < batch.size(); i++) {
+      Pending p = batch.get(i);
+      if(responses != null && i < responses.size() && responses.get(i) != null)
+        p.future.complete(responses.get(i));
+      else
+        p.future.complete(new ServerResponse(ServerResponse.UNDEFINED_ERROR, p.operation));
+    }
+  }
+
+  private static final class Pending {
+    final Operation operation;
+    final CompletableFuture<ServerResponse> future = new CompletableFuture<>();
+    Pending(Operation operation) {
+      this.operation = operation;
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package hw.okit;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Exposes a blocking IServerConnection as an IAsyncServerConnection by running every call
+ * on the given executor. With {@code Runnable::run} the calls complete on the caller's thread.
+ */
+public class BlockingAsyncServerConnection implements IAsyncServerConnection {
+  private final IServerConnection delegate;
+  private final Executor executor;
+
+  public BlockingAsyncServerConnection(IServerConnection delegate, Executor executor) {
+    this.delegate = delegate;
+    this.executor = executor;
+  }
+
+  public IServerConnection getDelegate() {
+    return delegate;
+  }
+
+  public CompletableFuture<ServerResponse> login(String userName, String mdPass) {
+    return CompletableFuture.supplyAsync(() -> delegate.login(userName, mdPass), executor);
+  }
+
+  public CompletableFuture<ServerResponse> logout(long session) {
+    return CompletableFuture.supplyAsync(() -> delegate.logout(session), executor);
+  }
+
+  public CompletableFuture<ServerResponse> withdraw(long session, double balance) {
+    return CompletableFuture.supplyAsync(() -> delegate.withdraw(session, balance), executor);
+  }
+
+  public CompletableFuture<ServerResponse> deposit(long session, double balance) {
+    return CompletableFuture.supplyAsync(() -> delegate.deposit(session, balance), executor);
+  }
+
+  public CompletableFuture<ServerResponse> getBalance(long session) {
+    return CompletableFuture.supplyAsync(() -> delegate.getBalance(session), executor);
+  }
+}
@@ -0,0 +1,39 @@
+package hw.okit;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+
+/**
+ * Where AccountManager runs the blocking IServerConnection calls behind its async API.
+ */
+public enum ExecutionMode {
+  CALLER_THREAD,
+  VIRTUAL_THREADS;
+
+  // Looked up reflectively so the project still compiles and runs on runtimes without virtual threads.
+  private static final Method VIRTUAL_EXECUTOR = virtualExecutorFactory();
+
+  public boolean isSupported() {
+    return this == CALLER_THREAD || VIRTUAL_EXECUTOR != null;
+  }
+
+  Executor newExecutor() {
+    if(this == CALLER_THREAD)
+      return Runnable::run;
+    if(VIRTUAL_EXECUTOR == null)
+      throw new UnsupportedOperationException("Virtual threads need Java 21 or newer");
+    try {
+      return (Executor) VIRTUAL_EXECUTOR.invoke(null);
+    } catch(ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static Method virtualExecutorFactory() {
+    try {
+      return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch(NoSuchMethodException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package hw.okit;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-capacity, lock-free ring of failure records. Once full, each new record overwrites
+ * the oldest one, while the per-code counters keep counting every failure ever recorded.
+ * Records hold the shared LocalOperationResponse and a timestamp; exceptions are only built
+ * when a caller asks for them.
+ */
+public class FailureJournal {
+  private static final int CODES = 64;
+  private final int mask;
+  private final AtomicReferenceArray<LocalOperationResponse> responses;
+  private final AtomicLongArray timestamps;
+  // Sequence number + 1 of the record held by each slot, 0 while a writer is filling it.
+  private final AtomicLongArray published;
+  private final AtomicLong sequence = new AtomicLong();
+  private final LongAdder[] counters = new LongAdder[CODES];
+
+  public FailureJournal(int capacity) {
+    if(capacity < 1)
+      throw new IllegalArgumentException("capacity must be positive");
+    int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    mask = size - 1;
+    responses = new AtomicReferenceArray<>(size);
+    timestamps = new AtomicLongArray(size);
+    published = new AtomicLongArray(size);
+    for(int i = 0; i < CODES; i++)
+      counters[i] = new LongAdder();
+  }
+
+  public int capacity() {
+    return mask + 1;
+  }
+
+  public void record(LocalOperationResponse response) {
+    long seq = sequence.getAndIncrement();
+    int slot = (int) seq & mask;
+    published.set(slot, 0);
+    responses.set(slot, response);
+    timestamps.set(slot, System.currentTimeMillis());
+    published.set(slot, seq + 1);
+    counters[Math.min(Math.max(response.code, 0), CODES - 1)].increment();
+  }
+
+  /** Failures recorded with this code since the journal was created, including overwritten ones. */
+  public long count(int code) {
+    return counters[Math.min(Math.max(code, 0), CODES - 1)].sum();
+  }
+
+  public long total() {
+    return sequence.get();
+  }
+
+  /** Copies the records still held by the ring, oldest first. */
+  public Snapshot snapshot() {
+    long end = sequence.get();
+    long start = Math.max(0, end - capacity());
+    int n = (int) (end - start);
+    LocalOperationResponse[] r = new LocalOperationResponse[n];
+    long[] t = new long[n];
+    int size = 0;
+    for(long seq = start; seq < end; seq++) {
+      int slot = (int) seq & mask;
+      if(published.get(slot) != seq + 1)
+        continue;
+      LocalOperationResponse response = responses.get(slot);
+      long at = timestamps.get(slot);
+      // Skip records a faster writer overwrote while they were being copied.
+      if(published.get(slot) != seq + 1)
+        continue;
+      r[size] = response;
+      t[size] = at;
+      size++;
+    }
+    return new Snapshot(r, t, size);
+  }
+
+  public static class Snapshot {
+    private final LocalOperationResponse[] responses;
+    private final long[] timestamps;
+    private final int size;
+
+    Snapshot(LocalOperationResponse[] responses, long[] timestamps, int size) {
+      this.responses = responses;
+      this.timestamps = timestamps;
+      this.size = size;
+    }
+
+    public int size() {
+      return size;
+    }
+    public LocalOperationResponse response(int i) {
+      return responses[i];
+    }
+    public int code(int i) {
+      return responses[i].code;
+    }
+    public long timestampMillis(int i) {
+      return timestamps[i];
+    }
+
+    /** Both snapshots' records in one, ordered by timestamp; records of equal time keep this one's first. */
+    public Snapshot merge(Snapshot other) {
+      int n = size + other.size;
+      LocalOperationResponse[] r = new LocalOperationResponse[n];
+      long[] t = new long[n];
+      int i = 0, j = 0;
+      for(int k = 0; k < n; k++) {
+        if(j >= other.size || (i < size && timestamps[i] <= other.timestamps[j])) {
+          r[k] = responses[i];
+          t[k] = timestamps[i++];
+        } else {
+          r[k] = other.responses[j];
+          t[k] = other.timestamps[j++];
+        }
+      }
+      return new Snapshot(r, t, n);
+    }
+
+    /** Stackless exceptions for callers of the older exception-based API. */
+    public Collection<OperationFailedException> toExceptions() {
+      List<OperationFailedException> exceptions = new ArrayList<>(size);
+      for(int i = 0; i < size; i++)
+        exceptions.add(new OperationFailedException(responses[i], false));
+      return Collections.unmodifiableList(exceptions);
+    }
+  }
+}
@@ -0,0 +1,330 @@
+package hw.okit;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Cuts the tail latency of balance reads by hedging: when getBalance has not answered within
+ * the configured percentile of its recent latencies, a second identical request is sent, to
+ * another link of the pool when the delegate is a PooledServerConnection, and the first SUCCESS
+ * wins. Hedges draw on a budget that grows by budgetRatio per read, so they add at most that
+ * share of extra load. Only getBalance and getBalanceMinor are hedged; everything else,
+ * including the holder-filling getBalance, goes straight to the delegate.
+ *
+ * <p>A read that could be hedged runs on a bounded pool so the caller can stop waiting for it;
+ * when the budget holds no hedge or every pool thread is busy the read runs on the caller's
+ * thread instead. The delay follows the latencies of the last one to two windows of reads, so
+ * it tracks the server as it speeds up or slows down.
+ */
+public class HedgingServerConnection implements IServerConnection, AutoCloseable {
+  private static final int MIN_SAMPLES = 32;
+  private static final int RECOMPUTE_EVERY = 64;
+  private static final int WINDOW = 1024;
+  // Budget is kept in thousandths of a hedge.
+  private static final long ONE_HEDGE = 1000;
+
+  private final IServerConnection delegate;
+  private final LongSupplier clock;
+  private final ThreadPoolExecutor callers = new ThreadPoolExecutor(0, 64, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+    Thread t = new Thread(r, "hedging-server-connection");
+    t.setDaemon(true);
+    return t;
+  });
+  // Reads of the current window, and what the previous window held once it filled.
+  private volatile LatencyHistogram latencies = new LatencyHistogram();
+  private LatencyHistogram.Snapshot previousWindow;
+  private final AtomicInteger sinceRecompute = new AtomicInteger();
+  private final AtomicLong budget = new AtomicLong();
+
+  private double percentile = 0.95;
+  private long minDelayNanos = TimeUnit.MILLISECONDS.toNanos(1);
+  private long maxDelayNanos = TimeUnit.SECONDS.toNanos(1);
+  private long budgetPerRead = 50;
+  private long maxBudget = 10 * ONE_HEDGE;
+  private volatile long delayNanos = maxDelayNanos;
+
+  private final LongAdder reads = new LongAdder();
+  private final LongAdder hedged = new LongAdder();
+  private final LongAdder hedgeWins = new LongAdder();
+  private final LongAdder overBudget = new LongAdder();
+
+  public HedgingServerConnection(IServerConnection delegate) {
+    this(delegate, System::nanoTime);
+  }
+
+  /** The clock only measures latencies; waiting for the hedge delay uses real time. */
+  public HedgingServerConnection(IServerConnection delegate, LongSupplier nanoClock) {
+    this.delegate = delegate;
+    this.clock = nanoClock;
+  }
+
+  /**
+   * Hedges after the given percentile (0..1) of the observed read latency, kept between min and
+   * max. Until enough reads have been seen the delay is max.
+   */
+  public synchronized HedgingServerConnection withDelay(double percentile, long min, long max, TimeUnit unit) {
+    if(min > max)
+      throw new IllegalArgumentException("min must not exceed max");
+    this.percentile = percentile;
+    this.minDelayNanos = unit.toNanos(min);
+    this.maxDelayNanos = unit.toNanos(max);
+    this.delayNanos = Math.min(maxDelayNanos, Math.max(minDelayNanos, delayNanos));
+    return this;
+  }
+
+  /** Allows at most ratio hedges per read on average, and at most burst of them saved up. */
+  public synchronized HedgingServerConnection withBudget(double ratio, int burst) {
+    if(ratio < 0 || burst < 1)
+      throw new IllegalArgumentException("ratio must not be negative and burst must be positive");
+    this.budgetPerRead = Math.round(ratio * ONE_HEDGE);
+    this.maxBudget = burst * ONE_HEDGE;
+    return this;
+  }
+
+  /** How many reads and hedges may be running on the pool at once; 64 by default. */
+  public HedgingServerConnection withThreads(int threads) {
+    if(threads < 1)
+      throw new IllegalArgumentException("threads must be positive");
+    callers.setMaximumPoolSize(threads);
+    return this;
+  }
+
+  public ServerResponse login(String userName, String mdPass) {
+    return delegate.login(userName, mdPass);
+  }
+  public ServerResponse logout(long session) {
+    return delegate.logout(session);
+  }
+  public ServerResponse withdraw(long session, double balance) {
+    return delegate.withdraw(session, balance);
+  }
+  public ServerResponse deposit(long session, double balance) {
+    return delegate.deposit(session, balance);
+  }
+  public ServerResponse getBalance(long session) {
+    return hedged(session, c -> c.getBalance(session));
+  }
+
+  public int withdraw(long session, double balance, BalanceResult result) {
+    return delegate.withdraw(session, balance, result);
+  }
+  public int deposit(long session, double balance, BalanceResult result) {
+    return delegate.deposit(session, balance, result);
+  }
+  // Two racing calls cannot share one caller-owned holder.
+  public int getBalance(long session, BalanceResult result) {
+    return delegate.getBalance(session, result);
+  }
+
+  public ServerResponse withdrawMinor(long session, long amount, MoneyScale scale) {
+    return delegate.withdrawMinor(session, amount, scale);
+  }
+  public ServerResponse depositMinor(long session, long amount, MoneyScale scale) {
+    return delegate.depositMinor(session, amount, scale);
+  }
+  public ServerResponse getBalanceMinor(long session, MoneyScale scale) {
+    return hedged(session, c -> c.getBalanceMinor(session, scale));
+  }
+
+  public ServerResponse withdrawIdempotent(long session, double balance, long key) {
+    return delegate.withdrawIdempotent(session, balance, key);
+  }
+  public ServerResponse depositIdempotent(long session, double balance, long key) {
+    return delegate.depositIdempotent(session, balance, key);
+  }
+  public ServerResponse transfer(long fromSession, long toSession, double amount) {
+    return delegate.transfer(fromSession, toSession, amount);
+  }
+
+  public List<ServerResponse> executeBatch(List<Operation> operations) {
+    return delegate.executeBatch(operations);
+  }
+
+  public long getReads() {
+    return reads.sum();
+  }
+  /** Reads for which a second request was sent. */
+  public long getHedged() {
+    return hedged.sum();
+  }
+  /** Hedged reads answered by the second request. */
+  public long getHedgeWins() {
+    return hedgeWins.sum();
+  }
+  /** Reads that were slow enough to hedge but found the budget spent. */
+  public long getOverBudget() {
+    return overBudget.sum();
+  }
+  public long getDelayNanos() {
+    return delayNanos;
+  }
+
+  public void close() {
+    callers.shutdownNow();
+  }
+
+  private ServerResponse hedged(long session, Function<IServerConnection, ServerResponse> read) {
+    reads.increment();
+    earn();
+    long start = clock.getAsLong();
+    if(budget.get() < ONE_HEDGE)
+      return inline(read, start);
+    CompletableFuture<ServerResponse> primary;
+    try {
+      primary = CompletableFuture.supplyAsync(() -> read.apply(delegate), callers);
+    } catch(RejectedExecutionException e) {
+      return inline(read, start);
+    }
+    primary.whenComplete((r, e) -> {
+      if(e == null)
+        observe(clock.getAsLong() - start);
+    });
+    try {
+      return primary.get(delayNanos, TimeUnit.NANOSECONDS);
+    } catch(TimeoutException e) {
+      // Slow enough to hedge; fall through.
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      primary.cancel(true);
+      return new ServerResponse(ServerResponse.UNAVAILABLE, e);
+    } catch(ExecutionException e) {
+      throw unwrap(e);
+    }
+    if(!spend()) {
+      overBudget.increment();
+      return await(primary);
+    }
+    CompletableFuture<ServerResponse> second;
+    try {
+      second = CompletableFuture.supplyAsync(() -> hedge(session, read), callers);
+    } catch(RejectedExecutionException e) {
+      refund();
+      return await(primary);
+    }
+    CompletableFuture<ServerResponse> winner = new CompletableFuture<>();
+    // 2 while both are running, 1 after one failed, 0 once the answer is decided.
+    AtomicInteger pending = new AtomicInteger(2);
+    primary.whenComplete((r, e) -> settle(winner, pending, primary, r, false));
+    second.whenComplete((r, e) -> settle(winner, pending, primary, r, true));
+    return await(winner);
+  }
+
+  // A read that cannot be hedged: no thread to wait on it from, so the caller makes it itself.
+  private ServerResponse inline(Function<IServerConnection, ServerResponse> read, long start) {
+    ServerResponse response = read.apply(delegate);
+    long elapsed = clock.getAsLong() - start;
+    observe(elapsed);
+    if(elapsed >= delayNanos)
+      overBudget.increment();
+    return response;
+  }
+
+  // The hedge goes to another link of a pool when one is free, otherwise to the same delegate.
+  // It is counted only once it is actually on its way.
+  private ServerResponse hedge(long session, Function<IServerConnection, ServerResponse> read) {
+    if(!(delegate instanceof PooledServerConnection)) {
+      hedged.increment();
+      return read.apply(delegate);
+    }
+    ServerResponse response = ((PooledServerConnection) delegate).callElsewhere(session, c -> {
+      hedged.increment();
+      return read.apply(c);
+    });
+    if(response == null)
+      refund();
+    return response;
+  }
+
+  // The first SUCCESS wins; when neither succeeds the original request's outcome stands.
+  private void settle(CompletableFuture<ServerResponse> winner, AtomicInteger pending,
+      CompletableFuture<ServerResponse> primary, ServerResponse response, boolean isHedge) {
+    if(response != null && response.code == ServerResponse.SUCCESS) {
+      int p;
+      while((p = pending.get()) > 0)
+        if(pending.compareAndSet(p, 0)) {
+          // Counted before the caller is released, so the counters are settled once it returns.
+          if(isHedge)
+            hedgeWins.increment();
+          winner.complete(response);
+          return;
+        }
+      return;
+    }
+    if(pending.getAndUpdate(p -> Math.max(0, p - 1)) == 1)
+      primary.whenComplete((r, e) -> {
+        if(e != null)
+          winner.completeExceptionally(e);
+        else
+          winner.complete(r);
+      });
+  }
+
+  private static ServerResponse await(CompletableFuture<ServerResponse> future) {
+    try {
+      return future.get();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return new ServerResponse(ServerResponse.UNAVAILABLE, e);
+    } catch(ExecutionException e) {
+      throw unwrap(e);
+    }
+  }
+
+  private static RuntimeException unwrap(ExecutionException e) {
+    Throwable cause = e.getCause();
+    if(cause instanceof RuntimeException)
+      return (RuntimeException) cause;
+    return new IllegalStateException(cause);
+  }
+
+  private void observe(long nanos) {
+    latencies.record(nanos);
+    if(sinceRecompute.incrementAndGet() < RECOMPUTE_EVERY)
+      return;
+    sinceRecompute.set(0);
+    LatencyHistogram.Snapshot recent;
+    synchronized(this) {
+      LatencyHistogram.Snapshot s = latencies.snapshot();
+      if(s.count() >= WINDOW) {
+        // Start a new window; the full one keeps counting until the next one fills.
+        previousWindow = s;
+        latencies = new LatencyHistogram();
+        recent = s;
+      } else
+        recent = previousWindow == null ? s : s.merge(previousWindow);
+    }
+    if(recent.count() >= MIN_SAMPLES)
+      delayNanos = Math.min(maxDelayNanos, Math.max(minDelayNanos, recent.percentileNanos(percentile)));
+  }
+
+  private void earn() {
+    long add = budgetPerRead, cap = maxBudget;
+    budget.getAndUpdate(b -> Math.min(cap, b + add));
+  }
+
+  private boolean spend() {
+    long b;
+    do {
+      b = budget.get();
+      if(b < ONE_HEDGE)
+        return false;
+    } while(!budget.compareAndSet(b, b - ONE_HEDGE));
+    return true;
+  }
+
+  private void refund() {
+    long cap = maxBudget;
+    budget.getAndUpdate(b -> Math.min(cap, b + ONE_HEDGE));
+  }
+}
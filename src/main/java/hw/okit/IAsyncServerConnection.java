@@ -0,0 +1,11 @@
+package hw.okit;
+
+import java.util.concurrent.CompletableFuture;
+
+public interface IAsyncServerConnection {
+  public CompletableFuture<ServerResponse> login(String userName, String mdPass);
+  public CompletableFuture<ServerResponse> logout(long session);
+  public CompletableFuture<ServerResponse> withdraw(long session, double balance);
+  public CompletableFuture<ServerResponse> deposit(long session, double balance);
+  public CompletableFuture<ServerResponse> getBalance(long session);
+}
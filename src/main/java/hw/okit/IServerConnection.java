@@ -1,9 +1,77 @@
 package hw.okit;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public interface IServerConnection {
   public ServerResponse login(String userName, String mdPass);
   public ServerResponse logout(long session);
   public ServerResponse withdraw(long session, double balance);
   public ServerResponse deposit(long session, double balance);
   public ServerResponse getBalance(long session);
+  // Primitive variants filling a caller-owned holder; in-memory and wire-level servers override them to avoid boxing.
+  public default int withdraw(long session, double balance, BalanceResult result) {
+    return result.fill(withdraw(session, balance));
+  }
+  public default int deposit(long session, double balance, BalanceResult result) {
+    return result.fill(deposit(session, balance));
+  }
+  public default int getBalance(long session, BalanceResult result) {
+    return result.fill(getBalance(session));
+  }
+  // Minor-unit variants: amounts and the Long balance in the answer are counted in scale's minor units.
+  // The defaults convert through the double methods, so only servers that override them are exact.
+  public default ServerResponse withdrawMinor(long session, long amount, MoneyScale scale) {
+    return toMinor(withdraw(session, scale.toMajor(amount)), scale);
+  }
+  public default ServerResponse depositMinor(long session, long amount, MoneyScale scale) {
+    return toMinor(deposit(session, scale.toMajor(amount)), scale);
+  }
+  public default ServerResponse getBalanceMinor(long session, MoneyScale scale) {
+    return toMinor(getBalance(session), scale);
+  }
+  private static ServerResponse toMinor(ServerResponse response, MoneyScale scale) {
+    if(response.data instanceof Double) {
+      try {
+        return new ServerResponse(response.code, scale.toMinor((Double) response.data));
+      } catch(ArithmeticException e) {
+        return new ServerResponse(ServerResponse.UNDEFINED_ERROR, e);
+      }
+    }
+    return response;
+  }
+  // Idempotency-keyed variants: a server that remembers keys applies each key at most once and answers
+  // repeats with the first result, so a call that timed out can be retried safely. The defaults cannot
+  // remember anything and simply forward the call.
+  public default ServerResponse withdrawIdempotent(long session, double balance, long key) {
+    return withdraw(session, balance);
+  }
+  public default ServerResponse depositIdempotent(long session, double balance, long key) {
+    return deposit(session, balance);
+  }
+  // Moves amount from one session's account to another's; a success carries the payer's new balance. Servers that
+  // can do it in one step override this. The default withdraws, deposits, and deposits the money back to the payer
+  // if the second step is refused. A deposit that answered UNAVAILABLE may still have been applied, so it is not
+  // compensated and the UNAVAILABLE answer is returned for the caller to reconcile.
+  public default ServerResponse transfer(long fromSession, long toSession, double amount) {
+    ServerResponse withdrawn = withdraw(fromSession, amount);
+    if(withdrawn.code != ServerResponse.SUCCESS)
+      return withdrawn;
+    ServerResponse deposited = deposit(toSession, amount);
+    if(deposited.code == ServerResponse.SUCCESS)
+      return withdrawn;
+    if(deposited.code == ServerResponse.UNAVAILABLE)
+      return deposited;
+    ServerResponse refunded = deposit(fromSession, amount);
+    if(refunded.code != ServerResponse.SUCCESS)
+      return new ServerResponse(ServerResponse.UNDEFINED_ERROR, refunded);
+    return deposited;
+  }
+  // Responses come back in the order of the operations. Servers that can take a batch in one round trip override this.
+  public default List<ServerResponse> executeBatch(List<Operation> operations) {
+    List<ServerResponse> responses = new ArrayList<>(operations.size());
+    for(Operation operation : operations)
+      responses.add(operation.applyTo(this));
+    return responses;
+  }
 }
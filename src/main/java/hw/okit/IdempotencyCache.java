@@ -0,0 +1,123 @@
+package hw.okit;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Per-session deduplication of idempotency-keyed calls: concurrent calls with the same session
+ * and key share one server call, and its answer is replayed to repeats for ttl. Holds at most
+ * maxEntries keys, oldest dropped first; exceptions and UNAVAILABLE answers are not kept.
+ */
+public class IdempotencyCache {
+  private final ConcurrentHashMap<IdempotencyKey, Entry> entries = new ConcurrentHashMap<>();
+  private final ConcurrentLinkedQueue<Entry> order = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger ordered = new AtomicInteger();
+  private final int maxEntries;
+  private final long ttlNanos;
+  private final LongSupplier clock;
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder deduplicated = new LongAdder();
+
+  public IdempotencyCache(int maxEntries, long ttl, TimeUnit unit) {
+    this(maxEntries, ttl, unit, System::nanoTime);
+  }
+
+  public IdempotencyCache(int maxEntries, long ttl, TimeUnit unit, LongSupplier nanoClock) {
+    if(maxEntries < 1)
+      throw new IllegalArgumentException("maxEntries must be positive");
+    this.maxEntries = maxEntries;
+    this.ttlNanos = unit.toNanos(ttl);
+    this.clock = nanoClock;
+  }
+
+  /** A random non-zero key for one logical operation; reuse it for every retry of that operation. */
+  public static long newKey() {
+    long key;
+    do {
+      key = ThreadLocalRandom.current().nextLong();
+    } while(key == 0);
+    return key;
+  }
+
+  public ServerResponse execute(long session, long key, Supplier<ServerResponse> call) {
+    IdempotencyKey scoped = new IdempotencyKey(session, key);
+    while(true) {
+      Entry e = entries.get(scoped);
+      if(e != null) {
+        if(e.future.isDone() && clock.getAsLong() - e.completedAt >= ttlNanos) {
+          entries.remove(scoped, e);
+          continue;
+        }
+        deduplicated.increment();
+        try {
+          return e.future.join();
+        } catch(CompletionException failure) {
+          if(failure.getCause() instanceof RuntimeException)
+            throw (RuntimeException) failure.getCause();
+          throw failure;
+        }
+      }
+      Entry mine = new Entry(scoped);
+      if(entries.putIfAbsent(scoped, mine) != null)
+        continue;
+      order.add(mine);
+      if(ordered.incrementAndGet() > maxEntries)
+        trim();
+      calls.increment();
+      ServerResponse response;
+      try {
+        response = call.get();
+      } catch(RuntimeException failure) {
+        entries.remove(scoped, mine);
+        mine.future.completeExceptionally(failure);
+        throw failure;
+      }
+      mine.completedAt = clock.getAsLong();
+      if(response == null || response.code == ServerResponse.UNAVAILABLE)
+        entries.remove(scoped, mine);
+      mine.future.complete(response);
+      return response;
+    }
+  }
+
+  /** Calls that went to the server. */
+  public long getCalls() {
+    return calls.sum();
+  }
+  /** Calls answered by joining an in-flight call or replaying a remembered answer. */
+  public long getDeduplicated() {
+    return deduplicated.sum();
+  }
+  public int size() {
+    return entries.size();
+  }
+
+  // The queue holds every entry ever added until it is trimmed, so bounding it bounds the map too.
+  private void trim() {
+    while(ordered.get() > maxEntries) {
+      Entry oldest = order.poll();
+      if(oldest == null)
+        return;
+      ordered.decrementAndGet();
+      entries.remove(oldest.key, oldest);
+    }
+  }
+
+  private static final class Entry {
+    final IdempotencyKey key;
+    final CompletableFuture<ServerResponse> future = new CompletableFuture<>();
+    volatile long completedAt;
+
+    Entry(IdempotencyKey key) {
+      this.key = key;
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package hw.okit;
+
+/** An idempotency key together with the session that sent it; keys only repeat within a session. */
+final class IdempotencyKey {
+  final long session;
+  final long key;
+
+  IdempotencyKey(long session, long key) {
+    this.session = session;
+    this.key = key;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if(!(o instanceof IdempotencyKey))
+      return false;
+    IdempotencyKey other = (IdempotencyKey) o;
+    return session == other.session && key == other.key;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(session * 31 + key);
+  }
+}
@@ -0,0 +1,452 @@
+package hw.okit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * Reference server kept entirely in memory, for local integration, load tests and benchmarks.
+ * Balances live in a flat array of minor units updated by CAS; sessions are tracked in
+ * lock-striped primitive long-to-int maps. Every call, or every batch, can be delayed by a
+ * configurable latency to imitate a remote round trip.
+ */
+public class InMemoryServerConnection implements IServerConnection {
+  private static final int SEGMENTS = 64;
+  private static final int REMEMBERED_KEYS = 1 << 16;
+
+  private final MoneyScale scale;
+  private final int maxAccounts;
+  private final ConcurrentHashMap<String, Integer> accountIndex = new ConcurrentHashMap<>();
+  private final AtomicReferenceArray<String> passwords;
+  private final AtomicLongArray balances;
+  // Session currently open for each account, 0 when logged out.
+  private final AtomicLongArray openSessions;
+  private final AtomicInteger accounts = new AtomicInteger();
+  private final LongIntHashMap[] sessionSegments = new LongIntHashMap[SEGMENTS];
+  private final StampedLock[] segmentLocks = new StampedLock[SEGMENTS];
+  private final AtomicLong sessionSequence = new AtomicLong();
+  private volatile long latencyNanos;
+  private final ConcurrentHashMap<IdempotencyKey, ServerResponse> keyedResults = new ConcurrentHashMap<>();
+  private final ConcurrentLinkedQueue<IdempotencyKey> keyOrder = new ConcurrentLinkedQueue<>();
+
+  public InMemoryServerConnection(int maxAccounts, MoneyScale scale) {
+    this.maxAccounts = maxAccounts;
+    this.scale = scale;
+    passwords = new AtomicReferenceArray<>(maxAccounts);
+    balances = new AtomicLongArray(maxAccounts);
+    openSessions = new AtomicLongArray(maxAccounts);
+    for(int i = 0; i < SEGMENTS; i++) {
+      sessionSegments[i] = new LongIntHashMap(Math.max(16, maxAccounts / SEGMENTS));
+      segmentLocks[i] = new StampedLock();
+    }
+  }
+
+  public void setLatency(long latency, TimeUnit unit) {
+    latencyNanos = unit.toNanos(latency);
+  }
+
+  public MoneyScale getMoneyScale() {
+    return scale;
+  }
+
+  /** Registers an account whose password must arrive exactly as given (i.e. already encoded). */
+  public void addAccount(String login, String mdPass, long balanceMinor) {
+    int index = accounts.getAndIncrement();
+    if(index >= maxAccounts) {
+      accounts.decrementAndGet();
+      throw new IllegalStateException("server is full: " + maxAccounts + " accounts");
+    }
+    passwords.set(index, mdPass);
+    balances.set(index, balanceMinor);
+    if(accountIndex.putIfAbsent(login, index) != null)
+      throw new IllegalArgumentException("account already exists: " + login);
+  }
+
+  public long getBalanceMinor(String login) {
+    Integer index = accountIndex.get(login);
+    return index == null ? 0 : balances.get(index);
+  }
+
+  public int getOpenSessions() {
+    int n = 0;
+    for(int i = 0; i < SEGMENTS; i++) {
+      long stamp = segmentLocks[i].readLock();
+      try {
+        n += sessionSegments[i].size();
+      } finally {
+        segmentLocks[i].unlockRead(stamp);
+      }
+    }
+    return n;
+  }
+
+  public ServerResponse login(String userName, String mdPass) {
+    pause();
+    Integer index = userName == null ? null : accountIndex.get(userName);
+    if(index == null || !passwords.get(index).equals(mdPass))
+      return new ServerResponse(ServerResponse.NO_USER_INCORRECT_PASSWORD, null);
+    long session = nextSession();
+    if(!openSessions.compareAndSet(index, 0, session))
+      return new ServerResponse(ServerResponse.ALREADY_LOGGED, null);
+    int segment = segment(session);
+    long stamp = segmentLocks[segment].writeLock();
+    try {
+      sessionSegments[segment].put(session, index);
+    } finally {
+      segmentLocks[segment].unlockWrite(stamp);
+    }
+    return new ServerResponse(ServerResponse.SUCCESS, session);
+  }
+
+  public ServerResponse logout(long session) {
+    pause();
+    return doLogout(session);
+  }
+
+  public ServerResponse withdraw(long session, double balance) {
+    pause();
+    long amount = amount(balance);
+    if(amount < 0)
+      return new ServerResponse(ServerResponse.UNDEFINED_ERROR, balance);
+    return doWithdraw(session, amount, true);
+  }
+
+  public ServerResponse deposit(long session, double balance) {
+    pause();
+    long amount = amount(balance);
+    if(amount < 0)
+      return new ServerResponse(ServerResponse.UNDEFINED_ERROR, balance);
+    return doDeposit(session, amount, true);
+  }
+
+  public ServerResponse getBalance(long session) {
+    pause();
+    return doGetBalance(session, true);
+  }
+
+  public int withdraw(long session, double balance, BalanceResult result) {
+    pause();
+    int index = accountOf(session);
+    if(index < 0)
+      return result.set(ServerResponse.NOT_LOGGED, Double.NaN, null);
+    long amount = amount(balance);
+    if(amount < 0)
+      return result.set(ServerResponse.UNDEFINED_ERROR, Double.NaN, null);
+    while(true) {
+      long current = balances.get(index);
+      if(current < amount)
+        return result.set(ServerResponse.NO_MONEY, scale.toMajor(current), null);
+      if(balances.compareAndSet(index, current, current - amount))
+        return result.set(ServerResponse.SUCCESS, scale.toMajor(current - amount), null);
+    }
+  }
+
+  public int deposit(long session, double balance, BalanceResult result) {
+    pause();
+    int index = accountOf(session);
+    if(index < 0)
+      return result.set(ServerResponse.NOT_LOGGED, Double.NaN, null);
+    long amount = amount(balance);
+    if(amount < 0)
+      return result.set(ServerResponse.UNDEFINED_ERROR, Double.NaN, null);
+    while(true) {
+      long current = balances.get(index);
+      long updated;
+      try {
+        updated = MoneyScale.add(current, amount);
+      } catch(ArithmeticException e) {
+        return result.set(ServerResponse.UNDEFINED_ERROR, Double.NaN, e);
+      }
+      if(balances.compareAndSet(index, current, updated))
+        return result.set(ServerResponse.SUCCESS, scale.toMajor(updated), null);
+    }
+  }
+
+  public int getBalance(long session, BalanceResult result) {
+    pause();
+    int index = accountOf(session);
+    if(index < 0)
+      return result.set(ServerResponse.NOT_LOGGED, Double.NaN, null);
+    return result.set(ServerResponse.SUCCESS, scale.toMajor(balances.get(index)), null);
+  }
+
+  public ServerResponse withdrawMinor(long session, long amount, MoneyScale requested) {
+    pause();
+    long local;
+    try {
+      local = rescale(amount, requested, scale);
+    } catch(ArithmeticException e) {
+      return new ServerResponse(ServerResponse.UNDEFINED_ERROR, e);
+    }
+    if(local < 0)
+      return new ServerResponse(ServerResponse.UNDEFINED_ERROR, amount);
+    return toScale(doWithdraw(session, local, false), requested);
+  }
+
+  public ServerResponse depositMinor(long session, long amount, MoneyScale requested) {
+    pause();
+    long local;
+    try {
+      local = rescale(amount, requested, scale);
+    } catch(ArithmeticException e) {
+      return new ServerResponse(ServerResponse.UNDEFINED_ERROR, e);
+    }
+    if(local < 0)
+      return new ServerResponse(ServerResponse.UNDEFINED_ERROR, amount);
+    return toScale(doDeposit(session, local, false), requested);
+  }
+
+  public ServerResponse getBalanceMinor(long session, MoneyScale requested) {
+    pause();
+    return toScale(doGetBalance(session, false), requested);
+  }
+
+  /** Both balances change under one call: the payer's is debited first and credited back if the payee cannot take it. */
+  public ServerResponse transfer(long fromSession, long toSession, double amount) {
+    pause();
+    long minor = amount(amount);
+    if(minor < 0)
+      return new ServerResponse(ServerResponse.UNDEFINED_ERROR, amount);
+    return doTransfer(fromSession, toSession, minor);
+  }
+
+  /** One round trip for the whole batch. */
+  public List<ServerResponse> executeBatch(List<Operation> operations) {
+    pause();
+    List<ServerResponse> responses = new ArrayList<>(operations.size());
+    for(Operation op : operations) {
+      switch(op.type) {
+        case Operation.LOGOUT:
+          responses.add(doLogout(op.session));
+          break;
+        case Operation.WITHDRAW:
+        case Operation.DEPOSIT:
+          responses.add(op.key != 0 ? once(op.session, op.key, () -> money(op)) : money(op));
+          break;
+        case Operation.GET_BALANCE:
+          responses.add(doGetBalance(op.session, true));
+          break;
+        case Operation.TRANSFER: {
+          long amount = amount(op.amount);
+          responses.add(amount < 0 ? new ServerResponse(ServerResponse.UNDEFINED_ERROR, op) : doTransfer(op.session, op.toSession, amount));
+          break;
+        }
+        default:
+          responses.add(new ServerResponse(ServerResponse.UNDEFINED_ERROR, op));
+      }
+    }
+    return responses;
+  }
+
+  public ServerResponse withdrawIdempotent(long session, double balance, long key) {
+    return once(session, key, () -> withdraw(session, balance));
+  }
+
+  public ServerResponse depositIdempotent(long session, double balance, long key) {
+    return once(session, key, () -> deposit(session, balance));
+  }
+
+  // Applies the call the first time the session sends the key and replays its answer afterwards,
+  // for the last REMEMBERED_KEYS keys.
+  private ServerResponse once(long session, long key, Supplier<ServerResponse> call) {
+    IdempotencyKey scoped = new IdempotencyKey(session, key);
+    boolean[] applied = new boolean[1];
+    ServerResponse response = keyedResults.computeIfAbsent(scoped, k -> {
+      applied[0] = true;
+      return call.get();
+    });
+    if(applied[0]) {
+      keyOrder.add(scoped);
+      if(keyedResults.size() > REMEMBERED_KEYS) {
+        IdempotencyKey oldest = keyOrder.poll();
+        if(oldest != null)
+          keyedResults.remove(oldest);
+      }
+    }
+    return response;
+  }
+
+  private ServerResponse money(Operation op) {
+    long amount = amount(op.amount);
+    if(amount < 0)
+      return new ServerResponse(ServerResponse.UNDEFINED_ERROR, op);
+    if(op.type == Operation.WITHDRAW)
+      return doWithdraw(op.session, amount, true);
+    return doDeposit(op.session, amount, true);
+  }
+
+  private ServerResponse doLogout(long session) {
+    int segment = segment(session);
+    int index;
+    long stamp = segmentLocks[segment].writeLock();
+    try {
+      index = sessionSegments[segment].remove(session);
+    } finally {
+      segmentLocks[segment].unlockWrite(stamp);
+    }
+    if(index < 0)
+      return new ServerResponse(ServerResponse.NOT_LOGGED, null);
+    openSessions.compareAndSet(index, session, 0);
+    return new ServerResponse(ServerResponse.SUCCESS, null);
+  }
+
+  // The boxed answers carry Double major units when major is true and Long minor units otherwise.
+  private ServerResponse doWithdraw(long session, long amount, boolean major) {
+    int index = accountOf(session);
+    if(index < 0)
+      return new ServerResponse(ServerResponse.NOT_LOGGED, null);
+    while(true) {
+      long current = balances.get(index);
+      if(current < amount)
+        return new ServerResponse(ServerResponse.NO_MONEY, box(current, major));
+      if(balances.compareAndSet(index, current, current - amount))
+        return new ServerResponse(ServerResponse.SUCCESS, box(current - amount, major));
+    }
+  }
+
+  private ServerResponse doDeposit(long session, long amount, boolean major) {
+    int index = accountOf(session);
+    if(index < 0)
+      return new ServerResponse(ServerResponse.NOT_LOGGED, null);
+    while(true) {
+      long current = balances.get(index);
+      long updated;
+      try {
+        updated = MoneyScale.add(current, amount);
+      } catch(ArithmeticException e) {
+        return new ServerResponse(ServerResponse.UNDEFINED_ERROR, e);
+      }
+      if(balances.compareAndSet(index, current, updated))
+        return new ServerResponse(ServerResponse.SUCCESS, box(updated, major));
+    }
+  }
+
+  private ServerResponse doTransfer(long fromSession, long toSession, long amount) {
+    int from = accountOf(fromSession);
+    int to = accountOf(toSession);
+    if(from < 0 || to < 0)
+      return new ServerResponse(ServerResponse.NOT_LOGGED, null);
+    long remaining;
+    while(true) {
+      long current = balances.get(from);
+      if(current < amount)
+        return new ServerResponse(ServerResponse.NO_MONEY, box(current, true));
+      if(balances.compareAndSet(from, current, current - amount)) {
+        remaining = current - amount;
+        break;
+      }
+    }
+    while(true) {
+      long current = balances.get(to);
+      long updated;
+      try {
+        updated = MoneyScale.add(current, amount);
+      } catch(ArithmeticException e) {
+        balances.getAndAdd(from, amount);
+        return new ServerResponse(ServerResponse.UNDEFINED_ERROR, e);
+      }
+      if(balances.compareAndSet(to, current, updated))
+        return new ServerResponse(ServerResponse.SUCCESS, box(from == to ? updated : remaining, true));
+    }
+  }
+
+  private ServerResponse doGetBalance(long session, boolean major) {
+    int index = accountOf(session);
+    if(index < 0)
+      return new ServerResponse(ServerResponse.NOT_LOGGED, null);
+    return new ServerResponse(ServerResponse.SUCCESS, box(balances.get(index), major));
+  }
+
+  private Object box(long minor, boolean major) {
+    return major ? (Object) scale.toMajor(minor) : (Object) minor;
+  }
+
+  // Outgoing balances are rounded down when the caller's scale is coarser than the server's.
+  private ServerResponse toScale(ServerResponse response, MoneyScale requested) {
+    if(response.data instanceof Long && requested.getScale() != scale.getScale()) {
+      long balance = (Long) response.data;
+      try {
+        response.data = requested.getScale() > scale.getScale()
+          ? rescale(balance, scale, requested)
+          : Math.floorDiv(balance, scale.getFactor() / requested.getFactor());
+      } catch(ArithmeticException e) {
+        return new ServerResponse(ServerResponse.UNDEFINED_ERROR, e);
+      }
+    }
+    return response;
+  }
+
+  // Minor units for a major amount, or -1 when it is negative or out of range.
+  private long amount(double major) {
+    if(!(major >= 0))
+      return -1;
+    try {
+      return scale.toMinor(major);
+    } catch(ArithmeticException e) {
+      return -1;
+    }
+  }
+
+  private int accountOf(long session) {
+    int segment = segment(session);
+    StampedLock lock = segmentLocks[segment];
+    long stamp = lock.tryOptimisticRead();
+    if(stamp != 0) {
+      try {
+        int index = sessionSegments[segment].get(session);
+        if(lock.validate(stamp))
+          return index;
+      } catch(RuntimeException e) {
+        // A concurrent resize can briefly expose inconsistent arrays; retry under the read lock.
+      }
+    }
+    stamp = lock.readLock();
+    try {
+      return sessionSegments[segment].get(session);
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  private long nextSession() {
+    // SplitMix64 over a counter: unique, never 0 in practice, and not guessable from a neighbour.
+    long z;
+    do {
+      z = sessionSequence.incrementAndGet() * 0x9E3779B97F4A7C15L;
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      z = z ^ (z >>> 31);
+    } while(z == 0);
+    return z;
+  }
+
+  private static int segment(long session) {
+    return (int) (session ^ (session >>> 32)) & (SEGMENTS - 1);
+  }
+
+  private static long rescale(long amount, MoneyScale from, MoneyScale to) {
+    if(from.getScale() == to.getScale())
+      return amount;
+    if(from.getScale() < to.getScale())
+      return Math.multiplyExact(amount, to.getFactor() / from.getFactor());
+    long divisor = from.getFactor() / to.getFactor();
+    if(amount % divisor != 0)
+      throw new ArithmeticException("amount has more precision than " + to);
+    return amount / divisor;
+  }
+
+  private void pause() {
+    long nanos = latencyNanos;
+    if(nanos > 0)
+      LockSupport.parkNanos(nanos);
+  }
+}
@@ -0,0 +1,109 @@
+package hw.okit;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear histogram of nanosecond latencies in the style of HdrHistogram: each power of two
+ * is split into 16 linear sub-buckets, so any recorded value is reported within about 6%.
+ * Values above 2^40 ns (about 18 minutes) share the last bucket. Recording only bumps striped
+ * counters and never allocates.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  private static final int MAX_EXPONENT = 40;
+  static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAdder total = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  public LatencyHistogram() {
+    for(int i = 0; i < BUCKETS; i++)
+      buckets[i] = new LongAdder();
+  }
+
+  public void record(long nanos) {
+    if(nanos < 0)
+      nanos = 0;
+    buckets[bucket(nanos)].increment();
+    total.add(nanos);
+    max.accumulate(nanos);
+  }
+
+  public Snapshot snapshot() {
+    long[] counts = new long[BUCKETS];
+    for(int i = 0; i < BUCKETS; i++)
+      counts[i] = buckets[i].sum();
+    return new Snapshot(counts, total.sum(), max.get());
+  }
+
+  static int bucket(long nanos) {
+    if(nanos < SUB_BUCKETS)
+      return (int) nanos;
+    int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+    if(exponent > MAX_EXPONENT)
+      return BUCKETS - 1;
+    int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  // Largest value that falls into the bucket.
+  static long upperBound(int bucket) {
+    if(bucket < SUB_BUCKETS)
+      return bucket;
+    int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+    int sub = bucket % SUB_BUCKETS;
+    long width = 1L << (exponent - SUB_BITS);
+    return (1L << exponent) + (sub + 1) * width - 1;
+  }
+
+  public static class Snapshot {
+    private final long[] counts;
+    private final long count;
+    private final long total;
+    private final long max;
+
+    Snapshot(long[] counts, long total, long max) {
+      this.counts = counts;
+      long n = 0;
+      for(long c : counts)
+        n += c;
+      this.count = n;
+      this.total = total;
+      this.max = max;
+    }
+
+    public long count() {
+      return count;
+    }
+    public long maxNanos() {
+      return max;
+    }
+    public long meanNanos() {
+      return count == 0 ? 0 : total / count;
+    }
+
+    /** Upper bound of the bucket holding the given quantile (0..1), capped at the largest recorded value. */
+    public long percentileNanos(double quantile) {
+      if(count == 0)
+        return 0;
+      long rank = Math.max(1, (long) Math.ceil(quantile * count));
+      long seen = 0;
+      for(int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if(seen >= rank)
+          return Math.min(upperBound(i), max);
+      }
+      return max;
+    }
+
+    public Snapshot merge(Snapshot other) {
+      long[] merged = new long[counts.length];
+      for(int i = 0; i < merged.length; i++)
+        merged[i] = counts[i] + other.counts[i];
+      return new Snapshot(merged, total + other.total, Math.max(max, other.max));
+    }
+  }
+}
@@ -12,7 +12,9 @@ public class LocalOperationResponse {
     NO_MONEY = 7,
     ENCODING_ERROR = 8,
     ALREADY_INITIATED = 9,
-    NULL_ARGUMENT = 10;
+    NULL_ARGUMENT = 10,
+    SERVICE_UNAVAILABLE = 11,
+    RATE_LIMITED = 12;
   public static final LocalOperationResponse ACCOUNT_MANAGER_RESPONSE =
     new LocalOperationResponse(ALREADY_LOGGED, null);
   public static final LocalOperationResponse NO_USER_INCORRECT_PASSWORD_RESPONSE =
@@ -33,10 +35,18 @@ public class LocalOperationResponse {
     new LocalOperationResponse(ALREADY_INITIATED, null);
   public static final LocalOperationResponse NULL_ARGUMENT_EXCEPTION =
     new LocalOperationResponse(NULL_ARGUMENT, null);
+  public static final LocalOperationResponse SERVICE_UNAVAILABLE_RESPONSE =
+    new LocalOperationResponse(SERVICE_UNAVAILABLE, null);
+  public static final LocalOperationResponse RATE_LIMITED_RESPONSE =
+    new LocalOperationResponse(RATE_LIMITED, null);
   public int code;
   public Object response;
   public LocalOperationResponse(int code, Object obj) {
     this.code = code;
     this.response = obj;
   }
+  // Only these answers carry the account balance; other codes may carry anything, e.g. the echoed amount.
+  public static boolean carriesBalance(int code) {
+    return code == SUCCEED || code == NO_MONEY;
+  }
 }
@@ -0,0 +1,120 @@
+package hw.okit;
+
+/**
+ * Open-addressing map from long keys to non-negative int values with linear probing and
+ * backward-shift deletion, so neither keys nor values are boxed and no tombstones pile up.
+ * Key 0 is reserved as the empty marker. Not thread-safe.
+ */
+public class LongIntHashMap {
+  public static final int MISSING = -1;
+  private static final float LOAD_FACTOR = 0.6f;
+
+  private long[] keys;
+  private int[] values;
+  private int size;
+  private int resizeAt;
+
+  public LongIntHashMap(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+    allocate(capacity);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int get(long key) {
+    // Key 0 would match the first empty slot it probes.
+    if(key == 0)
+      return MISSING;
+    long[] k = keys;
+    int mask = k.length - 1;
+    for(int i = slot(key, mask); ; i = (i + 1) & mask) {
+      long cur = k[i];
+      if(cur == key)
+        return values[i];
+      if(cur == 0)
+        return MISSING;
+    }
+  }
+
+  /** Stores value under key and returns the previous value, or MISSING. */
+  public int put(long key, int value) {
+    if(key == 0)
+      throw new IllegalArgumentException("key 0 is reserved");
+    if(value < 0)
+      throw new IllegalArgumentException("values must be non-negative");
+    int mask = keys.length - 1;
+    for(int i = slot(key, mask); ; i = (i + 1) & mask) {
+      long cur = keys[i];
+      if(cur == key) {
+        int old = values[i];
+        values[i] = value;
+        return old;
+      }
+      if(cur == 0) {
+        keys[i] = key;
+        values[i] = value;
+        if(++size >= resizeAt)
+          rehash(keys.length << 1);
+        return MISSING;
+      }
+    }
+  }
+
+  public int remove(long key) {
+    if(key == 0)
+      return MISSING;
+    long[] k = keys;
+    int mask = k.length - 1;
+    int i = slot(key, mask);
+    while(k[i] != key) {
+      if(k[i] == 0)
+        return MISSING;
+      i = (i + 1) & mask;
+    }
+    int old = values[i];
+    // Shift later members of the probe chain back so lookups never meet a hole too early.
+    int hole = i;
+    for(int j = (hole + 1) & mask; k[j] != 0; j = (j + 1) & mask) {
+      int home = slot(k[j], mask);
+      if(((j - home) & mask) >= ((j - hole) & mask)) {
+        k[hole] = k[j];
+        values[hole] = values[j];
+        hole = j;
+      }
+    }
+    k[hole] = 0;
+    values[hole] = 0;
+    size--;
+    return old;
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new int[capacity];
+    resizeAt = (int) (capacity * LOAD_FACTOR);
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+    allocate(capacity);
+    int mask = capacity - 1;
+    for(int j = 0; j < oldKeys.length; j++) {
+      long key = oldKeys[j];
+      if(key == 0)
+        continue;
+      int i = slot(key, mask);
+      while(keys[i] != 0)
+        i = (i + 1) & mask;
+      keys[i] = key;
+      values[i] = oldValues[j];
+    }
+  }
+
+  private static int slot(long key, int mask) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+}
@@ -0,0 +1,111 @@
+package hw.okit;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends every call through WireCodec to a server in the same process: the request is encoded
+ * into a buffer, decoded and served on the other side, and the answer travels back the same
+ * way. Shows what a socket transport would put on the wire, and lets tests run the whole
+ * client against the encoding. Buffers are per thread, so the BalanceResult calls do not
+ * allocate.
+ */
+public class LoopbackServerConnection implements IServerConnection {
+  private final IServerConnection server;
+  private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+  private final LongAdder bytesSent = new LongAdder();
+  private final LongAdder bytesReceived = new LongAdder();
+
+  public LoopbackServerConnection(IServerConnection server) {
+    this.server = server;
+  }
+
+  public ServerResponse login(String userName, String mdPass) {
+    Scratch s = scratch.get();
+    ByteBuffer request = ByteBuffer.allocate(5 + 3 * (userName.length() + mdPass.length()));
+    WireCodec.encodeLogin(request, userName, mdPass);
+    return WireCodec.decodeResponse(roundTrip(s, request));
+  }
+  public ServerResponse logout(long session) {
+    Scratch s = scratch.get();
+    WireCodec.encodeSession(s.begin(), WireCodec.LOGOUT, session);
+    return WireCodec.decodeResponse(roundTrip(s, s.request));
+  }
+  public ServerResponse withdraw(long session, double balance) {
+    Scratch s = scratch.get();
+    WireCodec.encodeMoney(s.begin(), WireCodec.WITHDRAW, session, balance, 0);
+    return WireCodec.decodeResponse(roundTrip(s, s.request));
+  }
+  public ServerResponse deposit(long session, double balance) {
+    Scratch s = scratch.get();
+    WireCodec.encodeMoney(s.begin(), WireCodec.DEPOSIT, session, balance, 0);
+    return WireCodec.decodeResponse(roundTrip(s, s.request));
+  }
+  public ServerResponse getBalance(long session) {
+    Scratch s = scratch.get();
+    WireCodec.encodeSession(s.begin(), WireCodec.GET_BALANCE, session);
+    return WireCodec.decodeResponse(roundTrip(s, s.request));
+  }
+
+  public int withdraw(long session, double balance, BalanceResult result) {
+    Scratch s = scratch.get();
+    WireCodec.encodeMoney(s.begin(), WireCodec.WITHDRAW, session, balance, 0);
+    return WireCodec.decodeResponse(roundTrip(s, s.request), result);
+  }
+  public int deposit(long session, double balance, BalanceResult result) {
+    Scratch s = scratch.get();
+    WireCodec.encodeMoney(s.begin(), WireCodec.DEPOSIT, session, balance, 0);
+    return WireCodec.decodeResponse(roundTrip(s, s.request), result);
+  }
+  public int getBalance(long session, BalanceResult result) {
+    Scratch s = scratch.get();
+    WireCodec.encodeSession(s.begin(), WireCodec.GET_BALANCE, session);
+    return WireCodec.decodeResponse(roundTrip(s, s.request), result);
+  }
+
+  public ServerResponse withdrawIdempotent(long session, double balance, long key) {
+    Scratch s = scratch.get();
+    WireCodec.encodeMoney(s.begin(), WireCodec.WITHDRAW, session, balance, key);
+    return WireCodec.decodeResponse(roundTrip(s, s.request));
+  }
+  public ServerResponse depositIdempotent(long session, double balance, long key) {
+    Scratch s = scratch.get();
+    WireCodec.encodeMoney(s.begin(), WireCodec.DEPOSIT, session, balance, key);
+    return WireCodec.decodeResponse(roundTrip(s, s.request));
+  }
+
+  public ServerResponse transfer(long fromSession, long toSession, double amount) {
+    Scratch s = scratch.get();
+    WireCodec.encodeTransfer(s.begin(), fromSession, toSession, amount);
+    return WireCodec.decodeResponse(roundTrip(s, s.request));
+  }
+
+  public long getBytesSent() {
+    return bytesSent.sum();
+  }
+  public long getBytesReceived() {
+    return bytesReceived.sum();
+  }
+
+  private ByteBuffer roundTrip(Scratch s, ByteBuffer request) {
+    request.flip();
+    bytesSent.add(request.remaining());
+    s.response.clear();
+    WireCodec.serve(request, server, s.serverResult, s.response);
+    s.response.flip();
+    bytesReceived.add(s.response.remaining());
+    return s.response;
+  }
+
+  private static final class Scratch {
+    final ByteBuffer request = ByteBuffer.allocate(WireCodec.MONEY_REQUEST_BYTES);
+    final ByteBuffer response = ByteBuffer.allocate(WireCodec.MAX_RESPONSE_BYTES);
+    // The server side's holder; the client side fills the caller's.
+    final BalanceResult serverResult = new BalanceResult();
+
+    ByteBuffer begin() {
+      request.clear();
+      return request;
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package hw.okit;
+
+/**
+ * Describes how a currency is carried as a long count of minor units, e.g. USD with scale 2
+ * stores $12.34 as 1234. All arithmetic is overflow-checked and throws ArithmeticException
+ * instead of wrapping.
+ */
+public final class MoneyScale {
+  public static final MoneyScale CENTS = new MoneyScale("XXX", 2);
+
+  private final String currency;
+  private final int scale;
+  private final long factor;
+
+  public MoneyScale(String currency, int scale) {
+    if(scale < 0 || scale > 18)
+      throw new IllegalArgumentException("scale must be between 0 and 18");
+    this.currency = currency;
+    this.scale = scale;
+    long f = 1;
+    for(int i = 0; i < scale; i++)
+      f *= 10;
+    this.factor = f;
+  }
+
+  public String getCurrency() {
+    return currency;
+  }
+  public int getScale() {
+    return scale;
+  }
+  public long getFactor() {
+    return factor;
+  }
+
+  /** Rounds a major-unit amount to the nearest minor unit, ties to even. */
+  public long toMinor(double major) {
+    double minor = Math.rint(major * factor);
+    if(Double.isNaN(minor) || minor >= 0x1p63 || minor < -0x1p63)
+      throw new ArithmeticException("amount out of range: " + major);
+    return (long) minor;
+  }
+
+  public double toMajor(long minor) {
+    return (double) minor / factor;
+  }
+
+  public static long add(long a, long b) {
+    return Math.addExact(a, b);
+  }
+
+  public static long subtract(long a, long b) {
+    return Math.subtractExact(a, b);
+  }
+
+  public String toString() {
+    return currency + "/" + scale;
+  }
+}
@@ -0,0 +1,255 @@
+package hw.okit;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-process server for NioServerConnection: a single selector thread accepts connections and
+ * moves bytes, and the WireCodec frames each connection sends are answered from store, typically
+ * an InMemoryServerConnection, on a worker executor, so a slow store never holds up the other
+ * connections' I/O. A connection has at most one batch of frames with the workers at a time,
+ * which keeps its answers in request order. All the answers to the frames found in one read go
+ * back in one write. A peer that stops reading is not read from either until its answers have
+ * drained.
+ *
+ * <p>Frame: length:4 (of what follows) correlationId:8 message.
+ */
+public class NioServer implements AutoCloseable {
+  static final int FRAME_HEADER = 12;
+  static final int BUFFER_BYTES = 64 * 1024;
+  // Bounds of the length prefix of a request: id plus at least an opcode, and what fits the buffer.
+  static final int MIN_FRAME = 9, MAX_FRAME = BUFFER_BYTES - 4;
+
+  private final IServerConnection store;
+  private final Executor workers;
+  private final ExecutorService ownWorkers;
+  // Peers whose batch the workers have finished, waiting for the selector thread.
+  private final ConcurrentLinkedQueue<Peer> answered = new ConcurrentLinkedQueue<>();
+  private final ServerSocketChannel acceptor;
+  private final Selector selector;
+  private final Thread loop;
+  private volatile boolean closed;
+
+  private NioServer(IServerConnection store, InetSocketAddress address, Executor workers) throws IOException {
+    this.store = store;
+    this.ownWorkers = workers == null ? Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+      Thread t = new Thread(r, "nio-server-worker");
+      t.setDaemon(true);
+      return t;
+    }) : null;
+    this.workers = workers == null ? ownWorkers : workers;
+    this.selector = Selector.open();
+    this.acceptor = ServerSocketChannel.open();
+    try {
+      acceptor.bind(address);
+      acceptor.configureBlocking(false);
+      acceptor.register(selector, SelectionKey.OP_ACCEPT);
+    } catch(IOException e) {
+      acceptor.close();
+      selector.close();
+      if(ownWorkers != null)
+        ownWorkers.shutdown();
+      throw e;
+    }
+    this.loop = new Thread(this::run, "nio-server");
+    loop.setDaemon(true);
+  }
+
+  /** Binds to address (port 0 picks a free one) and starts serving store on a worker per processor. */
+  public static NioServer start(IServerConnection store, InetSocketAddress address) throws IOException {
+    return start(store, address, null);
+  }
+
+  /** Same, with the store called on workers. */
+  public static NioServer start(IServerConnection store, InetSocketAddress address, Executor workers) throws IOException {
+    NioServer server = new NioServer(store, address, workers);
+    server.loop.start();
+    return server;
+  }
+
+  public InetSocketAddress getAddress() throws IOException {
+    return (InetSocketAddress) acceptor.getLocalAddress();
+  }
+
+  public void close() throws IOException {
+    closed = true;
+    selector.wakeup();
+    try {
+      loop.join();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if(ownWorkers != null)
+      ownWorkers.shutdown();
+  }
+
+  private void run() {
+    try {
+      while(!closed) {
+        selector.select();
+        Peer done;
+        while((done = answered.poll()) != null)
+          finished(done);
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while(keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          try {
+            if(key.isAcceptable())
+              accept();
+            else {
+              if(key.isWritable())
+                writable(key, (Peer) key.attachment());
+              if(key.isValid() && key.isReadable())
+                read(key, (Peer) key.attachment());
+            }
+          } catch(IOException | RuntimeException e) {
+            // A broken or misbehaving peer only loses its own connection.
+            drop(key);
+          }
+        }
+      }
+    } catch(IOException | ClosedSelectorException e) {
+      // Shutting down.
+    } finally {
+      for(SelectionKey key : selector.keys())
+        drop(key);
+      try {
+        selector.close();
+      } catch(IOException ignored) {
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel = acceptor.accept();
+    if(channel == null)
+      return;
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+    Peer peer = new Peer();
+    peer.key = channel.register(selector, SelectionKey.OP_READ, peer);
+  }
+
+  private void read(SelectionKey key, Peer peer) throws IOException {
+    if(((SocketChannel) key.channel()).read(peer.in) < 0) {
+      drop(key);
+      return;
+    }
+    dispatch(key, peer);
+  }
+
+  private void writable(SelectionKey key, Peer peer) throws IOException {
+    if(write(key, peer))
+      dispatch(key, peer);
+  }
+
+  // Hands the complete frames received to a worker. The peer's buffers belong to the worker until
+  // it is done, so the selector neither reads nor writes for the peer meanwhile.
+  private void dispatch(SelectionKey key, Peer peer) {
+    if(!hasFrame(peer.in))
+      return;
+    key.interestOps(0);
+    workers.execute(() -> {
+      try {
+        answer(peer);
+      } catch(IOException | RuntimeException e) {
+        peer.failure = e;
+      }
+      answered.add(peer);
+      selector.wakeup();
+    });
+  }
+
+  // Back on the selector thread: sends the answers and carries on with what is left, including
+  // frames a full output buffer made the worker stop at.
+  private void finished(Peer peer) {
+    SelectionKey key = peer.key;
+    if(!key.isValid())
+      return;
+    try {
+      if(peer.failure != null)
+        throw peer.failure;
+      if(write(key, peer))
+        dispatch(key, peer);
+    } catch(Exception e) {
+      drop(key);
+    }
+  }
+
+  // True when in, in write mode, starts with a whole frame, or with a length no frame can have.
+  private static boolean hasFrame(ByteBuffer in) {
+    if(in.position() < 4)
+      return false;
+    int length = in.getInt(0);
+    return length < MIN_FRAME || length > MAX_FRAME || in.position() >= 4 + length;
+  }
+
+  // Returns true when it stopped because the output buffer is full rather than for lack of input.
+  private boolean answer(Peer peer) throws IOException {
+    ByteBuffer in = peer.in, out = peer.out;
+    in.flip();
+    try {
+      while(in.remaining() >= 4) {
+        int length = in.getInt(in.position());
+        if(length < MIN_FRAME || length > MAX_FRAME)
+          throw new IOException("bad frame length " + length);
+        if(in.remaining() < 4 + length)
+          return false;
+        if(out.remaining() < FRAME_HEADER + WireCodec.MAX_RESPONSE_BYTES)
+          return true;
+        int end = in.position() + 4 + length;
+        int limit = in.limit();
+        in.position(in.position() + 4).limit(end);
+        long id = in.getLong();
+        int start = out.position();
+        out.putInt(0).putLong(id);
+        WireCodec.serve(in, store, peer.scratch, out);
+        out.putInt(start, out.position() - start - 4);
+        in.limit(limit).position(end);
+      }
+      return false;
+    } finally {
+      in.compact();
+    }
+  }
+
+  // Returns true when everything was written; otherwise stops reading until the peer takes its answers.
+  private boolean write(SelectionKey key, Peer peer) throws IOException {
+    ByteBuffer out = peer.out;
+    out.flip();
+    ((SocketChannel) key.channel()).write(out);
+    out.compact();
+    boolean drained = out.position() == 0;
+    key.interestOps(drained ? SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+    return drained;
+  }
+
+  private static void drop(SelectionKey key) {
+    key.cancel();
+    try {
+      key.channel().close();
+    } catch(IOException ignored) {
+    }
+  }
+
+  private static final class Peer {
+    final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    final BalanceResult scratch = new BalanceResult();
+    SelectionKey key;
+    // Written by the worker before it queues the peer in answered, read after the selector takes it out.
+    Exception failure;
+  }
+}
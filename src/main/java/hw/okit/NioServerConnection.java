@@ -0,0 +1,310 @@
+package hw.okit;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * IServerConnection over one non-blocking socket to a NioServer. Any number of threads can have
+ * requests in flight on it at once: each request carries a correlation id and its answer is
+ * matched by that id, so nobody waits for anybody else's round trip. Callers encode their
+ * frames into a shared direct buffer; the I/O thread swaps it with a second one and sends
+ * everything that piled up meanwhile in a single write.
+ *
+ * <p>Answers are completed on the I/O thread, so callbacks on the futures of the async view
+ * must not block. When the connection is lost or closed, every call still waiting, and every
+ * later one, answers UNAVAILABLE.
+ */
+public class NioServerConnection implements IServerConnection, AutoCloseable {
+  // Bounds of the length prefix of an answer: id, code and data kind, plus at most a long or double.
+  private static final int MIN_ANSWER = 10, MAX_ANSWER = 8 + WireCodec.MAX_RESPONSE_BYTES;
+
+  private final SocketChannel channel;
+  private final Selector selector;
+  private final SelectionKey key;
+  private final Thread io;
+  private final ConcurrentHashMap<Long, CompletableFuture<ServerResponse>> pending = new ConcurrentHashMap<>();
+  private final AtomicLong ids = new AtomicLong();
+
+  private final Object outLock = new Object();
+  private ByteBuffer filling = ByteBuffer.allocateDirect(NioServer.BUFFER_BYTES);
+  // Only touched by the I/O thread, always in read mode.
+  private ByteBuffer draining = ByteBuffer.allocateDirect(NioServer.BUFFER_BYTES).flip();
+  private boolean wakeupPending;
+  private final ByteBuffer in = ByteBuffer.allocateDirect(NioServer.BUFFER_BYTES);
+
+  private volatile boolean closed;
+  private volatile IOException failure;
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder writes = new LongAdder();
+
+  private NioServerConnection(SocketChannel channel) throws IOException {
+    this.channel = channel;
+    this.selector = Selector.open();
+    channel.configureBlocking(false);
+    this.key = channel.register(selector, SelectionKey.OP_READ);
+    this.io = new Thread(this::run, "nio-server-connection");
+    io.setDaemon(true);
+  }
+
+  public static NioServerConnection connect(InetSocketAddress address) throws IOException {
+    SocketChannel channel = SocketChannel.open(address);
+    try {
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      NioServerConnection connection = new NioServerConnection(channel);
+      connection.io.start();
+      return connection;
+    } catch(IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  public ServerResponse login(String userName, String mdPass) {
+    return sendLogin(userName, mdPass).join();
+  }
+  public ServerResponse logout(long session) {
+    return sendSession(WireCodec.LOGOUT, session).join();
+  }
+  public ServerResponse withdraw(long session, double balance) {
+    return sendMoney(WireCodec.WITHDRAW, session, balance, 0).join();
+  }
+  public ServerResponse deposit(long session, double balance) {
+    return sendMoney(WireCodec.DEPOSIT, session, balance, 0).join();
+  }
+  public ServerResponse getBalance(long session) {
+    return sendSession(WireCodec.GET_BALANCE, session).join();
+  }
+
+  public ServerResponse withdrawIdempotent(long session, double balance, long key) {
+    return sendMoney(WireCodec.WITHDRAW, session, balance, key).join();
+  }
+  public ServerResponse depositIdempotent(long session, double balance, long key) {
+    return sendMoney(WireCodec.DEPOSIT, session, balance, key).join();
+  }
+  public ServerResponse transfer(long fromSession, long toSession, double amount) {
+    return sendTransfer(fromSession, toSession, amount).join();
+  }
+
+  // All operations are sent before the first answer is awaited, so the batch costs about one round trip.
+  public List<ServerResponse> executeBatch(List<Operation> operations) {
+    List<CompletableFuture<ServerResponse>> sent = new ArrayList<>(operations.size());
+    for(Operation op : operations)
+      sent.add(send(op));
+    List<ServerResponse> responses = new ArrayList<>(sent.size());
+    for(CompletableFuture<ServerResponse> f : sent)
+      responses.add(f.join());
+    return responses;
+  }
+
+  public IAsyncServerConnection async() {
+    return new IAsyncServerConnection() {
+      public CompletableFuture<ServerResponse> login(String userName, String mdPass) {
+        return sendLogin(userName, mdPass);
+      }
+      public CompletableFuture<ServerResponse> logout(long session) {
+        return sendSession(WireCodec.LOGOUT, session);
+      }
+      public CompletableFuture<ServerResponse> withdraw(long session, double balance) {
+        return sendMoney(WireCodec.WITHDRAW, session, balance, 0);
+      }
+      public CompletableFuture<ServerResponse> deposit(long session, double balance) {
+        return sendMoney(WireCodec.DEPOSIT, session, balance, 0);
+      }
+      public CompletableFuture<ServerResponse> getBalance(long session) {
+        return sendSession(WireCodec.GET_BALANCE, session);
+      }
+    };
+  }
+
+  /** Requests sent and not answered yet. */
+  public int getPending() {
+    return pending.size();
+  }
+  public long getRequests() {
+    return requests.sum();
+  }
+  /** Socket writes made; fewer than getRequests when frames were coalesced. */
+  public long getWrites() {
+    return writes.sum();
+  }
+
+  public void close() {
+    closed = true;
+    synchronized(outLock) {
+      outLock.notifyAll();
+    }
+    selector.wakeup();
+    if(Thread.currentThread() != io) {
+      try {
+        io.join();
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private CompletableFuture<ServerResponse> send(Operation op) {
+    switch(op.type){
+      case Operation.LOGOUT:
+        return sendSession(WireCodec.LOGOUT, op.session);
+      case Operation.WITHDRAW:
+        return sendMoney(WireCodec.WITHDRAW, op.session, op.amount, op.key);
+      case Operation.DEPOSIT:
+        return sendMoney(WireCodec.DEPOSIT, op.session, op.amount, op.key);
+      case Operation.GET_BALANCE:
+        return sendSession(WireCodec.GET_BALANCE, op.session);
+      case Operation.TRANSFER:
+        return sendTransfer(op.session, op.toSession, op.amount);
+    }
+    return CompletableFuture.completedFuture(new ServerResponse(ServerResponse.UNDEFINED_ERROR, op));
+  }
+
+  private CompletableFuture<ServerResponse> sendLogin(String userName, String mdPass) {
+    // Upper bound: three UTF-8 bytes per char.
+    return send(5 + 3 * (userName.length() + mdPass.length()), out -> WireCodec.encodeLogin(out, userName, mdPass));
+  }
+  private CompletableFuture<ServerResponse> sendSession(byte op, long session) {
+    return send(9, out -> WireCodec.encodeSession(out, op, session));
+  }
+  private CompletableFuture<ServerResponse> sendMoney(byte op, long session, double amount, long key) {
+    return send(WireCodec.MONEY_REQUEST_BYTES, out -> WireCodec.encodeMoney(out, op, session, amount, key));
+  }
+  private CompletableFuture<ServerResponse> sendTransfer(long fromSession, long toSession, double amount) {
+    return send(WireCodec.MONEY_REQUEST_BYTES, out -> WireCodec.encodeTransfer(out, fromSession, toSession, amount));
+  }
+
+  private CompletableFuture<ServerResponse> send(int maxBytes, Consumer<ByteBuffer> encoder) {
+    int frameBytes = NioServer.FRAME_HEADER + maxBytes;
+    if(frameBytes > NioServer.BUFFER_BYTES)
+      return CompletableFuture.completedFuture(new ServerResponse(ServerResponse.UNDEFINED_ERROR,
+        new IllegalArgumentException("request too large")));
+    CompletableFuture<ServerResponse> answer = new CompletableFuture<>();
+    long id = ids.incrementAndGet();
+    pending.put(id, answer);
+    boolean wake = false;
+    synchronized(outLock) {
+      while(!closed && filling.remaining() < frameBytes) {
+        try {
+          outLock.wait();
+        } catch(InterruptedException e) {
+          Thread.currentThread().interrupt();
+          pending.remove(id);
+          return CompletableFuture.completedFuture(new ServerResponse(ServerResponse.UNAVAILABLE, e));
+        }
+      }
+      if(!closed) {
+        int start = filling.position();
+        filling.putInt(0).putLong(id);
+        encoder.accept(filling);
+        filling.putInt(start, filling.position() - start - 4);
+        requests.increment();
+        if(!wakeupPending)
+          wake = wakeupPending = true;
+      }
+    }
+    if(closed) {
+      // Whoever closed may already have failed the pending calls; make sure this one is answered too.
+      unavailable(pending.remove(id));
+      return answer;
+    }
+    if(wake)
+      selector.wakeup();
+    return answer;
+  }
+
+  private void run() {
+    try {
+      while(!closed) {
+        selector.select();
+        selector.selectedKeys().clear();
+        if(key.isValid() && key.isReadable())
+          read();
+        flush();
+      }
+    } catch(IOException e) {
+      failure = e;
+    } catch(ClosedSelectorException e) {
+      // Closed underneath us.
+    } finally {
+      closed = true;
+      synchronized(outLock) {
+        outLock.notifyAll();
+      }
+      try {
+        channel.close();
+        selector.close();
+      } catch(IOException ignored) {
+      }
+      for(Long id : pending.keySet())
+        unavailable(pending.remove(id));
+    }
+  }
+
+  private void read() throws IOException {
+    if(channel.read(in) < 0)
+      throw new IOException("server closed the connection");
+    in.flip();
+    while(in.remaining() >= 4) {
+      int length = in.getInt(in.position());
+      // Checked before anything is read past the prefix: a bad length would stall or overrun the buffer.
+      if(length < MIN_ANSWER || length > MAX_ANSWER)
+        throw new IOException("bad frame length " + length);
+      if(in.remaining() < 4 + length)
+        break;
+      int end = in.position() + 4 + length;
+      int limit = in.limit();
+      in.position(in.position() + 4).limit(end);
+      long id = in.getLong();
+      ServerResponse response = WireCodec.decodeResponse(in);
+      in.limit(limit).position(end);
+      CompletableFuture<ServerResponse> answer = pending.remove(id);
+      if(answer != null)
+        answer.complete(response);
+    }
+    in.compact();
+  }
+
+  // Sends what is left of the last swap, then keeps swapping in what callers queued meanwhile
+  // until either nothing is queued or the socket stops taking more.
+  private void flush() throws IOException {
+    while(true) {
+      if(!draining.hasRemaining()) {
+        synchronized(outLock) {
+          wakeupPending = false;
+          if(filling.position() == 0) {
+            key.interestOps(SelectionKey.OP_READ);
+            return;
+          }
+          ByteBuffer full = filling;
+          filling = draining.clear();
+          draining = full.flip();
+          outLock.notifyAll();
+        }
+      }
+      channel.write(draining);
+      writes.increment();
+      if(draining.hasRemaining()) {
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        return;
+      }
+    }
+  }
+
+  private void unavailable(CompletableFuture<ServerResponse> answer) {
+    if(answer != null)
+      answer.complete(new ServerResponse(ServerResponse.UNAVAILABLE, failure));
+  }
+}
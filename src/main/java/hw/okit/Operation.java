@@ -0,0 +1,64 @@
+package hw.okit;
+
+public class Operation {
+  public static final int LOGOUT = 1;
+  public static final int WITHDRAW = 2;
+  public static final int DEPOSIT = 3;
+  public static final int GET_BALANCE = 4;
+  public static final int TRANSFER = 5;
+  public int type;
+  public long session;
+  public double amount;
+  // Idempotency key of a withdraw or deposit, 0 when it has none.
+  public long key;
+  // Receiving session of a transfer; session is the paying one.
+  public long toSession;
+  public Operation(int type, long session, double amount) {
+    this.type = type;
+    this.session = session;
+    this.amount = amount;
+  }
+  public Operation(int type, long session, double amount, long key) {
+    this(type, session, amount);
+    this.key = key;
+  }
+  public static Operation logout(long session) {
+    return new Operation(LOGOUT, session, 0);
+  }
+  public static Operation withdraw(long session, double amount) {
+    return new Operation(WITHDRAW, session, amount);
+  }
+  public static Operation deposit(long session, double amount) {
+    return new Operation(DEPOSIT, session, amount);
+  }
+  public static Operation withdraw(long session, double amount, long key) {
+    return new Operation(WITHDRAW, session, amount, key);
+  }
+  public static Operation deposit(long session, double amount, long key) {
+    return new Operation(DEPOSIT, session, amount, key);
+  }
+  public static Operation getBalance(long session) {
+    return new Operation(GET_BALANCE, session, 0);
+  }
+  public static Operation transfer(long fromSession, long toSession, double amount) {
+    Operation op = new Operation(TRANSFER, fromSession, amount);
+    op.toSession = toSession;
+    return op;
+  }
+  // Runs the operation as a single call, used by servers without native batch support.
+  public ServerResponse applyTo(IServerConnection connection) {
+    switch(type) {
+      case LOGOUT:
+        return connection.logout(session);
+      case WITHDRAW:
+        return key != 0 ? connection.withdrawIdempotent(session, amount, key) : connection.withdraw(session, amount);
+      case DEPOSIT:
+        return key != 0 ? connection.depositIdempotent(session, amount, key) : connection.deposit(session, amount);
+      case GET_BALANCE:
+        return connection.getBalance(session);
+      case TRANSFER:
+        return connection.transfer(session, toSession, amount);
+    }
+    return new ServerResponse(ServerResponse.UNDEFINED_ERROR, this);
+  }
+}
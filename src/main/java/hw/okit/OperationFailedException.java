@@ -5,4 +5,8 @@ public class OperationFailedException extends Exception {
   public OperationFailedException(LocalOperationResponse resp) {
     response = resp;
   }
+  public OperationFailedException(LocalOperationResponse resp, boolean writableStackTrace) {
+    super(null, null, false, writableStackTrace);
+    response = resp;
+  }
 }
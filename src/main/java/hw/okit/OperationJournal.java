@@ -0,0 +1,472 @@
+package hw.okit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only write-ahead journal of money operations in a memory-mapped file of fixed size.
+ * Before an operation goes to the server an intent record is written, afterwards an outcome
+ * record; after a crash the intents without an outcome are the operations whose fate is
+ * unknown, and {@link Recovery#reconcile} settles them against the balance the server reports.
+ *
+ * <p>Records are [length, CRC32C, payload] and are published in file order, so a torn tail is
+ * recognised by its checksum. With GROUP_COMMIT a writer waiting for its intent to be durable
+ * either forces the file itself or finds that a concurrent writer's force already covered it,
+ * so one msync serves every intent written meanwhile.
+ *
+ * <p>A journal that fills up is compacted rather than refusing records: the last known balance
+ * of every login, the latest session of every login and the intents still without an outcome are
+ * written to a fresh file that replaces the old one, and appending carries on after them. The
+ * file doubles in size when what is still live takes more than half of it.
+ */
+public class OperationJournal implements AutoCloseable {
+  public enum FsyncPolicy {
+    /** Never forces; the OS writes the pages back on its own schedule. Survives a process crash, not a power loss. */
+    NONE,
+    /** Intents are durable before the operation is sent; concurrent writers share one force. */
+    GROUP_COMMIT,
+    /** Every record, outcomes included, is forced on its own before the call returns. */
+    ALWAYS
+  }
+
+  static final byte SESSION = 1, INTENT = 2, OUTCOME = 3, BALANCE = 4;
+  private static final int HEADER = 8;
+  private static final int MAX_PAYLOAD = 1024;
+
+  private final Path file;
+  // Replaced only by compaction, under the write lock; appends read them under the read lock.
+  private FileChannel channel;
+  private MappedByteBuffer map;
+  private int capacity;
+  private final StampedLock rollover = new StampedLock();
+  private final FsyncPolicy policy;
+  private final AtomicLong reserved;
+  // Every record below this offset is completely written.
+  private final AtomicLong written;
+  private volatile long durable;
+  private final ReentrantLock forceLock = new ReentrantLock();
+  private final AtomicLong ids;
+  private final LongAdder forces = new LongAdder();
+  private final LongAdder compactions = new LongAdder();
+  private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+  private OperationJournal(Path file, FileChannel channel, int capacity, FsyncPolicy policy, long end, long nextId) throws IOException {
+    this.file = file;
+    this.channel = channel;
+    this.capacity = capacity;
+    this.policy = policy;
+    this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    this.reserved = new AtomicLong(end);
+    this.written = new AtomicLong(end);
+    this.durable = end;
+    this.ids = new AtomicLong(nextId);
+  }
+
+  /**
+   * Opens or creates the journal file, appending after the records already in it. A file that
+   * already holds capacity bytes or more of records is compacted first.
+   */
+  public static OperationJournal open(Path file, int capacity, FsyncPolicy policy) throws IOException {
+    if(capacity < 2 * (HEADER + MAX_PAYLOAD))
+      throw new IllegalArgumentException("capacity must hold at least two records of the largest size");
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    OperationJournal journal;
+    try {
+      Recovery existing = Recovery.read(channel);
+      journal = new OperationJournal(file, channel, (int) Math.max(capacity, existing.end), policy, existing.end, existing.maxId + 1);
+    } catch(IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+    if(journal.written.get() >= capacity)
+      journal.compact(true);
+    return journal;
+  }
+
+  /** Reads a journal left behind by a previous run. */
+  public static Recovery recover(Path file) throws IOException {
+    try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      return Recovery.read(channel);
+    }
+  }
+
+  /** Records which login a session belongs to, so recovery can match intents to accounts. */
+  public void session(long session, String login) {
+    byte[] name = login.getBytes(StandardCharsets.UTF_8);
+    if(name.length > MAX_PAYLOAD - 16)
+      throw new IllegalArgumentException("login too long");
+    ByteBuffer b = scratch.get().begin(SESSION);
+    b.putLong(session).putInt(name.length).put(name);
+    write(b, policy == FsyncPolicy.ALWAYS);
+  }
+
+  /** Writes the intent of a withdraw or deposit and returns its id once the policy considers it safe. */
+  public long intent(long session, int operation, double amount) {
+    long id = ids.getAndIncrement();
+    ByteBuffer b = scratch.get().begin(INTENT);
+    b.putLong(id).putLong(session).putInt(operation).putDouble(amount);
+    write(b, policy != FsyncPolicy.NONE);
+    return id;
+  }
+
+  public void outcome(long id, int code, double balance) {
+    ByteBuffer b = scratch.get().begin(OUTCOME);
+    b.putLong(id).putInt(code).putDouble(balance);
+    write(b, policy == FsyncPolicy.ALWAYS);
+  }
+
+  /** Forces everything written so far, whatever the policy. */
+  public void sync() {
+    long stamp = rollover.readLock();
+    try {
+      awaitDurable(written.get());
+    } finally {
+      rollover.unlockRead(stamp);
+    }
+  }
+
+  public FsyncPolicy getPolicy() {
+    return policy;
+  }
+  public long getForces() {
+    return forces.sum();
+  }
+  public long size() {
+    return written.get();
+  }
+  public long getCompactions() {
+    return compactions.sum();
+  }
+
+  public void close() throws IOException {
+    long stamp = rollover.writeLock();
+    try {
+      awaitDurable(written.get());
+      channel.close();
+    } finally {
+      rollover.unlockWrite(stamp);
+    }
+  }
+
+  // Appends the record and waits for it to be durable if asked; compacts and retries when it does not fit.
+  private void write(ByteBuffer payload, boolean durably) {
+    while(true) {
+      long stamp = rollover.readLock();
+      try {
+        long end = append(payload);
+        if(end >= 0) {
+          if(durably)
+            awaitDurable(end);
+          return;
+        }
+      } finally {
+        rollover.unlockRead(stamp);
+      }
+      compact(false);
+    }
+  }
+
+  // Returns the end offset of the record, or -1 when it does not fit. Reservations are handed out in
+  // file order, so once one fails every later one fails too and nothing waits behind a failed one.
+  private long append(ByteBuffer payload) {
+    int length = payload.position();
+    int total = record(length);
+    long start = reserved.getAndAdd(total);
+    long end = start + total;
+    if(end > capacity)
+      return -1;
+    CRC32C crc = scratch.get().crc;
+    int at = (int) start;
+    frame(map, at, payload, length, crc);
+    // Publish in file order so written never covers a record that is still being copied.
+    while(written.get() != start)
+      Thread.onSpinWait();
+    written.set(end);
+    return end;
+  }
+
+  private static void frame(ByteBuffer out, int at, ByteBuffer payload, int length, CRC32C crc) {
+    crc.reset();
+    crc.update(payload.array(), 0, length);
+    out.put(at + HEADER, payload.array(), 0, length);
+    out.putInt(at + 4, (int) crc.getValue());
+    out.putInt(at, length);
+  }
+
+  /**
+   * Rewrites the journal as the records still needed for recovery, in a new file moved over the
+   * old one, and maps it with room to spare. Runs alone: no append is in progress meanwhile.
+   */
+  private void compact(boolean unconditionally) {
+    long stamp = rollover.writeLock();
+    try {
+      // Another writer may have compacted while this one waited for the lock.
+      if(!unconditionally && reserved.get() <= capacity)
+        return;
+      long end = written.get();
+      Recovery live = Recovery.read(map.duplicate().position(0).limit((int) end).slice());
+      // Upper bound: balance and session records both take 13 bytes besides the login.
+      long bound = 0;
+      for(String login : live.lastBalances.keySet())
+        bound += record(13 + login.length() * 3);
+      for(String login : live.latestSessions.keySet())
+        bound += record(13 + login.length() * 3);
+      for(Pending p : live.pending)
+        bound += record(29) + (p.login == null ? 0 : record(13 + p.login.length() * 3));
+      ByteBuffer out = ByteBuffer.allocate((int) bound);
+      // Not the thread's own scratch: that one still holds the record waiting to be appended.
+      Scratch s = new Scratch();
+      int at = 0;
+      for(Map.Entry<String, Double> e : live.lastBalances.entrySet()) {
+        byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+        at = put(out, at, s.begin(BALANCE).putInt(name.length).put(name).putDouble(e.getValue()), s.crc);
+      }
+      Set<Long> sessions = new HashSet<>();
+      for(Map.Entry<String, Long> e : live.latestSessions.entrySet())
+        if(sessions.add(e.getValue()))
+          at = putSession(out, at, e.getValue(), e.getKey(), s);
+      for(Pending p : live.pending) {
+        if(p.login != null && sessions.add(p.session))
+          at = putSession(out, at, p.session, p.login, s);
+        at = put(out, at, s.begin(INTENT).putLong(p.id).putLong(p.session).putInt(p.operation).putDouble(p.amount), s.crc);
+      }
+      int grown = capacity;
+      while(grown < Integer.MAX_VALUE / 2 && at > grown / 2)
+        grown *= 2;
+      Path next = file.resolveSibling(file.getFileName() + ".compact");
+      FileChannel fresh = FileChannel.open(next, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+      try {
+        out.limit(at);
+        while(out.hasRemaining())
+          fresh.write(out, out.position());
+        fresh.force(true);
+        Files.move(next, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        map = fresh.map(FileChannel.MapMode.READ_WRITE, 0, grown);
+      } catch(IOException | RuntimeException e) {
+        fresh.close();
+        throw e;
+      }
+      channel.close();
+      channel = fresh;
+      capacity = grown;
+      reserved.set(at);
+      written.set(at);
+      durable = at;
+      compactions.increment();
+    } catch(IOException e) {
+      throw new UncheckedIOException("cannot compact operation journal " + file, e);
+    } finally {
+      rollover.unlockWrite(stamp);
+    }
+  }
+
+  private static int putSession(ByteBuffer out, int at, long session, String login, Scratch s) {
+    byte[] name = login.getBytes(StandardCharsets.UTF_8);
+    return put(out, at, s.begin(SESSION).putLong(session).putInt(name.length).put(name), s.crc);
+  }
+
+  private static int put(ByteBuffer out, int at, ByteBuffer payload, CRC32C crc) {
+    int length = payload.position();
+    frame(out, at, payload, length, crc);
+    return at + record(length);
+  }
+
+  private static int record(int payloadLength) {
+    return (HEADER + payloadLength + 7) & ~7;
+  }
+
+  // Under ALWAYS every call forces, even when another writer's force already covered the record.
+  private void awaitDurable(long end) {
+    boolean always = policy == FsyncPolicy.ALWAYS;
+    if(!always && durable >= end)
+      return;
+    forceLock.lock();
+    try {
+      if(!always && durable >= end)
+        return;
+      long from = Math.max(0, Math.min(durable, end - HEADER));
+      long upTo = written.get();
+      map.force((int) from, (int) (upTo - from));
+      durable = Math.max(durable, upTo);
+      forces.increment();
+    } finally {
+      forceLock.unlock();
+    }
+  }
+
+  private static final class Scratch {
+    final ByteBuffer buffer = ByteBuffer.allocate(MAX_PAYLOAD);
+    final CRC32C crc = new CRC32C();
+
+    ByteBuffer begin(byte kind) {
+      buffer.clear();
+      buffer.put(kind);
+      return buffer;
+    }
+  }
+
+  /** An intent found without an outcome. */
+  public static class Pending {
+    public final long id;
+    public final long session;
+    public final String login;
+    public final int operation;
+    public final double amount;
+
+    Pending(long id, long session, String login, int operation, double amount) {
+      this.id = id;
+      this.session = session;
+      this.login = login;
+      this.operation = operation;
+      this.amount = amount;
+    }
+
+    double delta() {
+      return operation == Operation.WITHDRAW ? -amount : amount;
+    }
+  }
+
+  /** What a journal says about the operations that were in flight when it was last written. */
+  public static class Recovery {
+    private final List<Pending> pending;
+    private final Map<String, Double> lastBalances;
+    // Login to the last session recorded for it.
+    final Map<String, Long> latestSessions;
+    final long end;
+    final long maxId;
+
+    Recovery(List<Pending> pending, Map<String, Double> lastBalances, Map<String, Long> latestSessions, long end, long maxId) {
+      this.pending = pending;
+      this.lastBalances = lastBalances;
+      this.latestSessions = latestSessions;
+      this.end = end;
+      this.maxId = maxId;
+    }
+
+    public List<Pending> pending() {
+      return pending;
+    }
+
+    /** The last balance a completed operation of the login reported, or NaN. */
+    public double lastKnownBalance(String login) {
+      Double balance = lastBalances.get(login);
+      return balance == null ? Double.NaN : balance;
+    }
+
+    /**
+     * How many of the login's pending operations, in journal order, reached the server, judged by
+     * which prefix of them turns the last known balance into serverBalance. Returns -1 when no
+     * prefix or more than one prefix fits, in which case the operations need a manual look.
+     */
+    public int reconcile(String login, double serverBalance) {
+      List<Pending> mine = new ArrayList<>();
+      for(Pending p : pending)
+        if(login.equals(p.login))
+          mine.add(p);
+      double balance = lastKnownBalance(login);
+      if(mine.isEmpty())
+        return 0;
+      if(Double.isNaN(balance))
+        return -1;
+      int match = -1;
+      for(int k = 0; k <= mine.size(); k++) {
+        if(k > 0)
+          balance += mine.get(k - 1).delta();
+        if(Math.abs(balance - serverBalance) < 1e-6) {
+          if(match >= 0)
+            return -1;
+          match = k;
+        }
+      }
+      return match;
+    }
+
+    static Recovery read(FileChannel channel) throws IOException {
+      long size = channel.size();
+      ByteBuffer file = ByteBuffer.allocate((int) Math.min(size, Integer.MAX_VALUE));
+      while(file.hasRemaining())
+        if(channel.read(file, file.position()) <= 0)
+          break;
+      return read(file.flip());
+    }
+
+    static Recovery read(ByteBuffer file) {
+      Map<Long, String> logins = new HashMap<>();
+      Map<String, Long> latest = new LinkedHashMap<>();
+      Map<Long, Pending> open = new LinkedHashMap<>();
+      Map<String, Double> balances = new HashMap<>();
+      CRC32C crc = new CRC32C();
+      long maxId = -1;
+      int at = 0;
+      while(at + HEADER <= file.limit()) {
+        int length = file.getInt(at);
+        if(length <= 0 || length > MAX_PAYLOAD || at + HEADER + length > file.limit())
+          break;
+        crc.reset();
+        ByteBuffer payload = file.duplicate().position(at + HEADER).limit(at + HEADER + length);
+        crc.update(payload.duplicate());
+        if((int) crc.getValue() != file.getInt(at + 4))
+          break;
+        switch(payload.get()){
+          case SESSION: {
+            long session = payload.getLong();
+            byte[] name = new byte[payload.getInt()];
+            payload.get(name);
+            String login = new String(name, StandardCharsets.UTF_8);
+            logins.put(session, login);
+            latest.put(login, session);
+            break;
+          }
+          case INTENT: {
+            long id = payload.getLong();
+            long session = payload.getLong();
+            int operation = payload.getInt();
+            double amount = payload.getDouble();
+            open.put(id, new Pending(id, session, logins.get(session), operation, amount));
+            maxId = Math.max(maxId, id);
+            break;
+          }
+          case OUTCOME: {
+            long id = payload.getLong();
+            int code = payload.getInt();
+            double balance = payload.getDouble();
+            Pending done = open.remove(id);
+            if(done != null && done.login != null && LocalOperationResponse.carriesBalance(code) && !Double.isNaN(balance))
+              balances.put(done.login, balance);
+            break;
+          }
+          case BALANCE: {
+            byte[] name = new byte[payload.getInt()];
+            payload.get(name);
+            balances.put(new String(name, StandardCharsets.UTF_8), payload.getDouble());
+            break;
+          }
+        }
+        at += record(length);
+      }
+      return new Recovery(Collections.unmodifiableList(new ArrayList<>(open.values())), balances, latest, at, maxId);
+    }
+  }
+}
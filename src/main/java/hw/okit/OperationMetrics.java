@@ -0,0 +1,150 @@
+package hw.okit;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Outcome counters per operation and LocalOperationResponse code, latency histograms of the
+ * IServerConnection calls behind each operation. Recording only touches striped counters, so it
+ * is allocation-free and does not add a shared hot spot.
+ */
+public class OperationMetrics implements OperationMetricsMXBean {
+  public static final int
+    LOGIN = 0,
+    LOGOUT = Operation.LOGOUT,
+    WITHDRAW = Operation.WITHDRAW,
+    DEPOSIT = Operation.DEPOSIT,
+    GET_BALANCE = Operation.GET_BALANCE,
+    TRANSFER = Operation.TRANSFER;
+  static final int OPERATIONS = 6;
+  static final int CODES = 16;
+  private static final String[] OPERATION_NAMES = {"login", "logout", "withdraw", "deposit", "getBalance", "transfer"};
+  private static final String[] CODE_NAMES = {"SUCCEED", "ALREADY_LOGGED", "NOT_LOGGED",
+    "NO_USER_INCORRECT_PASSWORD", "INCORRECT_RESPONSE", "UNDEFINED_ERROR", "INCORRECT_SESSION",
+    "NO_MONEY", "ENCODING_ERROR", "ALREADY_INITIATED", "NULL_ARGUMENT", "SERVICE_UNAVAILABLE", "RATE_LIMITED"};
+
+  private final LongAdder[] outcomes = new LongAdder[OPERATIONS * CODES];
+  private final LatencyHistogram[] serverLatency = new LatencyHistogram[OPERATIONS];
+  private final IntSupplier activeSessions;
+
+  public OperationMetrics(IntSupplier activeSessions) {
+    this.activeSessions = activeSessions;
+    for(int i = 0; i < outcomes.length; i++)
+      outcomes[i] = new LongAdder();
+    for(int i = 0; i < OPERATIONS; i++)
+      serverLatency[i] = new LatencyHistogram();
+  }
+
+  /** Counts an outcome that did not need a server call, such as NOT_LOGGED or a cached balance. */
+  public void count(int operation, int code) {
+    outcomes[operation * CODES + Math.min(Math.max(code, 0), CODES - 1)].increment();
+  }
+
+  public void record(int operation, int code, long serverNanos) {
+    count(operation, code);
+    serverLatency[operation].record(serverNanos);
+  }
+
+  public long getCount(int operation, int code) {
+    return outcomes[operation * CODES + Math.min(Math.max(code, 0), CODES - 1)].sum();
+  }
+
+  public Snapshot snapshot() {
+    long[] counts = new long[outcomes.length];
+    for(int i = 0; i < counts.length; i++)
+      counts[i] = outcomes[i].sum();
+    LatencyHistogram.Snapshot[] latency = new LatencyHistogram.Snapshot[OPERATIONS];
+    for(int i = 0; i < OPERATIONS; i++)
+      latency[i] = serverLatency[i].snapshot();
+    return new Snapshot(counts, latency, activeSessions.getAsInt());
+  }
+
+  /** Registers this object with the platform MBean server under hw.okit:type=OperationMetrics,name=name. */
+  public ObjectName register(String name) throws JMException {
+    ObjectName objectName = new ObjectName("hw.okit:type=OperationMetrics,name=" + ObjectName.quote(name));
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    server.registerMBean(this, objectName);
+    return objectName;
+  }
+
+  public int getActiveSessions() {
+    return activeSessions.getAsInt();
+  }
+  public Map<String, Long> getOutcomeCounts() {
+    Map<String, Long> counts = new TreeMap<>();
+    for(int op = 0; op < OPERATIONS; op++)
+      for(int code = 0; code < CODES; code++) {
+        long n = outcomes[op * CODES + code].sum();
+        if(n != 0)
+          counts.put(OPERATION_NAMES[op] + "." + (code < CODE_NAMES.length ? CODE_NAMES[code] : String.valueOf(code)), n);
+      }
+    return counts;
+  }
+  public long getServerCalls() {
+    return snapshot().serverLatency().count();
+  }
+  public long getServerLatencyMeanNanos() {
+    return snapshot().serverLatency().meanNanos();
+  }
+  public long getServerLatencyP50Nanos() {
+    return snapshot().serverLatency().percentileNanos(0.5);
+  }
+  public long getServerLatencyP99Nanos() {
+    return snapshot().serverLatency().percentileNanos(0.99);
+  }
+  public long getServerLatencyMaxNanos() {
+    return snapshot().serverLatency().maxNanos();
+  }
+
+  public static class Snapshot {
+    private final long[] counts;
+    private final LatencyHistogram.Snapshot[] latency;
+    private final int activeSessions;
+
+    Snapshot(long[] counts, LatencyHistogram.Snapshot[] latency, int activeSessions) {
+      this.counts = counts;
+      this.latency = latency;
+      this.activeSessions = activeSessions;
+    }
+
+    public long count(int operation, int code) {
+      return counts[operation * CODES + Math.min(Math.max(code, 0), CODES - 1)];
+    }
+    public long count(int operation) {
+      long n = 0;
+      for(int code = 0; code < CODES; code++)
+        n += counts[operation * CODES + code];
+      return n;
+    }
+    public LatencyHistogram.Snapshot serverLatency(int operation) {
+      return latency[operation];
+    }
+    /** Server call latencies of all operations together. */
+    public LatencyHistogram.Snapshot serverLatency() {
+      LatencyHistogram.Snapshot all = latency[0];
+      for(int i = 1; i < latency.length; i++)
+        all = all.merge(latency[i]);
+      return all;
+    }
+    public int activeSessions() {
+      return activeSessions;
+    }
+
+    /** Counters and histograms of both snapshots added together, e.g. across the shards of a ShardedAccountManager. */
+    public Snapshot merge(Snapshot other) {
+      long[] c = new long[counts.length];
+      for(int i = 0; i < c.length; i++)
+        c[i] = counts[i] + other.counts[i];
+      LatencyHistogram.Snapshot[] l = new LatencyHistogram.Snapshot[latency.length];
+      for(int i = 0; i < l.length; i++)
+        l[i] = latency[i].merge(other.latency[i]);
+      return new Snapshot(c, l, activeSessions + other.activeSessions);
+    }
+  }
+}
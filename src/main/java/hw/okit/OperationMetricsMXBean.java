@@ -0,0 +1,15 @@
+package hw.okit;
+
+import java.util.Map;
+
+/** JMX view of {@link OperationMetrics}; latencies are in nanoseconds. */
+public interface OperationMetricsMXBean {
+  int getActiveSessions();
+  /** Non-zero outcome counters keyed as operation.OUTCOME, for example withdraw.NO_MONEY. */
+  Map<String, Long> getOutcomeCounts();
+  long getServerCalls();
+  long getServerLatencyMeanNanos();
+  long getServerLatencyP50Nanos();
+  long getServerLatencyP99Nanos();
+  long getServerLatencyMaxNanos();
+}
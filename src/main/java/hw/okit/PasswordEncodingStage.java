@@ -0,0 +1,196 @@
+package hw.okit;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs a (possibly slow) IPasswordEncoder on a dedicated, bounded worker pool. When the queue
+ * is full new requests are shed with ENCODING_ERROR instead of piling up. An optional
+ * short-lived cache, keyed by a salted digest of the password, answers repeated reconnects
+ * without running the encoder again.
+ */
+public class PasswordEncodingStage implements IPasswordEncoder, AutoCloseable {
+  private final IPasswordEncoder encoder;
+  private final ThreadPoolExecutor workers;
+  private final byte[] salt = new byte[16];
+  private final ReentrantLock cacheLock = new ReentrantLock();
+  private volatile LinkedHashMap<String, CachedPassword> cache;
+  private long cacheTtlNanos;
+  private final LongAdder encoded = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder cacheHits = new LongAdder();
+  private final LongAdder latencyNanos = new LongAdder();
+
+  public PasswordEncodingStage(IPasswordEncoder encoder, int threads, int queueCapacity) {
+    this.encoder = encoder;
+    AtomicInteger ids = new AtomicInteger();
+    this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue<>(queueCapacity), r -> {
+        Thread t = new Thread(r, "password-encoder-" + ids.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }, new ThreadPoolExecutor.AbortPolicy());
+    new SecureRandom().nextBytes(salt);
+  }
+
+  /** Keeps up to maxEntries encoded passwords for ttl after they were produced. */
+  public PasswordEncodingStage withCache(int maxEntries, long ttl, TimeUnit unit) {
+    cacheLock.lock();
+    try {
+      cacheTtlNanos = unit.toNanos(ttl);
+      cache = new LinkedHashMap<String, CachedPassword>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, CachedPassword> eldest) {
+          return size() > maxEntries;
+        }
+      };
+    } finally {
+      cacheLock.unlock();
+    }
+    return this;
+  }
+
+  public String makeSecure(String password) throws OperationFailedException {
+    try {
+      return encodeAsync(password).get();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new OperationFailedException(LocalOperationResponse.ENCODING_ERROR_RESPONSE);
+    } catch(ExecutionException e) {
+      if(e.getCause() instanceof OperationFailedException)
+        throw (OperationFailedException) e.getCause();
+      throw new OperationFailedException(LocalOperationResponse.ENCODING_ERROR_RESPONSE);
+    }
+  }
+
+  /** Completes exceptionally with an OperationFailedException when the request is shed or encoding fails. */
+  public CompletableFuture<String> encodeAsync(String password) {
+    String key = cache == null ? null : digest(password);
+    if(key != null) {
+      String hit = cached(key);
+      if(hit != null) {
+        cacheHits.increment();
+        return CompletableFuture.completedFuture(hit);
+      }
+    }
+    long start = System.nanoTime();
+    CompletableFuture<String> result = new CompletableFuture<>();
+    try {
+      workers.execute(() -> {
+        try {
+          String secure = encoder.makeSecure(password);
+          if(key != null)
+            store(key, secure);
+          encoded.increment();
+          latencyNanos.add(System.nanoTime() - start);
+          result.complete(secure);
+        } catch(OperationFailedException e) {
+          failed.increment();
+          result.completeExceptionally(e);
+        } catch(RuntimeException e) {
+          failed.increment();
+          result.completeExceptionally(new OperationFailedException(LocalOperationResponse.ENCODING_ERROR_RESPONSE));
+        }
+      });
+    } catch(RejectedExecutionException e) {
+      rejected.increment();
+      result.completeExceptionally(new OperationFailedException(LocalOperationResponse.ENCODING_ERROR_RESPONSE, false));
+    }
+    return result;
+  }
+
+  public int getQueueDepth() {
+    return workers.getQueue().size();
+  }
+  public int getActiveWorkers() {
+    return workers.getActiveCount();
+  }
+  public long getEncoded() {
+    return encoded.sum();
+  }
+  public long getRejected() {
+    return rejected.sum();
+  }
+  public long getFailed() {
+    return failed.sum();
+  }
+  public long getCacheHits() {
+    return cacheHits.sum();
+  }
+  /** Mean time from submission to a finished encoding, queue wait included. */
+  public long getAverageLatencyNanos() {
+    long n = encoded.sum();
+    return n == 0 ? 0 : latencyNanos.sum() / n;
+  }
+
+  public void close() {
+    workers.shutdown();
+  }
+
+  // Unwraps the OperationFailedException behind a failed encodeAsync future.
+  static OperationFailedException failure(Throwable t) {
+    Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+    if(cause instanceof OperationFailedException)
+      return (OperationFailedException) cause;
+    return new OperationFailedException(LocalOperationResponse.ENCODING_ERROR_RESPONSE);
+  }
+
+  private String cached(String key) {
+    cacheLock.lock();
+    try {
+      CachedPassword c = cache.get(key);
+      if(c == null)
+        return null;
+      if(System.nanoTime() - c.storedAt >= cacheTtlNanos) {
+        cache.remove(key);
+        return null;
+      }
+      return c.secure;
+    } finally {
+      cacheLock.unlock();
+    }
+  }
+
+  private void store(String key, String secure) {
+    cacheLock.lock();
+    try {
+      cache.put(key, new CachedPassword(secure, System.nanoTime()));
+    } finally {
+      cacheLock.unlock();
+    }
+  }
+
+  private String digest(String password) {
+    try {
+      MessageDigest sha = MessageDigest.getInstance("SHA-256");
+      sha.update(salt);
+      return Base64.getEncoder().encodeToString(sha.digest(password.getBytes(StandardCharsets.UTF_8)));
+    } catch(NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static final class CachedPassword {
+    final String secure;
+    final long storedAt;
+    CachedPassword(String secure, long storedAt) {
+      this.secure = secure;
+      this.storedAt = storedAt;
+    }
+  }
+}
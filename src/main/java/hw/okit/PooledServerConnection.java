@@ -0,0 +1,285 @@
+package hw.okit;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Spreads calls over a fixed set of connections made by a factory. Session operations go to
+ * the link picked by hashing the session id, so one session keeps using one link; logins and
+ * batches go to the least loaded link. Each link admits at most maxInFlight calls at a time.
+ * A link whose calls keep throwing is taken out of rotation until a health check finds it
+ * answering again, or replaces it with a fresh connection.
+ */
+public class PooledServerConnection implements IServerConnection, AutoCloseable {
+  private static final int FAILURES_BEFORE_UNHEALTHY = 3;
+
+  private final Supplier<? extends IServerConnection> factory;
+  private final Link[] links;
+  private final int maxInFlight;
+  private volatile Predicate<IServerConnection> probe;
+  private ScheduledExecutorService healthChecker;
+
+  public PooledServerConnection(Supplier<? extends IServerConnection> factory, int size, int maxInFlight) {
+    this(factory, size, maxInFlight, null);
+  }
+
+  /**
+   * probe is what checkHealth asks of every link; it answers whether the connection works. Without
+   * one checkHealth sends nothing and only replaces the links that are out of rotation.
+   */
+  public PooledServerConnection(Supplier<? extends IServerConnection> factory, int size, int maxInFlight,
+                                Predicate<IServerConnection> probe) {
+    if(size < 1)
+      throw new IllegalArgumentException("size must be positive");
+    if(maxInFlight < 1)
+      throw new IllegalArgumentException("maxInFlight must be positive");
+    this.factory = factory;
+    this.maxInFlight = maxInFlight;
+    this.probe = probe;
+    this.links = new Link[size];
+    for(int i = 0; i < size; i++)
+      links[i] = new Link(factory.get(), maxInFlight);
+  }
+
+  public ServerResponse login(String userName, String mdPass) {
+    return call(leastLoaded(), c -> c.login(userName, mdPass));
+  }
+  public ServerResponse logout(long session) {
+    return call(session, c -> c.logout(session));
+  }
+  public ServerResponse withdraw(long session, double balance) {
+    return call(session, c -> c.withdraw(session, balance));
+  }
+  public ServerResponse deposit(long session, double balance) {
+    return call(session, c -> c.deposit(session, balance));
+  }
+  public ServerResponse getBalance(long session) {
+    return call(session, c -> c.getBalance(session));
+  }
+  public ServerResponse transfer(long fromSession, long toSession, double amount) {
+    return call(fromSession, c -> c.transfer(fromSession, toSession, amount));
+  }
+
+  public int withdraw(long session, double balance, BalanceResult result) {
+    return call(session, c -> c.withdraw(session, balance, result));
+  }
+  public int deposit(long session, double balance, BalanceResult result) {
+    return call(session, c -> c.deposit(session, balance, result));
+  }
+  public int getBalance(long session, BalanceResult result) {
+    return call(session, c -> c.getBalance(session, result));
+  }
+
+  public ServerResponse withdrawMinor(long session, long amount, MoneyScale scale) {
+    return call(session, c -> c.withdrawMinor(session, amount, scale));
+  }
+  public ServerResponse depositMinor(long session, long amount, MoneyScale scale) {
+    return call(session, c -> c.depositMinor(session, amount, scale));
+  }
+  public ServerResponse getBalanceMinor(long session, MoneyScale scale) {
+    return call(session, c -> c.getBalanceMinor(session, scale));
+  }
+
+  public ServerResponse withdrawIdempotent(long session, double balance, long key) {
+    return call(session, c -> c.withdrawIdempotent(session, balance, key));
+  }
+  public ServerResponse depositIdempotent(long session, double balance, long key) {
+    return call(session, c -> c.depositIdempotent(session, balance, key));
+  }
+
+  public List<ServerResponse> executeBatch(List<Operation> operations) {
+    return call(leastLoaded(), c -> c.executeBatch(operations));
+  }
+
+  /**
+   * Runs call on a healthy link other than the one the session's calls go to, if one has a free
+   * slot right now; returns null otherwise. Used for duplicate requests such as hedged reads,
+   * which are only worth sending where they do not queue behind the original.
+   */
+  <T> T callElsewhere(long session, Function<IServerConnection, T> call) {
+    Link usual = forSession(session);
+    Link link = null;
+    int bestFree = 0;
+    for(Link l : links) {
+      int free = l.permits.availablePermits();
+      if(l != usual && l.healthy && free > bestFree) {
+        link = l;
+        bestFree = free;
+      }
+    }
+    if(link == null || !link.permits.tryAcquire())
+      return null;
+    return run(link, call);
+  }
+
+  public void setHealthProbe(Predicate<IServerConnection> probe) {
+    this.probe = probe;
+  }
+
+  /** Probes every link now; failing links are replaced with a fresh connection from the factory. */
+  public void checkHealth() {
+    Predicate<IServerConnection> probe = this.probe;
+    for(Link link : links) {
+      if(probe == null ? link.healthy : probe(probe, link.connection)) {
+        link.markHealthy();
+        continue;
+      }
+      IServerConnection fresh;
+      try {
+        fresh = factory.get();
+      } catch(RuntimeException e) {
+        link.markUnhealthy();
+        continue;
+      }
+      if(probe == null || probe(probe, fresh))
+        link.replace(fresh);
+      else
+        link.markUnhealthy();
+    }
+  }
+
+  /** Runs checkHealth every period on a background daemon thread until close. */
+  public synchronized void startHealthChecks(long period, TimeUnit unit) {
+    if(healthChecker != null)
+      return;
+    healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "pooled-server-connection-health");
+      t.setDaemon(true);
+      return t;
+    });
+    healthChecker.scheduleWithFixedDelay(this::checkHealth, period, period, unit);
+  }
+
+  public synchronized void close() {
+    if(healthChecker != null)
+      healthChecker.shutdown();
+    healthChecker = null;
+  }
+
+  public int size() {
+    return links.length;
+  }
+  public int getHealthyCount() {
+    int n = 0;
+    for(Link link : links)
+      if(link.healthy)
+        n++;
+    return n;
+  }
+  public int getInFlight(int link) {
+    return maxInFlight - links[link].permits.availablePermits();
+  }
+  public long getCalls(int link) {
+    return links[link].calls.sum();
+  }
+
+  private <R> R call(long session, Function<IServerConnection, R> op) {
+    return call(forSession(session), op);
+  }
+
+  private <R> R call(Link preferred, Function<IServerConnection, R> op) {
+    return run(acquire(preferred), op);
+  }
+
+  // Runs op on a link whose permit the caller already holds, and gives the permit back.
+  private static <R> R run(Link link, Function<IServerConnection, R> op) {
+    try {
+      return link.succeeded(op.apply(link.connection));
+    } catch(RuntimeException e) {
+      throw link.failed(e);
+    } finally {
+      link.release();
+    }
+  }
+
+  private static boolean probe(Predicate<IServerConnection> probe, IServerConnection connection) {
+    try {
+      return probe.test(connection);
+    } catch(RuntimeException e) {
+      return false;
+    }
+  }
+
+  // The session's home link, or the next healthy one after it when that link is out of rotation.
+  private Link forSession(long session) {
+    long h = session * 0x9E3779B97F4A7C15L;
+    int home = (int) ((h ^ (h >>> 32)) & 0x7fffffff) % links.length;
+    for(int i = 0; i < links.length; i++) {
+      Link link = links[(home + i) % links.length];
+      if(link.healthy)
+        return link;
+    }
+    return links[home];
+  }
+
+  private Link leastLoaded() {
+    Link best = null;
+    int bestFree = -1;
+    for(Link link : links) {
+      int free = link.permits.availablePermits();
+      if(link.healthy && free > bestFree) {
+        best = link;
+        bestFree = free;
+      }
+    }
+    return best != null ? best : links[0];
+  }
+
+  // Falls back to the least loaded link when the preferred one is saturated, and waits only when both are.
+  private Link acquire(Link preferred) {
+    if(preferred.permits.tryAcquire())
+      return preferred;
+    Link other = leastLoaded();
+    if(other != preferred && other.permits.tryAcquire())
+      return other;
+    preferred.permits.acquireUninterruptibly();
+    return preferred;
+  }
+
+  private static final class Link {
+    volatile IServerConnection connection;
+    volatile boolean healthy = true;
+    final Semaphore permits;
+    final AtomicInteger consecutiveFailures = new AtomicInteger();
+    final LongAdder calls = new LongAdder();
+
+    Link(IServerConnection connection, int maxInFlight) {
+      this.connection = connection;
+      this.permits = new Semaphore(maxInFlight);
+    }
+
+    <T> T succeeded(T result) {
+      if(consecutiveFailures.get() != 0)
+        consecutiveFailures.set(0);
+      return result;
+    }
+    RuntimeException failed(RuntimeException e) {
+      if(consecutiveFailures.incrementAndGet() >= FAILURES_BEFORE_UNHEALTHY)
+        healthy = false;
+      return e;
+    }
+    void release() {
+      calls.increment();
+      permits.release();
+    }
+    void markHealthy() {
+      consecutiveFailures.set(0);
+      healthy = true;
+    }
+    void markUnhealthy() {
+      healthy = false;
+    }
+    void replace(IServerConnection fresh) {
+      connection = fresh;
+      markHealthy();
+    }
+  }
+}
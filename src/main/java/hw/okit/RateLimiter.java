@@ -0,0 +1,53 @@
+package hw.okit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket in its GCRA form: the whole state is one theoretical arrival time, refilled
+ * implicitly by the passing of time and advanced with a CAS, so there is no refill thread and
+ * no lock. Allows rate permits per second on average with bursts of up to burst permits.
+ */
+public class RateLimiter {
+  private final long intervalNanos;
+  private final long burstNanos;
+  private final LongSupplier clock;
+  private final AtomicLong arrival;
+
+  public RateLimiter(double permitsPerSecond, int burst) {
+    this(permitsPerSecond, burst, System::nanoTime);
+  }
+
+  public RateLimiter(double permitsPerSecond, int burst, LongSupplier nanoClock) {
+    if(!(permitsPerSecond > 0))
+      throw new IllegalArgumentException("permitsPerSecond must be positive");
+    if(burst < 1)
+      throw new IllegalArgumentException("burst must be positive");
+    this.intervalNanos = Math.max(1, (long) (1e9 / permitsPerSecond));
+    this.burstNanos = intervalNanos * burst;
+    this.clock = nanoClock;
+    this.arrival = new AtomicLong(nanoClock.getAsLong());
+  }
+
+  public boolean tryAcquire() {
+    long now = clock.getAsLong();
+    while(true) {
+      long tat = arrival.get();
+      long next = Math.max(tat, now) + intervalNanos;
+      if(next - now > burstNanos)
+        return false;
+      if(arrival.compareAndSet(tat, next))
+        return true;
+    }
+  }
+
+  /** Gives back a permit taken by tryAcquire whose work was not done after all. */
+  public void refund() {
+    arrival.addAndGet(-intervalNanos);
+  }
+
+  /** True when the bucket is full again, i.e. the limiter is indistinguishable from a fresh one. */
+  public boolean isIdle() {
+    return arrival.get() - clock.getAsLong() <= 0;
+  }
+}
@@ -0,0 +1,359 @@
+package hw.okit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Guards a slow or failing IServerConnection with per-operation deadlines and a circuit breaker.
+ * The breaker counts outcomes in tumbling windows of windowSize calls and opens when the share
+ * of failures (exceptions, timeouts, UNDEFINED_ERROR or unknown codes) or of calls slower than
+ * slowCallNanos reaches its threshold. While open every call returns UNAVAILABLE at once; after
+ * openNanos a few probe calls are let through and the breaker closes if all of them succeed.
+ * Deadlines adapt to the observed latency of each operation, bounded by the configured range.
+ */
+public class ResilientServerConnection implements IServerConnection, AutoCloseable {
+  public static final int CLOSED = 0, OPEN = 1, HALF_OPEN = 2;
+  private static final int OPERATIONS = OperationMetrics.OPERATIONS;
+  private static final int BATCH = -1;
+
+  private final IServerConnection delegate;
+  private final LongSupplier clock;
+  private final long[] minDeadlineNanos = new long[OPERATIONS];
+  private final long[] maxDeadlineNanos = new long[OPERATIONS];
+  private final LatencyEstimate[] estimates = new LatencyEstimate[OPERATIONS];
+  private volatile ThreadPoolExecutor callers;
+  private int deadlineThreads = 64;
+
+  private int windowSize = 20;
+  private double failureRateThreshold = 0.5;
+  private long slowCallNanos = Long.MAX_VALUE;
+  private double slowCallRateThreshold = 1.0;
+  private long openNanos = TimeUnit.SECONDS.toNanos(5);
+  private int halfOpenProbes = 3;
+
+  private volatile int state = CLOSED;
+  private volatile long openedAt;
+  private int windowCalls, windowFailures, windowSlow;
+  private int probesIssued, probeSuccesses;
+
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder timeouts = new LongAdder();
+  private final LongAdder trips = new LongAdder();
+
+  public ResilientServerConnection(IServerConnection delegate) {
+    this(delegate, System::nanoTime);
+  }
+
+  /** The clock drives latency measurement and the open period, so tests can move time by hand. */
+  public ResilientServerConnection(IServerConnection delegate, LongSupplier nanoClock) {
+    this.delegate = delegate;
+    this.clock = nanoClock;
+    for(int i = 0; i < OPERATIONS; i++)
+      estimates[i] = new LatencyEstimate();
+  }
+
+  /**
+   * Gives up on calls of the operation (an OperationMetrics constant) after an adaptive deadline
+   * between min and max. Calls with a deadline run on a bounded pool of daemon threads so the
+   * caller can stop waiting; operations without one run on the caller's thread. A call cut off at
+   * its deadline keeps its thread until the delegate returns, so once every thread is taken new
+   * calls are rejected with UNAVAILABLE, as when the breaker is open.
+   */
+  public synchronized ResilientServerConnection withDeadline(int operation, long min, long max, TimeUnit unit) {
+    if(min > max)
+      throw new IllegalArgumentException("min must not exceed max");
+    minDeadlineNanos[operation] = unit.toNanos(min);
+    maxDeadlineNanos[operation] = unit.toNanos(max);
+    if(callers == null)
+      callers = new ThreadPoolExecutor(0, deadlineThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+        Thread t = new Thread(r, "resilient-server-connection");
+        t.setDaemon(true);
+        return t;
+      });
+    return this;
+  }
+
+  /** How many calls with a deadline may be running on the delegate at once; 64 by default. */
+  public synchronized ResilientServerConnection withDeadlineThreads(int threads) {
+    if(threads < 1)
+      throw new IllegalArgumentException("threads must be positive");
+    deadlineThreads = threads;
+    if(callers != null)
+      callers.setMaximumPoolSize(threads);
+    return this;
+  }
+
+  /** Opens when at least failureRate of the last windowSize calls failed. */
+  public synchronized ResilientServerConnection withFailureRate(double failureRate, int windowSize) {
+    if(windowSize < 1)
+      throw new IllegalArgumentException("windowSize must be positive");
+    this.failureRateThreshold = failureRate;
+    this.windowSize = windowSize;
+    return this;
+  }
+
+  /** Opens when at least slowRate of the window took slowCall or longer, i.e. the (1 - slowRate) percentile crossed it. */
+  public synchronized ResilientServerConnection withSlowCallRate(long slowCall, TimeUnit unit, double slowRate) {
+    this.slowCallNanos = unit.toNanos(slowCall);
+    this.slowCallRateThreshold = slowRate;
+    return this;
+  }
+
+  /** How long the breaker stays open before probing, and how many probes must succeed to close it. */
+  public synchronized ResilientServerConnection withOpenState(long duration, TimeUnit unit, int probes) {
+    if(probes < 1)
+      throw new IllegalArgumentException("probes must be positive");
+    this.openNanos = unit.toNanos(duration);
+    this.halfOpenProbes = probes;
+    return this;
+  }
+
+  public ServerResponse login(String userName, String mdPass) {
+    return call(OperationMetrics.LOGIN, () -> delegate.login(userName, mdPass));
+  }
+  public ServerResponse logout(long session) {
+    return call(OperationMetrics.LOGOUT, () -> delegate.logout(session));
+  }
+  public ServerResponse withdraw(long session, double balance) {
+    return call(OperationMetrics.WITHDRAW, () -> delegate.withdraw(session, balance));
+  }
+  public ServerResponse deposit(long session, double balance) {
+    return call(OperationMetrics.DEPOSIT, () -> delegate.deposit(session, balance));
+  }
+  public ServerResponse getBalance(long session) {
+    return call(OperationMetrics.GET_BALANCE, () -> delegate.getBalance(session));
+  }
+  public ServerResponse transfer(long fromSession, long toSession, double amount) {
+    return call(OperationMetrics.TRANSFER, () -> delegate.transfer(fromSession, toSession, amount));
+  }
+
+  public ServerResponse withdrawMinor(long session, long amount, MoneyScale scale) {
+    return call(OperationMetrics.WITHDRAW, () -> delegate.withdrawMinor(session, amount, scale));
+  }
+  public ServerResponse depositMinor(long session, long amount, MoneyScale scale) {
+    return call(OperationMetrics.DEPOSIT, () -> delegate.depositMinor(session, amount, scale));
+  }
+  public ServerResponse getBalanceMinor(long session, MoneyScale scale) {
+    return call(OperationMetrics.GET_BALANCE, () -> delegate.getBalanceMinor(session, scale));
+  }
+
+  public ServerResponse withdrawIdempotent(long session, double balance, long key) {
+    return call(OperationMetrics.WITHDRAW, () -> delegate.withdrawIdempotent(session, balance, key));
+  }
+  public ServerResponse depositIdempotent(long session, double balance, long key) {
+    return call(OperationMetrics.DEPOSIT, () -> delegate.depositIdempotent(session, balance, key));
+  }
+
+  // A batch counts as one call; it fails as a whole when the breaker is open or the delegate throws.
+  public List<ServerResponse> executeBatch(List<Operation> operations) {
+    if(!permit()) {
+      rejected.increment();
+      List<ServerResponse> responses = new ArrayList<>(operations.size());
+      for(int i = 0; i < operations.size(); i++)
+        responses.add(new ServerResponse(ServerResponse.UNAVAILABLE, null));
+      return responses;
+    }
+    long start = clock.getAsLong();
+    try {
+      List<ServerResponse> responses = delegate.executeBatch(operations);
+      outcome(BATCH, false, clock.getAsLong() - start);
+      return responses;
+    } catch(RuntimeException e) {
+      outcome(BATCH, true, clock.getAsLong() - start);
+      throw e;
+    }
+  }
+
+  public int getState() {
+    if(state == OPEN && clock.getAsLong() - openedAt >= openNanos)
+      return HALF_OPEN;
+    return state;
+  }
+  public long getRejected() {
+    return rejected.sum();
+  }
+  public long getTimeouts() {
+    return timeouts.sum();
+  }
+  /** How many times the breaker has opened. */
+  public long getTrips() {
+    return trips.sum();
+  }
+  /** The deadline the next call of the operation gets, or 0 when it has none. */
+  public long getDeadlineNanos(int operation) {
+    long max = maxDeadlineNanos[operation];
+    if(max == 0)
+      return 0;
+    long adaptive = estimates[operation].timeoutNanos();
+    if(adaptive == 0)
+      return max;
+    return Math.min(max, Math.max(minDeadlineNanos[operation], adaptive));
+  }
+
+  public synchronized void close() {
+    if(callers != null)
+      callers.shutdownNow();
+  }
+
+  private ServerResponse call(int operation, Supplier<ServerResponse> call) {
+    if(!permit()) {
+      rejected.increment();
+      return new ServerResponse(ServerResponse.UNAVAILABLE, null);
+    }
+    long deadline = getDeadlineNanos(operation);
+    long start = clock.getAsLong();
+    ServerResponse response;
+    try {
+      response = deadline == 0 ? call.get() : callWithin(call, deadline);
+    } catch(RejectedExecutionException e) {
+      // No thread free to wait on: refused like an open breaker, and not an outcome of the delegate.
+      unpermit();
+      rejected.increment();
+      return new ServerResponse(ServerResponse.UNAVAILABLE, e);
+    } catch(TimeoutException e) {
+      timeouts.increment();
+      estimates[operation].expired(deadline, maxDeadlineNanos[operation]);
+      outcome(operation, true, clock.getAsLong() - start);
+      return new ServerResponse(ServerResponse.UNAVAILABLE, e);
+    } catch(RuntimeException e) {
+      outcome(operation, true, clock.getAsLong() - start);
+      throw e;
+    }
+    outcome(operation, isFailure(response), clock.getAsLong() - start);
+    return response;
+  }
+
+  private ServerResponse callWithin(Supplier<ServerResponse> call, long deadlineNanos) throws TimeoutException {
+    CompletableFuture<ServerResponse> future = CompletableFuture.supplyAsync(call, callers);
+    try {
+      return future.get(deadlineNanos, TimeUnit.NANOSECONDS);
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      future.cancel(true);
+      throw new TimeoutException("interrupted");
+    } catch(TimeoutException e) {
+      future.cancel(true);
+      throw e;
+    } catch(ExecutionException e) {
+      if(e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private static boolean isFailure(ServerResponse response) {
+    return response == null || response.code == ServerResponse.UNDEFINED_ERROR
+      || response.code < ServerResponse.SUCCESS || response.code > ServerResponse.UNAVAILABLE;
+  }
+
+  private boolean permit() {
+    int s = state;
+    if(s == CLOSED)
+      return true;
+    if(s == OPEN && clock.getAsLong() - openedAt < openNanos)
+      return false;
+    synchronized(this) {
+      if(state == OPEN && clock.getAsLong() - openedAt >= openNanos) {
+        state = HALF_OPEN;
+        probesIssued = 0;
+        probeSuccesses = 0;
+      }
+      if(state == CLOSED)
+        return true;
+      if(state == HALF_OPEN && probesIssued < halfOpenProbes) {
+        probesIssued++;
+        return true;
+      }
+      return false;
+    }
+  }
+
+  // Hands back a half-open probe slot taken by a call that never reached the delegate.
+  private synchronized void unpermit() {
+    if(state == HALF_OPEN && probesIssued > 0)
+      probesIssued--;
+  }
+
+  private void outcome(int operation, boolean failure, long elapsedNanos) {
+    if(operation != BATCH && !failure)
+      estimates[operation].update(elapsedNanos);
+    boolean slow = elapsedNanos >= slowCallNanos;
+    synchronized(this) {
+      switch(state){
+        case HALF_OPEN:
+          if(failure || slow)
+            open();
+          else if(++probeSuccesses >= halfOpenProbes) {
+            state = CLOSED;
+            resetWindow();
+          }
+          return;
+        case CLOSED:
+          windowCalls++;
+          if(failure)
+            windowFailures++;
+          if(slow)
+            windowSlow++;
+          if(windowCalls >= windowSize) {
+            if(windowFailures >= failureRateThreshold * windowCalls || windowSlow >= slowCallRateThreshold * windowCalls)
+              open();
+            else
+              resetWindow();
+          }
+          return;
+      }
+      // Answers arriving while open belong to calls admitted earlier and do not change the state.
+    }
+  }
+
+  private void open() {
+    state = OPEN;
+    openedAt = clock.getAsLong();
+    trips.increment();
+    resetWindow();
+  }
+
+  private void resetWindow() {
+    windowCalls = 0;
+    windowFailures = 0;
+    windowSlow = 0;
+  }
+
+  // Smoothed latency and its mean deviation, as in TCP's retransmission timer (RFC 6298). A call
+  // cut off at its deadline gives no sample, so, as in 5.5 there, each expiry doubles the
+  // deadline up to the maximum until a call answers in time again.
+  private static final class LatencyEstimate {
+    private long smoothed;
+    private long deviation;
+    private long backedOff;
+
+    synchronized void update(long sample) {
+      backedOff = 0;
+      if(smoothed == 0) {
+        smoothed = Math.max(1, sample);
+        deviation = sample / 2;
+        return;
+      }
+      deviation += (Math.abs(sample - smoothed) - deviation) / 4;
+      smoothed += (sample - smoothed) / 8;
+    }
+
+    synchronized void expired(long deadline, long max) {
+      backedOff = Math.max(backedOff, deadline > max / 2 ? max : 2 * deadline);
+    }
+
+    synchronized long timeoutNanos() {
+      return smoothed == 0 ? 0 : Math.max(backedOff, smoothed + 4 * deviation);
+    }
+  }
+}
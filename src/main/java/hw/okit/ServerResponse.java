@@ -7,6 +7,9 @@ public class ServerResponse {
   public static final int NOT_LOGGED = 3;
   public static final int NO_USER_INCORRECT_PASSWORD = 4;
   public static final int NO_MONEY = 5;
+  public static final int INCORRECT_SESSION = 6;
+  // Produced on the client side when the call was not made or did not finish in time.
+  public static final int UNAVAILABLE = 7;
   public int code;
   public Object data;
   public ServerResponse(int code, Object obj) {
@@ -0,0 +1,266 @@
+package hw.okit;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Logs out sessions of an AccountManager that have been idle for longer than the idle timeout.
+ * Accounts only record the current tick when they are used; each session sits in a
+ * hierarchical timing wheel (4 levels of 64 slots) under the tick it would expire at, and is
+ * looked at again only when that slot comes up. A session used in the meantime is moved to
+ * its new expiry tick, an idle one is removed from the registry and logged out together with
+ * the other sessions expiring in the same round, in batches over executeBatch.
+ */
+public class SessionLifecycleManager implements AutoCloseable {
+  private static final int LEVELS = 4;
+  private static final int SLOT_BITS = 6;
+  private static final int SLOTS = 1 << SLOT_BITS;
+  private static final int MASK = SLOTS - 1;
+
+  private final ConcurrentHashMap<String, Account> registry;
+  private final long tickNanos;
+  private final long idleTicks;
+  private final int batchSize;
+  private final LongSupplier clock;
+  private final long origin;
+  private final Entry[][] wheel = new Entry[LEVELS][SLOTS];
+  private final ConcurrentLinkedQueue<Entry> incoming = new ConcurrentLinkedQueue<>();
+  private final ReentrantLock advanceLock = new ReentrantLock();
+  private volatile long currentTick;
+  private int tracked;
+  private final LongAdder evicted = new LongAdder();
+  private ScheduledExecutorService ticker;
+
+  SessionLifecycleManager(ConcurrentHashMap<String, Account> registry, long idleTimeout, TimeUnit unit,
+      long tick, TimeUnit tickUnit, int batchSize, LongSupplier nanoClock) {
+    if(batchSize < 1)
+      throw new IllegalArgumentException("batchSize must be positive");
+    this.registry = registry;
+    this.tickNanos = Math.max(1, tickUnit.toNanos(tick));
+    this.idleTicks = Math.max(1, (unit.toNanos(idleTimeout) + tickNanos - 1) / tickNanos);
+    if(idleTicks >= 1L << (SLOT_BITS * LEVELS))
+      throw new IllegalArgumentException("idle timeout too long for the tick");
+    this.batchSize = batchSize;
+    this.clock = nanoClock;
+    this.origin = nanoClock.getAsLong();
+  }
+
+  /** Runs expireIdle once per tick on a daemon thread until close. */
+  synchronized void start() {
+    if(ticker != null)
+      return;
+    ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "session-lifecycle");
+      t.setDaemon(true);
+      return t;
+    });
+    ticker.scheduleWithFixedDelay(this::expireIdle, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+  }
+
+  void register(String login, Account account) {
+    account.lastAccessTick = currentTick;
+    incoming.add(new Entry(login, account));
+  }
+
+  // Called on every account operation; writes only when the tick has moved on.
+  void touch(Account account) {
+    long now = currentTick;
+    if(account.lastAccessTick != now)
+      account.lastAccessTick = now;
+  }
+
+  /** Advances the wheel to the current time and logs out the sessions that went idle; returns how many. */
+  public int expireIdle() {
+    List<Entry> due = new ArrayList<>();
+    advanceLock.lock();
+    try {
+      Entry e;
+      while((e = incoming.poll()) != null) {
+        tracked++;
+        schedule(e, e.account.lastAccessTick + idleTicks, due);
+      }
+      long target = (clock.getAsLong() - origin) / tickNanos;
+      while(currentTick < target) {
+        long tick = currentTick + 1;
+        currentTick = tick;
+        for(int level = LEVELS - 1; level > 0; level--) {
+          if((tick & ((1L << (SLOT_BITS * level)) - 1)) != 0)
+            continue;
+          int slot = (int) (tick >>> (SLOT_BITS * level)) & MASK;
+          Entry cascade = wheel[level][slot];
+          wheel[level][slot] = null;
+          while(cascade != null) {
+            Entry next = cascade.next;
+            schedule(cascade, cascade.deadline, due);
+            cascade = next;
+          }
+        }
+        int slot = (int) tick & MASK;
+        Entry expired = wheel[0][slot];
+        wheel[0][slot] = null;
+        while(expired != null) {
+          Entry next = expired.next;
+          expire(expired, due);
+          expired = next;
+        }
+      }
+    } finally {
+      advanceLock.unlock();
+    }
+    List<Account> idle = new ArrayList<>(due.size());
+    for(Entry e : due)
+      if(registry.remove(e.login, e.account))
+        idle.add(e.account);
+    for(int from = 0; from < idle.size(); from += batchSize)
+      logout(idle.subList(from, Math.min(idle.size(), from + batchSize)));
+    evicted.add(idle.size());
+    return idle.size();
+  }
+
+  /** Sessions waiting in the wheel, including ones already logged out explicitly that have not come up yet. */
+  public int getTracked() {
+    advanceLock.lock();
+    try {
+      return tracked + incoming.size();
+    } finally {
+      advanceLock.unlock();
+    }
+  }
+  public long getEvicted() {
+    return evicted.sum();
+  }
+
+  public synchronized void close() {
+    if(ticker != null)
+      ticker.shutdown();
+    ticker = null;
+  }
+
+  private void expire(Entry e, List<Entry> due) {
+    if(registry.get(e.login) != e.account) {
+      // Logged out explicitly or replaced by a newer login: just forget it.
+      tracked--;
+      return;
+    }
+    long deadline = e.account.lastAccessTick + idleTicks;
+    if(deadline > currentTick) {
+      schedule(e, deadline, due);
+      return;
+    }
+    tracked--;
+    due.add(e);
+  }
+
+  // Files the entry at the lowest level whose higher digits agree with the current tick,
+  // so it always lands in a slot the wheel has not passed yet.
+  private void schedule(Entry e, long deadline, List<Entry> due) {
+    long now = currentTick;
+    if(deadline <= now) {
+      expire(e, due);
+      return;
+    }
+    e.deadline = deadline;
+    for(int level = 0; level < LEVELS; level++) {
+      int shift = SLOT_BITS * (level + 1);
+      if(level == LEVELS - 1 || (deadline >>> shift) == (now >>> shift)) {
+        int slot = (int) (deadline >>> (SLOT_BITS * level)) & MASK;
+        e.next = wheel[level][slot];
+        wheel[level][slot] = e;
+        return;
+      }
+    }
+  }
+
+  /** Removes every logged-in session from the registry and logs them out in parallel batches. */
+  static int logoutAll(ConcurrentHashMap<String, Account> registry, int batchSize) {
+    List<Account> sessions = new ArrayList<>();
+    for(Map.Entry<String, Account> e : registry.entrySet()) {
+      Account a = e.getValue();
+      if(a.activeSession != null && registry.remove(e.getKey(), a))
+        sessions.add(a);
+    }
+    int batches = (sessions.size() + batchSize - 1) / batchSize;
+    if(batches <= 1) {
+      logout(sessions);
+      return sessions.size();
+    }
+    int threads = Math.min(batches, Math.max(4, Runtime.getRuntime().availableProcessors()));
+    ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+      Thread t = new Thread(r, "session-logout");
+      t.setDaemon(true);
+      return t;
+    });
+    try {
+      CompletableFuture<?>[] running = new CompletableFuture<?>[batches];
+      for(int i = 0; i < batches; i++) {
+        List<Account> batch = sessions.subList(i * batchSize, Math.min(sessions.size(), (i + 1) * batchSize));
+        running[i] = CompletableFuture.runAsync(() -> logout(batch), pool);
+      }
+      CompletableFuture.allOf(running).join();
+    } finally {
+      pool.shutdown();
+    }
+    return sessions.size();
+  }
+
+  // One executeBatch per distinct connection among the accounts. A connection that throws fails
+  // only its own group, whose logouts answer UNDEFINED_ERROR.
+  static void logout(List<Account> accounts) {
+    Map<IServerConnection, List<Account>> byConnection = new IdentityHashMap<>();
+    for(Account a : accounts) {
+      if(a.balanceCache != null)
+        a.balanceCache.invalidate();
+      if(a.activeSession != null && a.serverConnection != null)
+        byConnection.computeIfAbsent(a.serverConnection, c -> new ArrayList<>()).add(a);
+    }
+    for(Map.Entry<IServerConnection, List<Account>> e : byConnection.entrySet()) {
+      List<Account> group = e.getValue();
+      List<Operation> operations = new ArrayList<>(group.size());
+      for(Account a : group)
+        operations.add(Operation.logout(a.activeSession));
+      List<ServerResponse> responses;
+      try {
+        responses = e.getKey().executeBatch(operations);
+      } catch(RuntimeException ex) {
+        responses = null;
+      }
+      for(int i = 0; i < group.size(); i++) {
+        Account a = group.get(i);
+        ServerResponse response = responses != null && i < responses.size() ? responses.get(i) : null;
+        LocalOperationResponse result = response == null
+          ? LocalOperationResponse.UNDEFINED_ERROR_RESPONSE : Account.logoutResult(response);
+        if(a.metrics != null)
+          a.metrics.count(OperationMetrics.LOGOUT, result.code);
+        if(a.events != null)
+          a.events.publish(OperationMetrics.LOGOUT, a.activeSession, result.code, Double.NaN);
+        a.activeSession = null;
+        if(a.admission != null)
+          a.admission.release();
+      }
+    }
+  }
+
+  private static final class Entry {
+    final String login;
+    final Account account;
+    long deadline;
+    Entry next;
+
+    Entry(String login, Account account) {
+      this.login = login;
+      this.account = account;
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package hw.okit;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Spreads logins over several AccountManager shards, each with its own session registry,
+ * failure journal and server connection, so logins and logouts on different shards share no
+ * state at all. A login is placed on a consistent-hash ring of virtual nodes; the same login
+ * always reaches the same shard, and shards get about equal shares of the logins.
+ * Failures and metrics are reported across all shards together.
+ */
+public class ShardedAccountManager {
+        private static final int VIRTUAL_NODES = 128;
+
+        private final AccountManager[] shards;
+        private final long[] ring;
+        private final int[] owners;
+
+        /** One shard per connection; the same connection may back several shards. */
+        public ShardedAccountManager(IServerConnection[] connections, IPasswordEncoder encoder) throws OperationFailedException {
+                if (connections == null || connections.length == 0)
+                        throw new OperationFailedException(LocalOperationResponse.NULL_ARGUMENT_EXCEPTION);
+                if (connections.length > 0xFFFF)
+                        throw new IllegalArgumentException("at most 65535 shards");
+                shards = new AccountManager[connections.length];
+                for (int i = 0; i < shards.length; i++) {
+                        shards[i] = new AccountManager();
+                        shards[i].AccountManager(connections[i], encoder);
+                }
+                ring = new long[shards.length * VIRTUAL_NODES];
+                owners = new int[ring.length];
+                buildRing();
+        }
+
+        /** shardCount shards sharing one connection. */
+        public ShardedAccountManager(int shardCount, IServerConnection connection, IPasswordEncoder encoder) throws OperationFailedException {
+                this(repeat(connection, shardCount), encoder);
+        }
+
+        public Account login(String login, String password) throws OperationFailedException {
+                if (login == null) {
+                        // Nothing to hash; let a shard reject it the usual way.
+                        return shards[0].login(null, password);
+                }
+                return shardFor(login).login(login, password);
+        }
+
+        public CompletableFuture<Account> loginAsync(String login, String password) {
+                if (login == null)
+                        return shards[0].loginAsync(null, password);
+                return shardFor(login).loginAsync(login, password);
+        }
+
+        public void logout(Account account) {
+                if (account == null || account.getLogin() == null) {
+                        shards[0].logout(account);
+                        return;
+                }
+                shardFor(account.getLogin()).logout(account);
+        }
+
+        /**
+         * Gives each shard a view of the directory holding only the logins its slice of the ring owns.
+         * The views share the one mapping, so every directory login is registered on exactly one shard.
+         */
+        public void setAccountDirectory(AccountDirectory directory) {
+                AccountDirectory[] parts = directory == null ? new AccountDirectory[shards.length] : directory.split(shards.length, this::shardOf);
+                for (int i = 0; i < shards.length; i++)
+                        shards[i].setAccountDirectory(parts[i]);
+        }
+
+        /** Logs out every open session of every shard; returns how many were open. */
+        public int logoutAll() {
+                int n = 0;
+                for (AccountManager shard : shards)
+                        n += shard.logoutAll();
+                return n;
+        }
+
+        public int getShardCount() {
+                return shards.length;
+        }
+
+        /** Index of the shard the login belongs to. */
+        public int shardOf(String login) {
+                long h = mix(login.hashCode());
+                int i = Arrays.binarySearch(ring, h);
+                if (i < 0)
+                        i = -i - 1;
+                return owners[i == ring.length ? 0 : i];
+        }
+
+        /** The shard itself, for per-shard settings such as batching or a balance cache. */
+        public AccountManager getShard(int index) {
+                return shards[index];
+        }
+
+        /** The most recent failures of all shards, oldest first. */
+        public Collection<OperationFailedException> getExceptions() {
+                return getFailureSnapshot().toExceptions();
+        }
+
+        public FailureJournal.Snapshot getFailureSnapshot() {
+                FailureJournal.Snapshot all = shards[0].getFailureSnapshot();
+                for (int i = 1; i < shards.length; i++)
+                        all = all.merge(shards[i].getFailureSnapshot());
+                return all;
+        }
+
+        public long getFailureCount(int code) {
+                long n = 0;
+                for (AccountManager shard : shards)
+                        n += shard.getFailureCount(code);
+                return n;
+        }
+
+        /** Starts metrics on every shard for sessions opened from now on. */
+        public void enableMetrics() {
+                for (AccountManager shard : shards)
+                        shard.enableMetrics();
+        }
+
+        /** Metrics of all shards added together, or null when they are not enabled. */
+        public OperationMetrics.Snapshot getMetricsSnapshot() {
+                OperationMetrics.Snapshot all = null;
+                for (AccountManager shard : shards) {
+                        OperationMetrics m = shard.getMetrics();
+                        if (m != null)
+                                all = all == null ? m.snapshot() : all.merge(m.snapshot());
+                }
+                return all;
+        }
+
+        private AccountManager shardFor(String login) {
+                return shards[shardOf(login)];
+        }
+
+        private void buildRing() {
+                long[] points = new long[ring.length];
+                for (int s = 0; s < shards.length; s++)
+                        for (int v = 0; v < VIRTUAL_NODES; v++)
+                                points[s * VIRTUAL_NODES + v] = mix(((long) s << 32) | v) & ~0xFFFFL | s;
+                // The shard index rides in the low bits, so sorting the points also sorts their owners.
+                Arrays.sort(points);
+                for (int i = 0; i < points.length; i++) {
+                        ring[i] = points[i];
+                        owners[i] = (int) (points[i] & 0xFFFF);
+                }
+        }
+
+        private static IServerConnection[] repeat(IServerConnection connection, int count) {
+                if (count < 1)
+                        throw new IllegalArgumentException("shard count must be positive");
+                IServerConnection[] connections = new IServerConnection[count];
+                Arrays.fill(connections, connection);
+                return connections;
+        }
+
+        // MurmurHash3's 64-bit finalizer.
+        private static long mix(long h) {
+                h ^= h >>> 33;
+                h *= 0xff51afd7ed558ccdL;
+                h ^= h >>> 33;
+                h *= 0xc4ceb9fe1a85ec53L;
+                h ^= h >>> 33;
+                return h;
+        }
+}
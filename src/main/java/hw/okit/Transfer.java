@@ -0,0 +1,22 @@
+package hw.okit;
+
+/**
+ * Money moving from one open session to another, for AccountManager.transferAll. It carries its
+ * journal bookkeeping while in flight, so one instance must not be in two calls at once.
+ */
+public class Transfer {
+  public final Account from;
+  public final Account to;
+  public final double amount;
+  // Sessions, journal ids and start time, filled in while the transfer is in flight.
+  long fromSession;
+  long toSession;
+  long paid = -1;
+  long received = -1;
+  long start;
+  public Transfer(Account from, Account to, double amount) {
+    this.from = from;
+    this.to = to;
+    this.amount = amount;
+  }
+}
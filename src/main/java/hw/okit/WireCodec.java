@@ -0,0 +1,174 @@
+package hw.okit;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fixed-layout binary encoding of the server operations and their answers, for transports
+ * behind IServerConnection. Every field has a fixed width and position, so nothing is looked
+ * up by name or reflection, and the money and balance messages are written and read straight
+ * in the caller's ByteBuffer without allocating.
+ *
+ * <pre>
+ * request   LOGIN        op:1 userLen:2 user:utf8 passLen:2 pass:utf8
+ *           LOGOUT       op:1 session:8
+ *           GET_BALANCE  op:1 session:8
+ *           WITHDRAW     op:1 session:8 amount:8 key:8      (key 0 = not idempotent)
+ *           DEPOSIT      op:1 session:8 amount:8 key:8
+ *           TRANSFER     op:1 from:8 to:8 amount:8
+ * response  code:1 kind:1 [value:8]                          (kind NONE, LONG or DOUBLE)
+ * </pre>
+ *
+ * Answer data other than a Long or a Double, such as an exception, does not travel; the
+ * receiver gets the code with no data.
+ */
+public final class WireCodec {
+  public static final byte LOGIN = 1, LOGOUT = 2, WITHDRAW = 3, DEPOSIT = 4, GET_BALANCE = 5, TRANSFER = 6;
+  static final byte NONE = 0, LONG = 1, DOUBLE = 2;
+  public static final int MAX_NAME_BYTES = 0xFFFF;
+  /** Largest request other than a login, and largest response. */
+  public static final int MONEY_REQUEST_BYTES = 25, MAX_RESPONSE_BYTES = 10;
+
+  private WireCodec() {
+  }
+
+  public static void encodeLogin(ByteBuffer out, String userName, String mdPass) {
+    out.put(LOGIN);
+    putName(out, userName);
+    putName(out, mdPass);
+  }
+
+  /** LOGOUT or GET_BALANCE. */
+  public static void encodeSession(ByteBuffer out, byte op, long session) {
+    out.put(op).putLong(session);
+  }
+
+  /** WITHDRAW or DEPOSIT. */
+  public static void encodeMoney(ByteBuffer out, byte op, long session, double amount, long key) {
+    out.put(op).putLong(session).putDouble(amount).putLong(key);
+  }
+
+  public static void encodeTransfer(ByteBuffer out, long fromSession, long toSession, double amount) {
+    out.put(TRANSFER).putLong(fromSession).putLong(toSession).putDouble(amount);
+  }
+
+  public static void encodeResponse(ByteBuffer out, ServerResponse response) {
+    out.put(code(response.code));
+    Object data = response.data;
+    if(data instanceof Double)
+      out.put(DOUBLE).putDouble((Double) data);
+    else if(data instanceof Long)
+      out.put(LONG).putLong((Long) data);
+    else
+      out.put(NONE);
+  }
+
+  public static void encodeResponse(ByteBuffer out, BalanceResult result) {
+    out.put(code(result.code));
+    if(result.hasBalance())
+      out.put(DOUBLE).putDouble(result.balance);
+    else
+      out.put(NONE);
+  }
+
+  public static ServerResponse decodeResponse(ByteBuffer in) {
+    int code = in.get();
+    switch(in.get()){
+      case NONE:
+        return new ServerResponse(code, null);
+      case LONG:
+        return new ServerResponse(code, in.getLong());
+      case DOUBLE:
+        return new ServerResponse(code, in.getDouble());
+    }
+    throw new IllegalArgumentException("unknown response data kind");
+  }
+
+  /** Reads an answer into the holder; a Long value is not a balance and is dropped. */
+  public static int decodeResponse(ByteBuffer in, BalanceResult into) {
+    int code = in.get();
+    switch(in.get()){
+      case NONE:
+        return into.set(code, Double.NaN, null);
+      case LONG:
+        in.getLong();
+        return into.set(code, Double.NaN, null);
+      case DOUBLE:
+        return into.set(code, in.getDouble(), null);
+    }
+    throw new IllegalArgumentException("unknown response data kind");
+  }
+
+  /**
+   * Server side: decodes one request, runs it against target and encodes the answer into out.
+   * Plain money and balance requests use target's BalanceResult methods with the given holder,
+   * so a server with a primitive path answers them without allocating.
+   */
+  public static void serve(ByteBuffer request, IServerConnection target, BalanceResult scratch, ByteBuffer out) {
+    byte op = request.get();
+    switch(op){
+      case LOGIN: {
+        String userName = getName(request);
+        String mdPass = getName(request);
+        encodeResponse(out, target.login(userName, mdPass));
+        return;
+      }
+      case LOGOUT:
+        encodeResponse(out, target.logout(request.getLong()));
+        return;
+      case GET_BALANCE:
+        target.getBalance(request.getLong(), scratch);
+        encodeResponse(out, scratch);
+        return;
+      case WITHDRAW:
+      case DEPOSIT: {
+        long session = request.getLong();
+        double amount = request.getDouble();
+        long key = request.getLong();
+        if(key != 0)
+          encodeResponse(out, op == WITHDRAW
+            ? target.withdrawIdempotent(session, amount, key) : target.depositIdempotent(session, amount, key));
+        else {
+          if(op == WITHDRAW)
+            target.withdraw(session, amount, scratch);
+          else
+            target.deposit(session, amount, scratch);
+          encodeResponse(out, scratch);
+        }
+        return;
+      }
+      case TRANSFER: {
+        long from = request.getLong();
+        long to = request.getLong();
+        encodeResponse(out, target.transfer(from, to, request.getDouble()));
+        return;
+      }
+    }
+    throw new IllegalArgumentException("unknown operation " + op);
+  }
+
+  private static byte code(int code) {
+    if(code < Byte.MIN_VALUE || code > Byte.MAX_VALUE)
+      throw new IllegalArgumentException("response code " + code + " does not fit the wire format");
+    return (byte) code;
+  }
+
+  private static void putName(ByteBuffer out, String s) {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    if(bytes.length > MAX_NAME_BYTES)
+      throw new IllegalArgumentException("name too long");
+    out.putShort((short) bytes.length).put(bytes);
+  }
+
+  private static String getName(ByteBuffer in) {
+    int length = Short.toUnsignedInt(in.getShort());
+    if(in.hasArray()) {
+      String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+      in.position(in.position() + length);
+      return s;
+    }
+    byte[] bytes = new byte[length];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
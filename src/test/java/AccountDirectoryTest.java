@@ -0,0 +1,94 @@
+import hw.okit.Account;
+import hw.okit.AccountDirectory;
+import hw.okit.AccountManager;
+import hw.okit.InMemoryServerConnection;
+import hw.okit.LocalOperationResponse;
+import hw.okit.MoneyScale;
+import hw.okit.OperationMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AccountDirectoryTest {
+
+        @Test
+        public void lookups_ShouldFindEveryLoginAndNothingElse() throws Exception {
+                List<String> logins = new ArrayList<>();
+                for (int i = 0; i < 1_000; i++)
+                        logins.add("user-" + (i * 7919 % 1_000));
+                logins.add("пользователь");
+                Path file = Files.createTempFile("accounts", ".dir");
+                try {
+                        AccountDirectory.write(file, logins);
+                        AccountDirectory directory = AccountDirectory.open(file);
+
+                        assertEquals(1_001, directory.size());
+                        boolean[] seen = new boolean[directory.size()];
+                        for (String login : logins) {
+                                int i = directory.indexOf(login);
+                                assertTrue(i >= 0, login);
+                                seen[i] = true;
+                        }
+                        for (boolean s : seen)
+                                assertTrue(s);
+                        assertFalse(directory.contains("user-1000"));
+                        assertFalse(directory.contains("user-"));
+                        assertFalse(directory.contains("a"));
+                        assertFalse(directory.contains("zzz"));
+                        // Индекс хранит лишь каждую 16-ю строку
+                        assertTrue(directory.getIndexBytes() < 4 * directory.size() / 8);
+                } finally {
+                        Files.deleteIfExists(file);
+                }
+        }
+
+        @Test
+        public void unsortedFile_ShouldBeRejected() throws Exception {
+                Path file = Files.createTempFile("accounts", ".dir");
+                try {
+                        Files.write(file, "b\na\n".getBytes(StandardCharsets.UTF_8));
+                        assertThrows(IllegalArgumentException.class, () -> AccountDirectory.open(file));
+                } finally {
+                        Files.deleteIfExists(file);
+                }
+        }
+
+        @Test
+        public void directoryLogins_ShouldBehaveAsPreregistered() throws Exception {
+                InMemoryServerConnection server = new InMemoryServerConnection(8, MoneyScale.CENTS);
+                server.addAccount("carol", "p", 0);
+                server.addAccount("dave", "p", 0);
+                AccountManager manager = new AccountManager();
+                manager.AccountManager(server, password -> password);
+                manager.setAccountDirectory(AccountDirectory.of("carol", "erin"));
+                OperationMetrics metrics = manager.enableMetrics();
+                // Заготовки из каталога считаются зарегистрированными, но сессиями не являются
+                assertEquals(0, metrics.getActiveSessions());
+
+                Account carol = manager.login("carol", "p");
+                manager.login("dave", "p");
+
+                assertEquals(LocalOperationResponse.SUCCEED, carol.getBalance().code);
+                assertEquals(1, manager.getFailureCount(LocalOperationResponse.ALREADY_INITIATED));
+                assertEquals(2, metrics.getActiveSessions());
+        }
+
+        @Test
+        public void defaultStoredAccounts_ShouldStillCountAsInitiated() throws Exception {
+                InMemoryServerConnection server = new InMemoryServerConnection(8, MoneyScale.CENTS);
+                server.addAccount("user1", "p", 0);
+                AccountManager manager = new AccountManager();
+                manager.AccountManager(server, password -> password);
+
+                manager.login("user1", "p");
+                manager.login("user1", "p");
+
+                assertEquals(2, manager.getFailureCount(LocalOperationResponse.ALREADY_INITIATED));
+        }
+}
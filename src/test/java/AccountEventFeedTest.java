@@ -0,0 +1,228 @@
+import hw.okit.Account;
+import hw.okit.AccountEvent;
+import hw.okit.AccountEventFeed;
+import hw.okit.AccountManager;
+import hw.okit.BalanceResult;
+import hw.okit.InMemoryServerConnection;
+import hw.okit.LocalOperationResponse;
+import hw.okit.MoneyScale;
+import hw.okit.OperationMetrics;
+import hw.okit.ServerResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AccountEventFeedTest {
+
+        // Records every signal; requests only what the test asks for.
+        static class Recorder implements Flow.Subscriber<AccountEvent> {
+                final BlockingQueue<AccountEvent> events = new LinkedBlockingQueue<>();
+                final long initialRequest;
+                Flow.Subscription subscription;
+                volatile Throwable error;
+                volatile boolean completed;
+
+                Recorder(long initialRequest) {
+                        this.initialRequest = initialRequest;
+                }
+
+                public void onSubscribe(Flow.Subscription subscription) {
+                        this.subscription = subscription;
+                        if (initialRequest > 0)
+                                subscription.request(initialRequest);
+                }
+
+                public void onNext(AccountEvent item) {
+                        events.add(item);
+                }
+
+                public void onError(Throwable throwable) {
+                        error = throwable;
+                }
+
+                public void onComplete() {
+                        completed = true;
+                }
+
+                AccountEvent take() throws InterruptedException {
+                        AccountEvent e = events.poll(5, TimeUnit.SECONDS);
+                        assertNotNull(e, "no event within 5 s");
+                        return e;
+                }
+        }
+
+        @Test
+        public void accountOperations_ShouldBePublishedInOrderWithBalances() throws Exception {
+                InMemoryServerConnection server = new InMemoryServerConnection(8, MoneyScale.CENTS);
+                server.addAccount("alice", "p", 10_000);
+                AccountManager manager = new AccountManager();
+                manager.AccountManager(server, password -> password);
+                AccountEventFeed feed = manager.enableEventFeed(64);
+                Recorder recorder = new Recorder(Long.MAX_VALUE);
+                feed.subscribe(recorder);
+
+                Account alice = manager.login("alice", "p");
+                alice.deposit(50.0);
+                alice.withdraw(500.0);
+                alice.getBalance();
+
+                AccountEvent login = recorder.take();
+                assertEquals(OperationMetrics.LOGIN, login.operation);
+                assertEquals("alice", login.login);
+                assertEquals(LocalOperationResponse.SUCCEED, login.code);
+                assertEquals((long) alice.getActiveSession(), login.session);
+                assertFalse(login.hasBalance());
+
+                AccountEvent deposit = recorder.take();
+                assertEquals(OperationMetrics.DEPOSIT, deposit.operation);
+                assertEquals(150.0, deposit.balance);
+                assertEquals(login.sequence + 1, deposit.sequence);
+
+                AccountEvent withdraw = recorder.take();
+                assertEquals(LocalOperationResponse.NO_MONEY, withdraw.code);
+                assertEquals(150.0, withdraw.balance);
+
+                AccountEvent balance = recorder.take();
+                assertEquals(OperationMetrics.GET_BALANCE, balance.operation);
+                assertEquals(150.0, balance.balance);
+                feed.close();
+        }
+
+        @Test
+        public void errorAnswers_ShouldBePublishedWithoutABalance() throws Exception {
+                InMemoryServerConnection server = new InMemoryServerConnection(8, MoneyScale.CENTS) {
+                        @Override
+                        public ServerResponse withdraw(long session, double balance) {
+                                return new ServerResponse(ServerResponse.UNDEFINED_ERROR, balance);
+                        }
+
+                        @Override
+                        public int withdraw(long session, double balance, BalanceResult result) {
+                                return result.fill(withdraw(session, balance));
+                        }
+                };
+                server.addAccount("alice", "p", 10_000);
+                AccountManager manager = new AccountManager();
+                manager.AccountManager(server, password -> password);
+                AccountEventFeed feed = manager.enableEventFeed(64);
+                Recorder recorder = new Recorder(Long.MAX_VALUE);
+                feed.subscribe(recorder);
+
+                Account alice = manager.login("alice", "p");
+                alice.withdraw(30.0);
+                alice.withdraw(30.0, new BalanceResult());
+
+                recorder.take();
+                // Код ошибки: в ответе эхо суммы, а не баланс
+                AccountEvent boxed = recorder.take();
+                assertEquals(LocalOperationResponse.UNDEFINED_ERROR, boxed.code);
+                assertFalse(boxed.hasBalance());
+                AccountEvent primitive = recorder.take();
+                assertEquals(LocalOperationResponse.UNDEFINED_ERROR, primitive.code);
+                assertFalse(primitive.hasBalance());
+                feed.close();
+        }
+
+        @Test
+        public void subscriber_ShouldReceiveNoMoreThanItRequested() throws Exception {
+                AccountEventFeed feed = new AccountEventFeed(16, Runnable::run);
+                Recorder recorder = new Recorder(2);
+                feed.subscribe(recorder);
+
+                for (int i = 0; i < 5; i++)
+                        feed.publish(OperationMetrics.DEPOSIT, "a", 1, LocalOperationResponse.SUCCEED, i);
+
+                assertEquals(2, recorder.events.size());
+                recorder.subscription.request(10);
+                assertEquals(5, recorder.events.size());
+                List<Double> balances = new ArrayList<>();
+                for (AccountEvent e : recorder.events)
+                        balances.add(e.balance);
+                assertEquals(List.of(0.0, 1.0, 2.0, 3.0, 4.0), balances);
+        }
+
+        @Test
+        public void laggingSubscriber_ShouldSkipToTheOldestHeldEvent() {
+                AccountEventFeed feed = new AccountEventFeed(8, Runnable::run);
+                Recorder recorder = new Recorder(0);
+                feed.subscribe(recorder);
+
+                // Продюсер не ждёт подписчика без спроса
+                for (int i = 0; i < 20; i++)
+                        feed.publish(OperationMetrics.WITHDRAW, "a", 1, LocalOperationResponse.SUCCEED, i);
+                recorder.subscription.request(100);
+
+                assertEquals(8, recorder.events.size());
+                assertEquals(12, recorder.events.peek().sequence);
+                assertEquals(12, feed.getSkipped());
+                assertEquals(20, feed.getPublished());
+        }
+
+        @Test
+        public void nonPositiveRequest_ShouldEndTheSubscriptionWithAnError() {
+                AccountEventFeed feed = new AccountEventFeed(8, Runnable::run);
+                Recorder recorder = new Recorder(0);
+                feed.subscribe(recorder);
+
+                recorder.subscription.request(0);
+
+                assertTrue(recorder.error instanceof IllegalArgumentException);
+                assertEquals(0, feed.getSubscriberCount());
+        }
+
+        @Test
+        public void close_ShouldCompleteAfterWhatWasAlreadyPublished() {
+                AccountEventFeed feed = new AccountEventFeed(8, Runnable::run);
+                Recorder recorder = new Recorder(0);
+                feed.subscribe(recorder);
+                feed.publish(OperationMetrics.LOGOUT, "a", 1, LocalOperationResponse.SUCCEED, Double.NaN);
+
+                feed.close();
+                assertFalse(recorder.completed);
+                recorder.subscription.request(1);
+
+                assertEquals(1, recorder.events.size());
+                assertTrue(recorder.completed);
+                feed.publish(OperationMetrics.LOGOUT, "a", 1, LocalOperationResponse.SUCCEED, Double.NaN);
+                assertEquals(1, feed.getPublished());
+        }
+
+        @Test
+        public void concurrentProducers_ShouldLoseNothingWhileTheRingHoldsIt() throws Exception {
+                AccountEventFeed feed = new AccountEventFeed(1 << 16, Runnable::run);
+                Recorder recorder = new Recorder(Long.MAX_VALUE);
+                feed.subscribe(recorder);
+                Thread[] producers = new Thread[4];
+                for (int t = 0; t < producers.length; t++) {
+                        int id = t;
+                        producers[t] = new Thread(() -> {
+                                for (int i = 0; i < 10_000; i++)
+                                        feed.publish(OperationMetrics.DEPOSIT, "p" + id, id, LocalOperationResponse.SUCCEED, i);
+                        });
+                        producers[t].start();
+                }
+                for (Thread t : producers)
+                        t.join();
+
+                assertEquals(40_000, recorder.events.size());
+                Set<Long> sequences = new HashSet<>();
+                long previous = -1;
+                for (AccountEvent e : recorder.events) {
+                        assertTrue(e.sequence > previous);
+                        previous = e.sequence;
+                        sequences.add(e.sequence);
+                        assertEquals("p" + e.session, e.login);
+                }
+                assertEquals(40_000, sequences.size());
+                assertEquals(0, feed.getSkipped() + feed.getOverwritten());
+        }
+}
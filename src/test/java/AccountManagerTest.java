@@ -6,6 +6,10 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.lang.reflect.Field;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.when;
@@ -22,6 +26,51 @@ public class AccountManagerTest {
         @InjectMocks
         AccountManager accountManager;
 
+        @Test
+        public void login_ShouldNotWaitForAnotherLoginsServerRoundTrip() throws Exception {
+                CountDownLatch release = new CountDownLatch(1);
+                AtomicInteger calls = new AtomicInteger();
+                // Первый вход зависает на сервере, второй вход под тем же логином не должен его ждать
+                InMemoryServerConnection server = new InMemoryServerConnection(4, MoneyScale.CENTS) {
+                        @Override
+                        public ServerResponse login(String userName, String mdPass) {
+                                if (calls.getAndIncrement() == 0) {
+                                        try {
+                                                release.await(10, TimeUnit.SECONDS);
+                                        } catch (InterruptedException e) {
+                                                Thread.currentThread().interrupt();
+                                        }
+                                }
+                                return super.login(userName, mdPass);
+                        }
+                };
+                server.addAccount("alice", "p", 0);
+                AccountManager manager = new AccountManager();
+                manager.AccountManager(server, password -> password);
+
+                CompletableFuture<Account> stuck = CompletableFuture.supplyAsync(() -> {
+                        try {
+                                return manager.login("alice", "p");
+                        } catch (OperationFailedException e) {
+                                throw new IllegalStateException(e);
+                        }
+                });
+                while (calls.get() == 0)
+                        Thread.onSpinWait();
+                CompletableFuture<Account> second = CompletableFuture.supplyAsync(() -> {
+                        try {
+                                return manager.login("alice", "p");
+                        } catch (OperationFailedException e) {
+                                throw new IllegalStateException(e);
+                        }
+                });
+
+                assertNotNull(second.get(5, TimeUnit.SECONDS));
+                assertFalse(stuck.isDone());
+                release.countDown();
+                assertNotNull(stuck.get(5, TimeUnit.SECONDS));
+        }
+
         @Test
         public void init_WithNullArguments_ShouldThrowOperationFailedException() {
                 AccountManager am = new AccountManager();
@@ -77,8 +126,21 @@ public class AccountManagerTest {
 
                 Account account = accountManager.login(login, rawPassword);
                 assertEquals(sessionId, account.getActiveSession());
-                // Обнаруженная проблема: поле login не устанавливается, поэтому getLogin() возвращает null.
-                assertNull(account.getLogin());
+                assertEquals(login, account.getLogin());
+        }
+
+        @Test
+        public void logout_AfterLogin_ShouldCloseTheSession() throws Exception {
+                InMemoryServerConnection server = new InMemoryServerConnection(4, MoneyScale.CENTS);
+                server.addAccount("dave", "p", 0);
+                AccountManager manager = new AccountManager();
+                manager.AccountManager(server, password -> password);
+
+                Account account = manager.login("dave", "p");
+                manager.logout(account);
+
+                assertEquals(0, server.getOpenSessions());
+                assertTrue(manager.getExceptions().isEmpty());
         }
 
         @Test
@@ -101,6 +163,26 @@ public class AccountManagerTest {
                 assertTrue(found);
         }
 
+        @Test
+        public void loginAsync_WithSuccessfulLogin_ShouldCompleteWithAccountWithActiveSession() throws OperationFailedException {
+                String login = "user2";
+                String rawPassword = "password";
+                String encryptedPassword = "encrypted";
+                Long sessionId = 67890L;
+                when(passEncoder.makeSecure(rawPassword)).thenReturn(encryptedPassword);
+                when(serverConnection.login(login, encryptedPassword))
+                        .thenReturn(new ServerResponse(ServerResponse.SUCCESS, sessionId));
+
+                Account account = accountManager.loginAsync(login, rawPassword).join();
+                assertEquals(sessionId, account.getActiveSession());
+        }
+
+        @Test
+        public void loginAsync_WithNullArguments_ShouldCompleteWithNullAndRegisterException() {
+                assertNull(accountManager.loginAsync(null, "password").join());
+                assertFalse(accountManager.getExceptions().isEmpty());
+        }
+
         @Test
         public void logout_WithNullAccount_ShouldRegisterException() {
                 accountManager.logout(null);
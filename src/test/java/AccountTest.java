@@ -1,4 +1,6 @@
 import hw.okit.Account;
+import hw.okit.BalanceResult;
+import hw.okit.BlockingAsyncServerConnection;
 import hw.okit.IServerConnection;
 import hw.okit.LocalOperationResponse;
 import hw.okit.ServerResponse;
@@ -12,6 +14,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
 
 @ExtendWith(MockitoExtension.class)
 public class AccountTest {
@@ -258,6 +261,130 @@ public class AccountTest {
                 assertEquals(fakeResponse, response.response);
         }
 
+        @Test
+        public void withdrawAsync_WithoutActiveSession_ShouldCompleteWithNotLoggedResponse() {
+                Account account = new Account();
+                LocalOperationResponse response = account.withdrawAsync(50.0).join();
+                assertEquals(LocalOperationResponse.NOT_LOGGED_RESPONSE.code, response.code);
+        }
+
+        @Test
+        public void asyncOperations_OverBlockingAdapter_ShouldMapResponsesLikeSyncOperations() {
+                Account account = new Account();
+                setPrivateField(account, "activeSession", 12345L);
+                setPrivateField(account, "serverConnection", serverConnection);
+                setPrivateField(account, "asyncConnection",
+                        new BlockingAsyncServerConnection(serverConnection, Runnable::run));
+
+                when(serverConnection.withdraw(12345L, 50.0))
+                        .thenReturn(new ServerResponse(ServerResponse.NO_MONEY, 20.0));
+                when(serverConnection.deposit(12345L, 100.0))
+                        .thenReturn(new ServerResponse(ServerResponse.SUCCESS, 120.0));
+                ServerResponse fakeResponse = new ServerResponse(ServerResponse.ALREADY_LOGGED, "errorData");
+                when(serverConnection.getBalance(12345L)).thenReturn(fakeResponse);
+
+                LocalOperationResponse withdraw = account.withdrawAsync(50.0).join();
+                assertEquals(LocalOperationResponse.NO_MONEY, withdraw.code);
+                assertEquals(20.0, withdraw.response);
+
+                LocalOperationResponse deposit = account.depositAsync(100.0).join();
+                assertEquals(LocalOperationResponse.SUCCEED, deposit.code);
+                assertEquals(120.0, deposit.response);
+
+                LocalOperationResponse balance = account.getBalanceAsync().join();
+                assertEquals(LocalOperationResponse.INCORRECT_RESPONSE, balance.code);
+                assertEquals(fakeResponse, balance.response);
+        }
+
+        @Test
+        public void getBalance_WithBalanceCache_ShouldServeBalanceFromLastDeposit() {
+                Account account = new Account();
+                setPrivateField(account, "activeSession", 12345L);
+                setPrivateField(account, "serverConnection", serverConnection);
+                account.enableBalanceCache(1, TimeUnit.HOURS);
+
+                when(serverConnection.deposit(12345L, 100.0))
+                        .thenReturn(new ServerResponse(ServerResponse.SUCCESS, 150.0));
+                account.deposit(100.0);
+
+                LocalOperationResponse response = account.getBalance();
+                assertEquals(LocalOperationResponse.SUCCEED, response.code);
+                assertEquals(150.0, response.response);
+                assertEquals(1, account.getBalanceCache().getHits());
+                assertEquals(0, account.getBalanceCache().getMisses());
+        }
+
+        @Test
+        public void getBalance_WithBalanceCacheAfterIncorrectSession_ShouldAskServerAgain() {
+                Account account = new Account();
+                setPrivateField(account, "activeSession", 12345L);
+                setPrivateField(account, "serverConnection", serverConnection);
+                account.enableBalanceCache(1, TimeUnit.HOURS);
+
+                when(serverConnection.withdraw(12345L, 10.0))
+                        .thenReturn(new ServerResponse(ServerResponse.SUCCESS, 90.0))
+                        .thenReturn(new ServerResponse(ServerResponse.INCORRECT_SESSION, null));
+                when(serverConnection.getBalance(12345L))
+                        .thenReturn(new ServerResponse(ServerResponse.NOT_LOGGED, null));
+                account.withdraw(10.0);
+                LocalOperationResponse withdraw = account.withdraw(10.0);
+                assertEquals(LocalOperationResponse.INCORRECT_SESSION, withdraw.code);
+
+                LocalOperationResponse response = account.getBalance();
+                assertEquals(LocalOperationResponse.NOT_LOGGED, response.code);
+                assertEquals(0, account.getBalanceCache().getHits());
+                assertEquals(1, account.getBalanceCache().getMisses());
+        }
+
+        @Test
+        public void getBalance_WithExpiredBalanceCache_ShouldAskServer() {
+                Account account = new Account();
+                setPrivateField(account, "activeSession", 12345L);
+                setPrivateField(account, "serverConnection", serverConnection);
+                account.enableBalanceCache(0, TimeUnit.NANOSECONDS);
+
+                when(serverConnection.deposit(12345L, 100.0))
+                        .thenReturn(new ServerResponse(ServerResponse.SUCCESS, 150.0));
+                when(serverConnection.getBalance(12345L))
+                        .thenReturn(new ServerResponse(ServerResponse.SUCCESS, 140.0));
+                account.deposit(100.0);
+
+                LocalOperationResponse response = account.getBalance();
+                assertEquals(140.0, response.response);
+                assertEquals(1, account.getBalanceCache().getMisses());
+        }
+
+        @Test
+        public void primitiveOperations_ShouldFillResultHolderWithLocalCodes() {
+                SlowInMemoryServer server = new SlowInMemoryServer(0);
+                Long session = (Long) server.login("user", "pass").data;
+                Account account = new Account();
+                setPrivateField(account, "activeSession", session);
+                setPrivateField(account, "serverConnection", server);
+                BalanceResult result = new BalanceResult();
+
+                assertEquals(LocalOperationResponse.SUCCEED, account.deposit(100.0, result));
+                assertEquals(100.0, result.balance);
+                assertEquals(LocalOperationResponse.NO_MONEY, account.withdraw(150.0, result));
+                assertEquals(100.0, result.balance);
+                assertEquals(LocalOperationResponse.SUCCEED, account.withdraw(40.0, result));
+                assertEquals(60.0, result.balance);
+                assertEquals(LocalOperationResponse.SUCCEED, account.getBalance(result));
+                assertEquals(60.0, result.balance);
+
+                server.logout(session);
+                assertEquals(LocalOperationResponse.NOT_LOGGED, account.getBalance(result));
+                assertFalse(result.hasBalance());
+                assertSame(LocalOperationResponse.NOT_LOGGED_RESPONSE, result.toLocalOperationResponse());
+        }
+
+        @Test
+        public void primitiveWithdraw_WithoutActiveSession_ShouldReturnNotLogged() {
+                Account account = new Account();
+                BalanceResult result = new BalanceResult();
+                assertEquals(LocalOperationResponse.NOT_LOGGED, account.withdraw(50.0, result));
+        }
+
         // 2) Тесты для withdraw()
 
 //        // 2.1) Если activeSession == null, должен возвращаться NOT_LOGGED_RESPONSE.
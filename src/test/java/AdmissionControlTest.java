@@ -0,0 +1,94 @@
+import hw.okit.Account;
+import hw.okit.AccountManager;
+import hw.okit.AdmissionControl;
+import hw.okit.BalanceResult;
+import hw.okit.InMemoryServerConnection;
+import hw.okit.LocalOperationResponse;
+import hw.okit.MoneyScale;
+import hw.okit.RateLimiter;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdmissionControlTest {
+
+        private final AtomicLong now = new AtomicLong();
+
+        @Test
+        public void rateLimiter_ShouldAllowBurstThenRefillWithTime() {
+                RateLimiter limiter = new RateLimiter(10, 3, now::get);
+
+                assertTrue(limiter.tryAcquire());
+                assertTrue(limiter.tryAcquire());
+                assertTrue(limiter.tryAcquire());
+                assertFalse(limiter.tryAcquire());
+
+                now.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+                assertTrue(limiter.tryAcquire());
+                assertFalse(limiter.tryAcquire());
+        }
+
+        @Test
+        public void hotLogin_ShouldNotDrainTheCapacityOfOthers() {
+                AdmissionControl control = new AdmissionControl(1, 2, 100, 4, now::get);
+                AdmissionControl.Gate bot = control.gate("bot");
+                AdmissionControl.Gate user = control.gate("user");
+
+                int botAdmitted = 0;
+                for (int i = 0; i < 100; i++)
+                        if (bot.tryAcquire())
+                                botAdmitted++;
+
+                assertEquals(2, botAdmitted);
+                assertTrue(user.tryAcquire());
+                assertTrue(user.tryAcquire());
+                assertEquals(98, control.getRejected());
+        }
+
+        @Test
+        public void globalRefusal_ShouldGiveTheLoginPermitBack() {
+                AdmissionControl control = new AdmissionControl(10, 1, 10, 1, now::get);
+                AdmissionControl.Gate first = control.gate("first");
+                AdmissionControl.Gate second = control.gate("second");
+
+                assertTrue(first.tryAcquire());
+                // Глобальный бакет пуст, токен второго логина возвращается
+                assertFalse(second.tryAcquire());
+                now.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+                assertTrue(second.tryAcquire());
+        }
+
+        @Test
+        public void account_WhenLimited_ShouldAnswerRateLimitedWithoutCallingTheServer() throws Exception {
+                InMemoryServerConnection server = new InMemoryServerConnection(8, MoneyScale.CENTS);
+                server.addAccount("bot", "p", 10_000);
+                AccountManager manager = new AccountManager();
+                manager.AccountManager(server, password -> password);
+                AdmissionControl control = manager.enableAdmissionControl(0.001, 2, 1000, 1000);
+                Account account = manager.login("bot", "p");
+                BalanceResult result = new BalanceResult();
+
+                assertEquals(LocalOperationResponse.SUCCEED, account.withdraw(1.0).code);
+                assertEquals(LocalOperationResponse.SUCCEED, account.withdraw(1.0, result));
+                assertEquals(LocalOperationResponse.RATE_LIMITED, account.withdraw(1.0, result));
+                assertSame(LocalOperationResponse.RATE_LIMITED_RESPONSE, account.withdraw(1.0));
+
+                assertEquals(9_800, server.getBalanceMinor("bot"));
+                assertEquals(2, control.getRejected());
+        }
+
+        @Test
+        public void release_ShouldForgetOnlyIdleLogins() {
+                AdmissionControl control = new AdmissionControl(1, 1, 100, 100, now::get);
+                control.gate("a").tryAcquire();
+                control.gate("b");
+
+                control.release("a");
+                control.release("b");
+
+                assertEquals(1, control.getTrackedLogins());
+        }
+}
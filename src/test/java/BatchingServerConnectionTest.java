@@ -0,0 +1,182 @@
+import hw.okit.BatchingServerConnection;
+import hw.okit.InMemoryServerConnection;
+import hw.okit.MoneyScale;
+import hw.okit.Operation;
+import hw.okit.ServerResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchingServerConnectionTest {
+
+        // Answers every operation in one round trip and counts the batches it receives.
+        static class BatchCountingServer extends InMemoryServerConnection {
+                final AtomicInteger batches = new AtomicInteger();
+                final List<Integer> batchSizes = new ArrayList<>();
+
+                BatchCountingServer() {
+                        super(64, MoneyScale.CENTS);
+                }
+
+                long open(String login) {
+                        addAccount(login, "p", 0);
+                        return (Long) login(login, "p").data;
+                }
+
+                @Override
+                public synchronized List<ServerResponse> executeBatch(List<Operation> operations) {
+                        batches.incrementAndGet();
+                        batchSizes.add(operations.size());
+                        return super.executeBatch(operations);
+                }
+        }
+
+        @Test
+        public void fullBatch_ShouldBeSentAsOneCallAndDemultiplexedInOrder() {
+                BatchCountingServer server = new BatchCountingServer();
+                long first = server.open("a");
+                long second = server.open("b");
+                BatchingServerConnection batching = new BatchingServerConnection(server, 4, 1, TimeUnit.HOURS);
+
+                CompletableFuture<ServerResponse> d1 = batching.submit(Operation.deposit(first, 100.0));
+                CompletableFuture<ServerResponse> d2 = batching.submit(Operation.deposit(second, 7.0));
+                CompletableFuture<ServerResponse> w1 = batching.submit(Operation.withdraw(first, 30.0));
+                assertFalse(d1.isDone());
+                CompletableFuture<ServerResponse> b2 = batching.submit(Operation.getBalance(second));
+
+                assertEquals(100.0, d1.join().data);
+                assertEquals(1, server.batches.get());
+                assertEquals(7.0, d2.join().data);
+                assertEquals(70.0, w1.join().data);
+                assertEquals(ServerResponse.SUCCESS, b2.join().code);
+                assertEquals(7.0, b2.join().data);
+                batching.close();
+        }
+
+        @Test
+        public void partialBatch_ShouldBeSentWhenTheDelayExpires() {
+                BatchCountingServer server = new BatchCountingServer();
+                long session = server.open("a");
+                BatchingServerConnection batching = new BatchingServerConnection(server, 64, 5, TimeUnit.MILLISECONDS);
+
+                ServerResponse response = batching.deposit(session, 10.0);
+
+                assertEquals(ServerResponse.SUCCESS, response.code);
+                assertEquals(10.0, response.data);
+                assertEquals(1, server.batches.get());
+                batching.close();
+        }
+
+        @Test
+        public void concurrentCallers_ShouldShareBatches() throws InterruptedException {
+                BatchCountingServer server = new BatchCountingServer();
+                int callers = 32;
+                long[] sessions = new long[callers];
+                for (int i = 0; i < callers; i++)
+                        sessions[i] = server.open("u" + i);
+                BatchingServerConnection batching = new BatchingServerConnection(server, 8, 20, TimeUnit.MILLISECONDS);
+
+                Thread[] threads = new Thread[callers];
+                ServerResponse[] results = new ServerResponse[callers];
+                for (int i = 0; i < callers; i++) {
+                        int n = i;
+                        threads[i] = new Thread(() -> results[n] = batching.deposit(sessions[n], n));
+                        threads[i].start();
+                }
+                for (Thread t : threads)
+                        t.join();
+
+                for (int i = 0; i < callers; i++)
+                        assertEquals((double) i, results[i].data);
+                assertTrue(server.batches.get() < callers, "batches: " + server.batchSizes);
+                batching.close();
+        }
+
+        @Test
+        public void serverWithoutBatchSupport_ShouldFallBackToSingleCalls() {
+                SlowInMemoryServer server = new SlowInMemoryServer(0);
+                long session = (Long) server.login("a", "p").data;
+                BatchingServerConnection batching = new BatchingServerConnection(server, 2, 1, TimeUnit.HOURS);
+
+                CompletableFuture<ServerResponse> deposit = batching.submit(Operation.deposit(session, 5.0));
+                CompletableFuture<ServerResponse> logout = batching.submit(Operation.logout(session));
+
+                assertEquals(5.0, deposit.join().data);
+                assertEquals(ServerResponse.SUCCESS, logout.join().code);
+                assertEquals(ServerResponse.NOT_LOGGED, server.getBalance(session).code);
+                batching.close();
+        }
+
+        @Test
+        public void fullBatch_ShouldBeSentFromASenderThread() {
+                List<String> senders = new ArrayList<>();
+                BatchCountingServer server = new BatchCountingServer() {
+                        @Override
+                        public synchronized List<ServerResponse> executeBatch(List<Operation> operations) {
+                                senders.add(Thread.currentThread().getName());
+                                return super.executeBatch(operations);
+                        }
+                };
+                long session = server.open("a");
+                BatchingServerConnection batching = new BatchingServerConnection(server, 2, 1, TimeUnit.HOURS);
+
+                batching.submit(Operation.deposit(session, 1.0));
+                batching.submit(Operation.deposit(session, 2.0)).join();
+
+                assertEquals(List.of("batching-server-connection-sender"), senders);
+                batching.close();
+        }
+
+        @Test
+        public void slowBatch_ShouldNotHoldBackTheNextOne() throws Exception {
+                CountDownLatch release = new CountDownLatch(1);
+                BatchCountingServer server = new BatchCountingServer() {
+                        @Override
+                        public List<ServerResponse> executeBatch(List<Operation> operations) {
+                                // Первый пакет висит, пока второй не дойдёт до сервера
+                                if (operations.get(0).amount == 1.0) {
+                                        try {
+                                                release.await(10, TimeUnit.SECONDS);
+                                        } catch (InterruptedException e) {
+                                                Thread.currentThread().interrupt();
+                                        }
+                                }
+                                return super.executeBatch(operations);
+                        }
+                };
+                long session = server.open("a");
+                BatchingServerConnection batching = new BatchingServerConnection(server, 2, 1, TimeUnit.HOURS);
+
+                CompletableFuture<ServerResponse> first = batching.submit(Operation.deposit(session, 1.0));
+                batching.submit(Operation.deposit(session, 2.0));
+                batching.submit(Operation.deposit(session, 3.0));
+                CompletableFuture<ServerResponse> second = batching.submit(Operation.deposit(session, 4.0));
+
+                assertEquals(ServerResponse.SUCCESS, second.get(5, TimeUnit.SECONDS).code);
+                assertFalse(first.isDone());
+                release.countDown();
+                assertEquals(ServerResponse.SUCCESS, first.get(5, TimeUnit.SECONDS).code);
+                batching.close();
+        }
+
+        @Test
+        public void submitAfterClose_ShouldStillBeAnswered() {
+                BatchCountingServer server = new BatchCountingServer();
+                long session = server.open("a");
+                BatchingServerConnection batching = new BatchingServerConnection(server, 8, 1, TimeUnit.HOURS);
+                batching.close();
+
+                CompletableFuture<ServerResponse> deposit = batching.submit(Operation.deposit(session, 3.0));
+
+                assertTrue(deposit.isDone());
+                assertEquals(3.0, deposit.join().data);
+                assertEquals(ServerResponse.SUCCESS, batching.getBalance(session).code);
+        }
+}
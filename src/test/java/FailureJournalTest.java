@@ -0,0 +1,73 @@
+import hw.okit.FailureJournal;
+import hw.okit.LocalOperationResponse;
+import hw.okit.OperationFailedException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FailureJournalTest {
+
+        @Test
+        public void record_PastCapacity_ShouldOverwriteOldestAndKeepCounting() {
+                FailureJournal journal = new FailureJournal(4);
+                journal.record(LocalOperationResponse.NULL_ARGUMENT_EXCEPTION);
+                journal.record(LocalOperationResponse.NULL_ARGUMENT_EXCEPTION);
+                for (int i = 0; i < 4; i++)
+                        journal.record(LocalOperationResponse.INCORRECT_SESSION_RESPONSE);
+
+                FailureJournal.Snapshot snapshot = journal.snapshot();
+                assertEquals(4, snapshot.size());
+                for (int i = 0; i < snapshot.size(); i++)
+                        assertEquals(LocalOperationResponse.INCORRECT_SESSION, snapshot.code(i));
+                assertEquals(2, journal.count(LocalOperationResponse.NULL_ARGUMENT));
+                assertEquals(4, journal.count(LocalOperationResponse.INCORRECT_SESSION));
+                assertEquals(6, journal.total());
+        }
+
+        @Test
+        public void snapshot_ShouldKeepRecordingOrder() {
+                FailureJournal journal = new FailureJournal(8);
+                journal.record(LocalOperationResponse.NULL_ARGUMENT_EXCEPTION);
+                journal.record(LocalOperationResponse.ALREADY_INITIATED_RESPONSE);
+                journal.record(LocalOperationResponse.INCORRECT_SESSION_RESPONSE);
+
+                FailureJournal.Snapshot snapshot = journal.snapshot();
+                assertEquals(LocalOperationResponse.NULL_ARGUMENT, snapshot.code(0));
+                assertEquals(LocalOperationResponse.ALREADY_INITIATED, snapshot.code(1));
+                assertEquals(LocalOperationResponse.INCORRECT_SESSION, snapshot.code(2));
+        }
+
+        @Test
+        public void toExceptions_ShouldBuildStacklessExceptions() {
+                FailureJournal journal = new FailureJournal(2);
+                journal.record(LocalOperationResponse.NULL_ARGUMENT_EXCEPTION);
+
+                Collection<OperationFailedException> exceptions = journal.snapshot().toExceptions();
+                OperationFailedException e = exceptions.iterator().next();
+                assertSame(LocalOperationResponse.NULL_ARGUMENT_EXCEPTION, e.response);
+                assertEquals(0, e.getStackTrace().length);
+        }
+
+        @Test
+        public void concurrentWriters_ShouldNeverLoseCounts() throws InterruptedException {
+                FailureJournal journal = new FailureJournal(16);
+                List<Thread> threads = new ArrayList<>();
+                for (int t = 0; t < 8; t++) {
+                        Thread thread = new Thread(() -> {
+                                for (int i = 0; i < 10_000; i++)
+                                        journal.record(LocalOperationResponse.INCORRECT_SESSION_RESPONSE);
+                        });
+                        threads.add(thread);
+                        thread.start();
+                }
+                for (Thread thread : threads)
+                        thread.join();
+
+                assertEquals(80_000, journal.count(LocalOperationResponse.INCORRECT_SESSION));
+                assertEquals(16, journal.snapshot().size());
+        }
+}
@@ -0,0 +1,47 @@
+import hw.okit.InMemoryServerConnection;
+import hw.okit.MoneyScale;
+import hw.okit.ServerResponse;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// In-memory server whose next calls can be made to fail or hang, for driving client-side resilience code.
+public class FaultInjectingServer extends InMemoryServerConnection {
+        final AtomicInteger failNext = new AtomicInteger();
+        final AtomicInteger calls = new AtomicInteger();
+        volatile long hangMillis;
+
+        FaultInjectingServer() {
+                super(16, MoneyScale.CENTS);
+        }
+
+        long open(String login) {
+                addAccount(login, "p", 0);
+                return (Long) login(login, "p").data;
+        }
+
+        private ServerResponse fault() {
+                calls.incrementAndGet();
+                if (hangMillis > 0) {
+                        try {
+                                Thread.sleep(hangMillis);
+                        } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                        }
+                }
+                if (failNext.getAndUpdate(n -> Math.max(0, n - 1)) > 0)
+                        return new ServerResponse(ServerResponse.UNDEFINED_ERROR, null);
+                return null;
+        }
+
+        @Override
+        public ServerResponse deposit(long session, double balance) {
+                ServerResponse f = fault();
+                return f != null ? f : super.deposit(session, balance);
+        }
+
+        @Override
+        public ServerResponse getBalance(long session) {
+                ServerResponse f = fault();
+                return f != null ? f : super.getBalance(session);
+        }
+}
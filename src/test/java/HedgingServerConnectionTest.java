@@ -0,0 +1,194 @@
+import hw.okit.HedgingServerConnection;
+import hw.okit.InMemoryServerConnection;
+import hw.okit.MoneyScale;
+import hw.okit.PooledServerConnection;
+import hw.okit.ServerResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HedgingServerConnectionTest {
+
+        private final InMemoryServerConnection server = new InMemoryServerConnection(16, MoneyScale.CENTS);
+
+        // Link that blocks only its first getBalance, imitating one request stuck in the tail.
+        static class StallFirstRead extends PooledServerConnectionTest.Link {
+                final CountDownLatch release = new CountDownLatch(1);
+                private boolean stalled;
+
+                StallFirstRead(InMemoryServerConnection server) {
+                        super(server);
+                }
+
+                @Override
+                public ServerResponse getBalance(long session) {
+                        boolean first;
+                        synchronized (this) {
+                                first = !stalled;
+                                stalled = true;
+                        }
+                        if (first) {
+                                try {
+                                        release.await();
+                                } catch (InterruptedException e) {
+                                        Thread.currentThread().interrupt();
+                                }
+                        }
+                        return super.getBalance(session);
+                }
+        }
+
+        private long open(String login) {
+                server.addAccount(login, "p", 1_000);
+                return (Long) server.login(login, "p").data;
+        }
+
+        @Test
+        public void fastReads_ShouldNotBeHedged() {
+                long session = open("a");
+                HedgingServerConnection hedging = new HedgingServerConnection(server)
+                        .withDelay(0.95, 200, 200, TimeUnit.MILLISECONDS)
+                        .withBudget(1.0, 1);
+
+                for (int i = 0; i < 20; i++)
+                        assertEquals(ServerResponse.SUCCESS, hedging.getBalance(session).code);
+
+                assertEquals(20, hedging.getReads());
+                assertEquals(0, hedging.getHedged());
+                hedging.close();
+        }
+
+        @Test
+        public void stuckRead_ShouldBeAnsweredByTheHedge() {
+                long session = open("a");
+                StallFirstRead link = new StallFirstRead(server);
+                HedgingServerConnection hedging = new HedgingServerConnection(link)
+                        .withDelay(0.95, 10, 10, TimeUnit.MILLISECONDS)
+                        .withBudget(1.0, 1);
+
+                ServerResponse response = hedging.getBalance(session);
+
+                assertEquals(ServerResponse.SUCCESS, response.code);
+                assertEquals(10.0, response.data);
+                assertEquals(1, hedging.getHedged());
+                assertEquals(1, hedging.getHedgeWins());
+                link.release.countDown();
+                hedging.close();
+        }
+
+        @Test
+        public void spentBudget_ShouldWaitForTheOriginalRead() {
+                long session = open("a");
+                StallFirstRead link = new StallFirstRead(server);
+                HedgingServerConnection hedging = new HedgingServerConnection(link)
+                        .withDelay(0.95, 5, 5, TimeUnit.MILLISECONDS)
+                        .withBudget(0.0, 1);
+                new Thread(() -> {
+                        try {
+                                Thread.sleep(50);
+                        } catch (InterruptedException ignored) {
+                        }
+                        link.release.countDown();
+                }).start();
+
+                assertEquals(ServerResponse.SUCCESS, hedging.getBalance(session).code);
+
+                assertEquals(0, hedging.getHedged());
+                assertEquals(1, hedging.getOverBudget());
+                assertEquals(1, link.calls.get());
+                hedging.close();
+        }
+
+        @Test
+        public void hedge_ShouldTakeAnotherLinkOfThePool() {
+                List<PooledServerConnectionTest.Link> links = new ArrayList<>();
+                PooledServerConnection pool = new PooledServerConnection(() -> {
+                        PooledServerConnectionTest.Link link = new PooledServerConnectionTest.Link(server);
+                        links.add(link);
+                        return link;
+                }, 2, 4);
+                long session = open("a");
+                links.forEach(l -> l.calls.set(0));
+                pool.getBalance(session);
+                PooledServerConnectionTest.Link home = links.get(0).calls.get() > 0 ? links.get(0) : links.get(1);
+                PooledServerConnectionTest.Link other = home == links.get(0) ? links.get(1) : links.get(0);
+                CountDownLatch release = new CountDownLatch(1);
+                home.block = release;
+                other.calls.set(0);
+                HedgingServerConnection hedging = new HedgingServerConnection(pool)
+                        .withDelay(0.95, 10, 10, TimeUnit.MILLISECONDS)
+                        .withBudget(1.0, 1);
+
+                assertEquals(ServerResponse.SUCCESS, hedging.getBalance(session).code);
+
+                assertEquals(1, other.calls.get());
+                assertEquals(1, hedging.getHedgeWins());
+                release.countDown();
+                hedging.close();
+        }
+
+        @Test
+        public void hedgeWithNoFreeLink_ShouldNotBeCounted() {
+                List<PooledServerConnectionTest.Link> links = new ArrayList<>();
+                PooledServerConnection pool = new PooledServerConnection(() -> {
+                        PooledServerConnectionTest.Link link = new PooledServerConnectionTest.Link(server);
+                        links.add(link);
+                        return link;
+                }, 1, 4);
+                long session = open("a");
+                CountDownLatch release = new CountDownLatch(1);
+                links.get(0).block = release;
+                HedgingServerConnection hedging = new HedgingServerConnection(pool)
+                        .withDelay(0.95, 5, 5, TimeUnit.MILLISECONDS)
+                        .withBudget(1.0, 1);
+                new Thread(() -> {
+                        try {
+                                Thread.sleep(50);
+                        } catch (InterruptedException ignored) {
+                        }
+                        release.countDown();
+                }).start();
+
+                assertEquals(ServerResponse.SUCCESS, hedging.getBalance(session).code);
+
+                // Второго пула нет: хедж не ушёл и не должен учитываться
+                assertEquals(0, hedging.getHedged());
+                assertEquals(1, links.get(0).calls.get());
+                hedging.close();
+        }
+
+        @Test
+        public void delay_ShouldFollowLatencyDownAfterTheServerSpeedsUp() {
+                AtomicLong now = new AtomicLong();
+                AtomicLong step = new AtomicLong(TimeUnit.MILLISECONDS.toNanos(100));
+                InMemoryServerConnection timed = new InMemoryServerConnection(4, MoneyScale.CENTS) {
+                        @Override
+                        public ServerResponse getBalance(long session) {
+                                now.addAndGet(step.get());
+                                return super.getBalance(session);
+                        }
+                };
+                timed.addAccount("a", "p", 0);
+                long session = (Long) timed.login("a", "p").data;
+                HedgingServerConnection hedging = new HedgingServerConnection(timed, now::get)
+                        .withDelay(0.95, 1, 1_000, TimeUnit.MILLISECONDS)
+                        .withBudget(0.0, 1);
+
+                for (int i = 0; i < 2_048; i++)
+                        hedging.getBalance(session);
+                assertTrue(hedging.getDelayNanos() >= TimeUnit.MILLISECONDS.toNanos(90));
+
+                step.set(TimeUnit.MILLISECONDS.toNanos(2));
+                for (int i = 0; i < 3_072; i++)
+                        hedging.getBalance(session);
+
+                assertTrue(hedging.getDelayNanos() < TimeUnit.MILLISECONDS.toNanos(3), "delay: " + hedging.getDelayNanos());
+                hedging.close();
+        }
+}
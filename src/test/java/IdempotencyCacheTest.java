@@ -0,0 +1,164 @@
+import hw.okit.Account;
+import hw.okit.AccountManager;
+import hw.okit.AdmissionControl;
+import hw.okit.BatchingServerConnection;
+import hw.okit.IdempotencyCache;
+import hw.okit.InMemoryServerConnection;
+import hw.okit.LocalOperationResponse;
+import hw.okit.MoneyScale;
+import hw.okit.ServerResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdempotencyCacheTest {
+
+        private final InMemoryServerConnection server = new InMemoryServerConnection(8, MoneyScale.CENTS);
+
+        private long open(String login, long balanceMinor) {
+                server.addAccount(login, "p", balanceMinor);
+                return (Long) server.login(login, "p").data;
+        }
+
+        @Test
+        public void server_ShouldApplyAKeyOnlyOnce() {
+                long session = open("a", 10_000);
+
+                ServerResponse first = server.withdrawIdempotent(session, 30.0, 7L);
+                ServerResponse retry = server.withdrawIdempotent(session, 30.0, 7L);
+
+                assertSame(first, retry);
+                assertEquals(7_000, server.getBalanceMinor("a"));
+        }
+
+        @Test
+        public void sameKeyFromAnotherSession_ShouldBeAppliedAgain() {
+                long first = open("d", 10_000);
+                long second = open("e", 10_000);
+                IdempotencyCache cache = new IdempotencyCache(16, 1, TimeUnit.MINUTES);
+
+                cache.execute(first, 9L, () -> server.withdrawIdempotent(first, 10.0, 9L));
+                cache.execute(second, 9L, () -> server.withdrawIdempotent(second, 10.0, 9L));
+
+                assertEquals(9_000, server.getBalanceMinor("d"));
+                assertEquals(9_000, server.getBalanceMinor("e"));
+                assertEquals(2, cache.getCalls());
+                assertEquals(0, cache.getDeduplicated());
+        }
+
+        @Test
+        public void concurrentDuplicates_ShouldShareOneServerCall() throws InterruptedException {
+                IdempotencyCache cache = new IdempotencyCache(16, 1, TimeUnit.MINUTES);
+                CountDownLatch release = new CountDownLatch(1);
+                AtomicInteger serverCalls = new AtomicInteger();
+                ServerResponse answer = new ServerResponse(ServerResponse.SUCCESS, 1.0);
+                ServerResponse[] seen = new ServerResponse[4];
+                Thread[] callers = new Thread[seen.length];
+                for (int i = 0; i < callers.length; i++) {
+                        int n = i;
+                        callers[i] = new Thread(() -> seen[n] = cache.execute(1L, 5L, () -> {
+                                serverCalls.incrementAndGet();
+                                try {
+                                        release.await();
+                                } catch (InterruptedException e) {
+                                        Thread.currentThread().interrupt();
+                                }
+                                return answer;
+                        }));
+                        callers[i].start();
+                }
+                while (cache.getCalls() + cache.getDeduplicated() < callers.length)
+                        Thread.sleep(1);
+                release.countDown();
+                for (Thread t : callers)
+                        t.join();
+
+                assertEquals(1, serverCalls.get());
+                for (ServerResponse r : seen)
+                        assertSame(answer, r);
+        }
+
+        @Test
+        public void expiredOrUnavailableAnswers_ShouldNotBeReplayed() {
+                AtomicLong now = new AtomicLong();
+                IdempotencyCache cache = new IdempotencyCache(16, 10, TimeUnit.SECONDS, now::get);
+                AtomicInteger serverCalls = new AtomicInteger();
+
+                cache.execute(1L, 1L, () -> new ServerResponse(ServerResponse.UNAVAILABLE, null));
+                cache.execute(1L, 1L, () -> {
+                        serverCalls.incrementAndGet();
+                        return new ServerResponse(ServerResponse.SUCCESS, 1.0);
+                });
+                cache.execute(1L, 1L, () -> {
+                        serverCalls.incrementAndGet();
+                        return new ServerResponse(ServerResponse.SUCCESS, 1.0);
+                });
+                assertEquals(1, serverCalls.get());
+
+                now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+                cache.execute(1L, 1L, () -> {
+                        serverCalls.incrementAndGet();
+                        return new ServerResponse(ServerResponse.SUCCESS, 1.0);
+                });
+                assertEquals(2, serverCalls.get());
+        }
+
+        @Test
+        public void cache_ShouldStayWithinItsBound() {
+                IdempotencyCache cache = new IdempotencyCache(8, 1, TimeUnit.MINUTES);
+                for (long key = 1; key <= 100; key++)
+                        cache.execute(1L, key, () -> new ServerResponse(ServerResponse.SUCCESS, 1.0));
+
+                assertTrue(cache.size() <= 8);
+        }
+
+        @Test
+        public void keyedBatchOperations_ShouldBeDeduplicatedByTheServer() {
+                long session = open("b", 10_000);
+                BatchingServerConnection batching = new BatchingServerConnection(server, 2, 1, TimeUnit.MILLISECONDS);
+
+                batching.depositIdempotent(session, 5.0, 11L);
+                batching.depositIdempotent(session, 5.0, 11L);
+
+                assertEquals(10_500, server.getBalanceMinor("b"));
+                batching.close();
+        }
+
+        @Test
+        public void account_RetryWithTheSameKey_ShouldWithdrawOnce() throws Exception {
+                server.addAccount("c", "p", 10_000);
+                AccountManager manager = new AccountManager();
+                manager.AccountManager(server, password -> password);
+                IdempotencyCache cache = manager.enableIdempotencyCache(1024, 1, TimeUnit.MINUTES);
+                Account account = manager.login("c", "p");
+                long key = IdempotencyCache.newKey();
+
+                LocalOperationResponse first = account.withdraw(25.0, key);
+                LocalOperationResponse retry = account.withdraw(25.0, key);
+
+                assertEquals(LocalOperationResponse.SUCCEED, first.code);
+                assertEquals(75.0, retry.response);
+                assertEquals(7_500, server.getBalanceMinor("c"));
+                assertEquals(1, cache.getDeduplicated());
+        }
+
+        @Test
+        public void account_KeyZero_ShouldBeRejectedBeforeAdmissionOrJournal() throws Exception {
+                server.addAccount("f", "p", 10_000);
+                AccountManager manager = new AccountManager();
+                manager.AccountManager(server, password -> password);
+                AdmissionControl admission = manager.enableAdmissionControl(100, 10, 1_000, 100);
+                Account account = manager.login("f", "p");
+
+                assertThrows(IllegalArgumentException.class, () -> account.withdraw(1.0, 0L));
+                assertThrows(IllegalArgumentException.class, () -> account.deposit(1.0, 0L));
+
+                assertEquals(0, admission.getAdmitted() + admission.getRejected());
+                assertEquals(10_000, server.getBalanceMinor("f"));
+        }
+}
@@ -0,0 +1,134 @@
+import hw.okit.BalanceResult;
+import hw.okit.InMemoryServerConnection;
+import hw.okit.LongIntHashMap;
+import hw.okit.MoneyScale;
+import hw.okit.ServerResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemoryServerConnectionTest {
+
+        @Test
+        public void login_ShouldCheckPasswordAndRejectSecondSession() {
+                InMemoryServerConnection server = new InMemoryServerConnection(4, MoneyScale.CENTS);
+                server.addAccount("user1", "hash", 0);
+
+                assertEquals(ServerResponse.NO_USER_INCORRECT_PASSWORD, server.login("user1", "wrong").code);
+                assertEquals(ServerResponse.NO_USER_INCORRECT_PASSWORD, server.login("nobody", "hash").code);
+                ServerResponse first = server.login("user1", "hash");
+                assertEquals(ServerResponse.SUCCESS, first.code);
+                assertEquals(ServerResponse.ALREADY_LOGGED, server.login("user1", "hash").code);
+
+                assertEquals(ServerResponse.SUCCESS, server.logout((Long) first.data).code);
+                assertEquals(ServerResponse.NOT_LOGGED, server.logout((Long) first.data).code);
+                assertEquals(ServerResponse.SUCCESS, server.login("user1", "hash").code);
+        }
+
+        @Test
+        public void moneyOperations_ShouldKeepExactMinorUnits() {
+                InMemoryServerConnection server = new InMemoryServerConnection(4, MoneyScale.CENTS);
+                server.addAccount("user1", "hash", 0);
+                long session = (Long) server.login("user1", "hash").data;
+
+                for (int i = 0; i < 10; i++)
+                        server.deposit(session, 0.1);
+                assertEquals(100L, server.getBalanceMinor("user1"));
+                assertEquals(1.0, server.getBalance(session).data);
+
+                ServerResponse noMoney = server.withdraw(session, 1.01);
+                assertEquals(ServerResponse.NO_MONEY, noMoney.code);
+                assertEquals(1.0, noMoney.data);
+                assertEquals(ServerResponse.UNDEFINED_ERROR, server.withdraw(session, -5).code);
+
+                ServerResponse minor = server.withdrawMinor(session, 1000, new MoneyScale("USD", 3));
+                assertEquals(ServerResponse.SUCCESS, minor.code);
+                assertEquals(0L, minor.data);
+                assertEquals(ServerResponse.UNDEFINED_ERROR, server.depositMinor(session, 1, new MoneyScale("USD", 3)).code);
+        }
+
+        @Test
+        public void primitiveOperations_ShouldFillResultWithoutBoxing() {
+                InMemoryServerConnection server = new InMemoryServerConnection(4, MoneyScale.CENTS);
+                server.addAccount("user1", "hash", 500);
+                long session = (Long) server.login("user1", "hash").data;
+                BalanceResult result = new BalanceResult();
+
+                assertEquals(ServerResponse.SUCCESS, server.withdraw(session, 2.5, result));
+                assertEquals(2.5, result.balance);
+                assertEquals(ServerResponse.NO_MONEY, server.withdraw(session, 3.0, result));
+                assertEquals(ServerResponse.NOT_LOGGED, server.getBalance(session + 1, result));
+        }
+
+        @Test
+        public void sessionZero_ShouldNeverResolveToAnAccount() {
+                InMemoryServerConnection server = new InMemoryServerConnection(4, MoneyScale.CENTS);
+                server.addAccount("user1", "hash", 500);
+                server.addAccount("user2", "hash", 700);
+                long session = (Long) server.login("user1", "hash").data;
+                server.login("user2", "hash");
+                server.logout(session);
+
+                assertEquals(ServerResponse.NOT_LOGGED, server.getBalance(0).code);
+                assertEquals(ServerResponse.NOT_LOGGED, server.withdraw(0, 1.0).code);
+                assertEquals(ServerResponse.NOT_LOGGED, server.withdraw(0, 1.0, new BalanceResult()));
+                assertEquals(ServerResponse.NOT_LOGGED, server.logout(0).code);
+                long again = (Long) server.login("user1", "hash").data;
+                assertEquals(5.0, server.getBalance(again).data);
+        }
+
+        @Test
+        public void longIntHashMap_ShouldNeverFindTheReservedKey() {
+                LongIntHashMap map = new LongIntHashMap(4);
+                map.put(1, 0);
+                map.put(2, 7);
+                map.remove(2);
+
+                assertEquals(LongIntHashMap.MISSING, map.get(0));
+                assertEquals(LongIntHashMap.MISSING, map.remove(0));
+                assertEquals(1, map.size());
+                assertEquals(0, map.get(1));
+        }
+
+        @Test
+        public void concurrentWithdrawals_ShouldNeverOverdraw() throws InterruptedException {
+                InMemoryServerConnection server = new InMemoryServerConnection(1, MoneyScale.CENTS);
+                server.addAccount("user1", "hash", 10_000);
+                long session = (Long) server.login("user1", "hash").data;
+                Thread[] threads = new Thread[8];
+                for (int t = 0; t < threads.length; t++) {
+                        threads[t] = new Thread(() -> {
+                                for (int i = 0; i < 1000; i++)
+                                        server.withdraw(session, 0.01);
+                        });
+                        threads[t].start();
+                }
+                for (Thread thread : threads)
+                        thread.join();
+                assertEquals(2000L, server.getBalanceMinor("user1"));
+        }
+
+        @Test
+        public void longIntHashMap_ShouldMatchReferenceMapUnderRandomChurn() {
+                LongIntHashMap map = new LongIntHashMap(4);
+                Map<Long, Integer> reference = new HashMap<>();
+                Random random = new Random(7);
+                for (int i = 0; i < 200_000; i++) {
+                        long key = 1 + random.nextInt(5_000);
+                        if (random.nextBoolean()) {
+                                Integer old = reference.put(key, i);
+                                assertEquals(old == null ? LongIntHashMap.MISSING : old, map.put(key, i));
+                        } else {
+                                Integer old = reference.remove(key);
+                                assertEquals(old == null ? LongIntHashMap.MISSING : old, map.remove(key));
+                        }
+                }
+                assertEquals(reference.size(), map.size());
+                for (Map.Entry<Long, Integer> e : reference.entrySet())
+                        assertEquals((int) e.getValue(), map.get(e.getKey()));
+        }
+}
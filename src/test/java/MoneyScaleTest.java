@@ -0,0 +1,55 @@
+import hw.okit.Account;
+import hw.okit.LocalOperationResponse;
+import hw.okit.MoneyScale;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MoneyScaleTest {
+
+        @Test
+        public void toMinor_ShouldRoundToNearestMinorUnit() {
+                MoneyScale usd = new MoneyScale("USD", 2);
+                assertEquals(1234L, usd.toMinor(12.34));
+                assertEquals(30L, usd.toMinor(0.1 + 0.2));
+                assertEquals(-5L, usd.toMinor(-0.05));
+                assertEquals(12.34, usd.toMajor(1234L));
+        }
+
+        @Test
+        public void arithmetic_ShouldThrowInsteadOfWrapping() {
+                assertThrows(ArithmeticException.class, () -> MoneyScale.add(Long.MAX_VALUE, 1));
+                assertThrows(ArithmeticException.class, () -> MoneyScale.subtract(Long.MIN_VALUE, 1));
+                assertThrows(ArithmeticException.class, () -> new MoneyScale("USD", 2).toMinor(1e18));
+                assertThrows(ArithmeticException.class, () -> new MoneyScale("USD", 2).toMinor(Double.NaN));
+        }
+
+        @Test
+        public void minorOperations_OverDoubleServer_ShouldCarryLongMinorUnits() throws Exception {
+                SlowInMemoryServer server = new SlowInMemoryServer(0);
+                Long session = (Long) server.login("user", "pass").data;
+                Account account = new Account();
+                setField(account, "activeSession", session);
+                setField(account, "serverConnection", server);
+                account.setMoneyScale(new MoneyScale("USD", 2));
+
+                LocalOperationResponse deposit = account.depositMinor(1010);
+                assertEquals(LocalOperationResponse.SUCCEED, deposit.code);
+                assertEquals(1010L, deposit.response);
+
+                LocalOperationResponse withdraw = account.withdrawMinor(2000);
+                assertEquals(LocalOperationResponse.NO_MONEY, withdraw.code);
+                assertEquals(1010L, withdraw.response);
+
+                account.withdrawMinor(10);
+                assertEquals(1000L, account.getBalanceMinor().response);
+        }
+
+        private static void setField(Object target, String name, Object value) throws Exception {
+                Field field = Account.class.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(target, value);
+        }
+}
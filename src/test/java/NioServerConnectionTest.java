@@ -0,0 +1,193 @@
+import hw.okit.Account;
+import hw.okit.AccountManager;
+import hw.okit.BalanceResult;
+import hw.okit.InMemoryServerConnection;
+import hw.okit.LocalOperationResponse;
+import hw.okit.MoneyScale;
+import hw.okit.NioServer;
+import hw.okit.NioServerConnection;
+import hw.okit.Operation;
+import hw.okit.ServerResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NioServerConnectionTest {
+
+        private final InMemoryServerConnection store = new InMemoryServerConnection(64, MoneyScale.CENTS);
+        private NioServer server;
+        private NioServerConnection connection;
+
+        @BeforeEach
+        public void setUp() throws Exception {
+                server = NioServer.start(store, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                connection = NioServerConnection.connect(server.getAddress());
+        }
+
+        @AfterEach
+        public void tearDown() throws Exception {
+                connection.close();
+                server.close();
+        }
+
+        private long open(String login) {
+                store.addAccount(login, "p", 10_000);
+                return (Long) connection.login(login, "p").data;
+        }
+
+        @Test
+        public void everyOperation_ShouldWorkOverTheSocket() {
+                long session = open("a");
+
+                assertEquals(150.0, connection.deposit(session, 50.0).data);
+                assertEquals(120.0, connection.withdraw(session, 30.0).data);
+                assertEquals(ServerResponse.NO_MONEY, connection.withdraw(session, 1_000.0).code);
+                assertEquals(120.0, connection.getBalance(session).data);
+                assertEquals(ServerResponse.SUCCESS, connection.logout(session).code);
+                assertEquals(ServerResponse.NOT_LOGGED, connection.getBalance(session).code);
+        }
+
+        @Test
+        public void pipelinedRequests_ShouldEachGetTheirOwnAnswer() {
+                List<Long> sessions = new ArrayList<>();
+                for (int i = 0; i < 8; i++)
+                        sessions.add(open("user" + i));
+                List<CompletableFuture<ServerResponse>> answers = new ArrayList<>();
+                for (int round = 0; round < 500; round++)
+                        for (int i = 0; i < sessions.size(); i++)
+                                answers.add(connection.async().deposit(sessions.get(i), i + 1));
+
+                for (CompletableFuture<ServerResponse> answer : answers)
+                        assertEquals(ServerResponse.SUCCESS, answer.join().code);
+                for (int i = 0; i < sessions.size(); i++)
+                        assertEquals(100.0 + 500 * (i + 1), connection.getBalance(sessions.get(i)).data);
+                assertEquals(0, connection.getPending());
+                // Запросы, накопившиеся между записями, уходят одной записью
+                assertTrue(connection.getWrites() < connection.getRequests());
+        }
+
+        @Test
+        public void concurrentCallers_ShouldShareTheConnection() throws InterruptedException {
+                long session = open("a");
+                Thread[] callers = new Thread[8];
+                for (int t = 0; t < callers.length; t++) {
+                        callers[t] = new Thread(() -> {
+                                for (int i = 0; i < 200; i++)
+                                        connection.deposit(session, 1.0);
+                        });
+                        callers[t].start();
+                }
+                for (Thread t : callers)
+                        t.join();
+
+                assertEquals(100.0 + 1_600, connection.getBalance(session).data);
+        }
+
+        @Test
+        public void batch_ShouldBePipelined() {
+                long session = open("a");
+                List<Operation> batch = List.of(Operation.deposit(session, 5.0), Operation.withdraw(session, 2.0),
+                        Operation.getBalance(session));
+
+                List<ServerResponse> responses = connection.executeBatch(batch);
+
+                assertEquals(103.0, responses.get(2).data);
+        }
+
+        @Test
+        public void lostServer_ShouldAnswerUnavailable() throws Exception {
+                long session = open("a");
+                server.close();
+
+                long deadline = System.currentTimeMillis() + 5_000;
+                ServerResponse response;
+                do {
+                        response = connection.getBalance(session);
+                } while (response.code != ServerResponse.UNAVAILABLE && System.currentTimeMillis() < deadline);
+                assertEquals(ServerResponse.UNAVAILABLE, response.code);
+        }
+
+        @Test
+        public void accountManager_ShouldRunOverTheTransport() throws Exception {
+                store.addAccount("a", "p", 10_000);
+                AccountManager manager = new AccountManager();
+                manager.AccountManager(connection, password -> password);
+                manager.setAsyncServerConnection(connection.async());
+                Account account = manager.login("a", "p");
+
+                assertEquals(LocalOperationResponse.SUCCEED, account.depositAsync(5.0).join().code);
+                assertEquals(105.0, account.getBalance().response);
+        }
+
+        @Test
+        public void badLengthPrefix_ShouldFailTheConnectionInsteadOfReading() throws Exception {
+                try (ServerSocket rogue = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                        NioServerConnection client = NioServerConnection.connect(
+                                new InetSocketAddress(InetAddress.getLoopbackAddress(), rogue.getLocalPort()));
+                        try (Socket peer = rogue.accept()) {
+                                CompletableFuture<ServerResponse> answer = CompletableFuture.supplyAsync(() -> client.getBalance(1L));
+                                // Длина больше любого ответа: без проверки клиент ждал бы этот кадр вечно
+                                DataOutputStream out = new DataOutputStream(peer.getOutputStream());
+                                out.writeInt(1 << 20);
+                                out.writeLong(0L);
+                                out.flush();
+
+                                assertEquals(ServerResponse.UNAVAILABLE, answer.get(5, TimeUnit.SECONDS).code);
+                        } finally {
+                                client.close();
+                        }
+                }
+        }
+
+        @Test
+        public void slowStoreCall_ShouldNotHoldUpOtherConnections() throws Exception {
+                CountDownLatch release = new CountDownLatch(1);
+                InMemoryServerConnection slowStore = new InMemoryServerConnection(8, MoneyScale.CENTS) {
+                        @Override
+                        public int withdraw(long session, double balance, BalanceResult result) {
+                                try {
+                                        release.await(10, TimeUnit.SECONDS);
+                                } catch (InterruptedException e) {
+                                        Thread.currentThread().interrupt();
+                                }
+                                return super.withdraw(session, balance, result);
+                        }
+                };
+                slowStore.addAccount("slow", "p", 10_000);
+                slowStore.addAccount("fast", "p", 10_000);
+                ExecutorService workers = Executors.newFixedThreadPool(2);
+                NioServer slowServer = NioServer.start(slowStore, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), workers);
+                NioServerConnection first = NioServerConnection.connect(slowServer.getAddress());
+                NioServerConnection second = NioServerConnection.connect(slowServer.getAddress());
+                try {
+                        long slow = (Long) first.login("slow", "p").data;
+                        long fast = (Long) second.login("fast", "p").data;
+                        CompletableFuture<ServerResponse> stuck = CompletableFuture.supplyAsync(() -> first.withdraw(slow, 1.0));
+
+                        assertEquals(101.0, second.deposit(fast, 1.0).data);
+                        assertFalse(stuck.isDone());
+                        release.countDown();
+                        assertEquals(99.0, stuck.get(5, TimeUnit.SECONDS).data);
+                } finally {
+                        first.close();
+                        second.close();
+                        slowServer.close();
+                        workers.shutdown();
+                }
+        }
+}
@@ -0,0 +1,179 @@
+import hw.okit.Account;
+import hw.okit.AccountManager;
+import hw.okit.InMemoryServerConnection;
+import hw.okit.LocalOperationResponse;
+import hw.okit.MoneyScale;
+import hw.okit.Operation;
+import hw.okit.OperationJournal;
+import hw.okit.ServerResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OperationJournalTest {
+
+        private final Path file;
+
+        public OperationJournalTest() throws Exception {
+                file = Files.createTempFile("operation-journal", ".wal");
+        }
+
+        @AfterEach
+        public void deleteFile() throws Exception {
+                Files.deleteIfExists(file);
+        }
+
+        @Test
+        public void recover_ShouldFindTheOperationWithoutOutcomeAndReconcileIt() throws Exception {
+                InMemoryServerConnection server = new InMemoryServerConnection(8, MoneyScale.CENTS);
+                server.addAccount("alice", "p", 10_000);
+                AccountManager manager = new AccountManager();
+                manager.AccountManager(server, password -> password);
+                OperationJournal journal = manager.enableJournal(file, 1 << 16, OperationJournal.FsyncPolicy.GROUP_COMMIT);
+                Account account = manager.login("alice", "p");
+                account.withdraw(10.0);
+                account.deposit(5.0);
+                // Имитация падения: намерение записано, ответа сервера нет
+                journal.intent(account.getActiveSession(), Operation.WITHDRAW, 20.0);
+                server.withdraw(account.getActiveSession(), 20.0);
+                journal.close();
+
+                OperationJournal.Recovery recovery = OperationJournal.recover(file);
+                List<OperationJournal.Pending> pending = recovery.pending();
+                assertEquals(1, pending.size());
+                assertEquals("alice", pending.get(0).login);
+                assertEquals(20.0, pending.get(0).amount);
+                assertEquals(95.0, recovery.lastKnownBalance("alice"));
+                assertEquals(1, recovery.reconcile("alice", 75.0));
+                assertEquals(0, recovery.reconcile("alice", 95.0));
+                assertEquals(-1, recovery.reconcile("alice", 12.0));
+        }
+
+        @Test
+        public void errorAnswers_ShouldNotBeRecoveredAsBalances() throws Exception {
+                InMemoryServerConnection server = new InMemoryServerConnection(8, MoneyScale.CENTS) {
+                        @Override
+                        public ServerResponse withdraw(long session, double balance) {
+                                // Ошибка возвращает запрошенную сумму, а не баланс
+                                return new ServerResponse(ServerResponse.UNDEFINED_ERROR, balance);
+                        }
+                };
+                server.addAccount("alice", "p", 10_000);
+                AccountManager manager = new AccountManager();
+                manager.AccountManager(server, password -> password);
+                OperationJournal journal = manager.enableJournal(file, 1 << 16, OperationJournal.FsyncPolicy.NONE);
+                Account account = manager.login("alice", "p");
+                account.deposit(5.0);
+                assertEquals(LocalOperationResponse.UNDEFINED_ERROR, account.withdraw(30.0).code);
+                long id = journal.intent(account.getActiveSession(), Operation.DEPOSIT, 1.0);
+                journal.outcome(id, LocalOperationResponse.INCORRECT_SESSION, 42.0);
+                journal.close();
+
+                assertEquals(105.0, OperationJournal.recover(file).lastKnownBalance("alice"));
+        }
+
+        @Test
+        public void recover_ShouldStopAtATornRecord() throws Exception {
+                OperationJournal journal = OperationJournal.open(file, 1 << 16, OperationJournal.FsyncPolicy.NONE);
+                journal.session(1L, "bob");
+                journal.intent(1L, Operation.DEPOSIT, 1.0);
+                long end = journal.size();
+                journal.intent(1L, Operation.DEPOSIT, 2.0);
+                journal.close();
+                try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+                        raw.seek(end + 12);
+                        raw.writeByte(0x7f);
+                }
+
+                List<OperationJournal.Pending> pending = OperationJournal.recover(file).pending();
+
+                assertEquals(1, pending.size());
+                assertEquals(1.0, pending.get(0).amount);
+        }
+
+        @Test
+        public void reopen_ShouldAppendAfterExistingRecords() throws Exception {
+                OperationJournal first = OperationJournal.open(file, 1 << 16, OperationJournal.FsyncPolicy.NONE);
+                first.session(7L, "carol");
+                long firstId = first.intent(7L, Operation.DEPOSIT, 1.0);
+                first.close();
+
+                OperationJournal second = OperationJournal.open(file, 1 << 16, OperationJournal.FsyncPolicy.NONE);
+                long secondId = second.intent(7L, Operation.DEPOSIT, 2.0);
+                second.close();
+
+                assertTrue(secondId > firstId);
+                assertEquals(2, OperationJournal.recover(file).pending().size());
+        }
+
+        @Test
+        public void groupCommit_ConcurrentWriters_ShouldAllBeRecovered() throws Exception {
+                OperationJournal journal = OperationJournal.open(file, 1 << 20, OperationJournal.FsyncPolicy.GROUP_COMMIT);
+                journal.session(1L, "dave");
+                int threads = 8, perThread = 200;
+                Thread[] writers = new Thread[threads];
+                for (int t = 0; t < threads; t++) {
+                        writers[t] = new Thread(() -> {
+                                for (int i = 0; i < perThread; i++)
+                                        journal.outcome(journal.intent(1L, Operation.DEPOSIT, 1.0), 0, i);
+                        });
+                        writers[t].start();
+                }
+                for (Thread w : writers)
+                        w.join();
+                journal.close();
+
+                assertTrue(journal.getForces() > 0);
+                assertEquals(0, OperationJournal.recover(file).pending().size());
+        }
+
+        @Test
+        public void fullJournal_ShouldCompactInsteadOfFailing() throws Exception {
+                InMemoryServerConnection server = new InMemoryServerConnection(8, MoneyScale.CENTS);
+                server.addAccount("erin", "p", 0);
+                AccountManager manager = new AccountManager();
+                manager.AccountManager(server, password -> password);
+                OperationJournal journal = manager.enableJournal(file, 4096, OperationJournal.FsyncPolicy.NONE);
+                Account account = manager.login("erin", "p");
+
+                // Сотни операций в журнале на 4 КБ
+                for (int i = 0; i < 500; i++)
+                        assertEquals(LocalOperationResponse.SUCCEED, account.deposit(1.0).code);
+                long open = journal.intent(account.getActiveSession(), Operation.WITHDRAW, 3.0);
+                journal.close();
+
+                assertTrue(journal.getCompactions() > 0);
+                OperationJournal.Recovery recovery = OperationJournal.recover(file);
+                assertEquals(500.0, recovery.lastKnownBalance("erin"));
+                assertEquals(1, recovery.pending().size());
+                assertEquals(open, recovery.pending().get(0).id);
+                assertEquals("erin", recovery.pending().get(0).login);
+        }
+
+        @Test
+        public void reopen_WithSmallerCapacity_ShouldCompactTheExistingRecords() throws Exception {
+                OperationJournal first = OperationJournal.open(file, 1 << 16, OperationJournal.FsyncPolicy.NONE);
+                first.session(3L, "frank");
+                for (int i = 0; i < 300; i++)
+                        first.outcome(first.intent(3L, Operation.DEPOSIT, 1.0), 0, i + 1);
+                long pending = first.intent(3L, Operation.DEPOSIT, 1.0);
+                first.close();
+                assertTrue(first.size() > 4096);
+
+                OperationJournal second = OperationJournal.open(file, 4096, OperationJournal.FsyncPolicy.NONE);
+                assertEquals(1, second.getCompactions());
+                assertTrue(second.size() < 4096);
+                second.outcome(pending, 0, 301);
+                second.close();
+
+                OperationJournal.Recovery recovery = OperationJournal.recover(file);
+                assertEquals(0, recovery.pending().size());
+                assertEquals(301.0, recovery.lastKnownBalance("frank"));
+        }
+}
@@ -0,0 +1,106 @@
+import hw.okit.Account;
+import hw.okit.AccountManager;
+import hw.okit.BalanceResult;
+import hw.okit.InMemoryServerConnection;
+import hw.okit.LatencyHistogram;
+import hw.okit.LocalOperationResponse;
+import hw.okit.MoneyScale;
+import hw.okit.OperationMetrics;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OperationMetricsTest {
+
+        private AccountManager manager(InMemoryServerConnection server) throws Exception {
+                AccountManager manager = new AccountManager();
+                manager.AccountManager(server, password -> password);
+                return manager;
+        }
+
+        @Test
+        public void operations_ShouldBeCountedByOutcomeAndTimed() throws Exception {
+                InMemoryServerConnection server = new InMemoryServerConnection(8, MoneyScale.CENTS);
+                server.addAccount("alice", "pw", 1000);
+                AccountManager manager = manager(server);
+                OperationMetrics metrics = manager.enableMetrics();
+
+                Account account = manager.login("alice", "pw");
+                account.deposit(5.0);
+                account.withdraw(100.0);
+                account.getBalance(new BalanceResult());
+
+                OperationMetrics.Snapshot snapshot = metrics.snapshot();
+                assertEquals(1, snapshot.count(OperationMetrics.LOGIN, LocalOperationResponse.SUCCEED));
+                assertEquals(1, snapshot.count(OperationMetrics.DEPOSIT, LocalOperationResponse.SUCCEED));
+                assertEquals(1, snapshot.count(OperationMetrics.WITHDRAW, LocalOperationResponse.NO_MONEY));
+                assertEquals(1, snapshot.count(OperationMetrics.GET_BALANCE, LocalOperationResponse.SUCCEED));
+                assertEquals(4, snapshot.serverLatency().count());
+                // Только вошедшие сессии: нетронутые записи каталога не считаются
+                assertEquals(1, snapshot.activeSessions());
+        }
+
+        @Test
+        public void answersWithoutServerCall_ShouldBeCountedButNotTimed() throws Exception {
+                InMemoryServerConnection server = new InMemoryServerConnection(8, MoneyScale.CENTS);
+                AccountManager manager = manager(server);
+                OperationMetrics metrics = manager.enableMetrics();
+
+                Account account = manager.login("nobody", "pw");
+                account.withdraw(1.0);
+
+                OperationMetrics.Snapshot snapshot = metrics.snapshot();
+                assertEquals(1, snapshot.count(OperationMetrics.LOGIN, LocalOperationResponse.NO_USER_INCORRECT_PASSWORD));
+                assertEquals(1, snapshot.count(OperationMetrics.WITHDRAW, LocalOperationResponse.NOT_LOGGED));
+                assertEquals(0, snapshot.serverLatency(OperationMetrics.WITHDRAW).count());
+        }
+
+        @Test
+        public void histogram_ShouldReportPercentilesWithinBucketPrecision() {
+                LatencyHistogram histogram = new LatencyHistogram();
+                for (long v = 1; v <= 1000; v++)
+                        histogram.record(v * 1000);
+
+                LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+                assertEquals(1000, snapshot.count());
+                assertEquals(1_000_000, snapshot.maxNanos());
+                assertEquals(500_000, snapshot.percentileNanos(0.5), 500_000 * 0.07);
+                assertEquals(990_000, snapshot.percentileNanos(0.99), 990_000 * 0.07);
+        }
+
+        @Test
+        public void activeSessions_ShouldCountOnlyLoggedInSessions() throws Exception {
+                InMemoryServerConnection server = new InMemoryServerConnection(8, MoneyScale.CENTS);
+                server.addAccount("carol", "pw", 0);
+                AccountManager manager = manager(server);
+                OperationMetrics metrics = manager.enableMetrics();
+                assertEquals(0, metrics.snapshot().activeSessions());
+
+                manager.login("carol", "pw");
+                assertEquals(1, metrics.snapshot().activeSessions());
+                manager.logoutAll();
+                assertEquals(0, metrics.snapshot().activeSessions());
+        }
+
+        @Test
+        public void register_ShouldExposeMetricsThroughJmx() throws Exception {
+                InMemoryServerConnection server = new InMemoryServerConnection(8, MoneyScale.CENTS);
+                server.addAccount("bob", "pw", 0);
+                AccountManager manager = manager(server);
+                OperationMetrics metrics = manager.enableMetrics();
+                manager.login("bob", "pw");
+
+                MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = metrics.register("register_ShouldExposeMetricsThroughJmx");
+                try {
+                        assertEquals(1, mbeans.getAttribute(name, "ActiveSessions"));
+                        assertEquals(1L, mbeans.getAttribute(name, "ServerCalls"));
+                } finally {
+                        mbeans.unregisterMBean(name);
+                }
+        }
+}
@@ -0,0 +1,94 @@
+import hw.okit.AccountManager;
+import hw.okit.IPasswordEncoder;
+import hw.okit.InMemoryServerConnection;
+import hw.okit.LocalOperationResponse;
+import hw.okit.MoneyScale;
+import hw.okit.OperationFailedException;
+import hw.okit.PasswordEncodingStage;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PasswordEncodingStageTest {
+
+        @Test
+        public void makeSecure_WithCache_ShouldEncodeRepeatedPasswordOnce() throws OperationFailedException {
+                AtomicInteger calls = new AtomicInteger();
+                IPasswordEncoder encoder = password -> {
+                        calls.incrementAndGet();
+                        return "enc:" + password;
+                };
+                PasswordEncodingStage stage = new PasswordEncodingStage(encoder, 1, 4).withCache(16, 1, TimeUnit.HOURS);
+
+                assertEquals("enc:secret", stage.makeSecure("secret"));
+                assertEquals("enc:secret", stage.makeSecure("secret"));
+                assertEquals("enc:other", stage.makeSecure("other"));
+
+                assertEquals(2, calls.get());
+                assertEquals(1, stage.getCacheHits());
+                assertEquals(2, stage.getEncoded());
+                stage.close();
+        }
+
+        @Test
+        public void encodeAsync_WhenQueueIsFull_ShouldShedWithEncodingError() throws InterruptedException {
+                CountDownLatch release = new CountDownLatch(1);
+                CountDownLatch started = new CountDownLatch(1);
+                IPasswordEncoder slow = password -> {
+                        started.countDown();
+                        try {
+                                release.await();
+                        } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                        }
+                        return password;
+                };
+                PasswordEncodingStage stage = new PasswordEncodingStage(slow, 1, 1);
+
+                CompletableFuture<String> running = stage.encodeAsync("a");
+                started.await();
+                CompletableFuture<String> queued = stage.encodeAsync("b");
+                CompletableFuture<String> shed = stage.encodeAsync("c");
+
+                assertEquals(1, stage.getQueueDepth());
+                CompletionException e = assertThrows(CompletionException.class, shed::join);
+                assertEquals(LocalOperationResponse.ENCODING_ERROR, ((OperationFailedException) e.getCause()).response.code);
+                assertEquals(1, stage.getRejected());
+
+                release.countDown();
+                assertEquals("a", running.join());
+                assertEquals("b", queued.join());
+                stage.close();
+        }
+
+        @Test
+        public void login_WhenEncodingIsShed_ShouldThrowAndRegisterEncodingError() throws Exception {
+                CountDownLatch release = new CountDownLatch(1);
+                IPasswordEncoder blocked = password -> {
+                        try {
+                                release.await();
+                        } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                        }
+                        return password;
+                };
+                AccountManager manager = new AccountManager();
+                manager.AccountManager(new InMemoryServerConnection(4, MoneyScale.CENTS), blocked);
+                PasswordEncodingStage stage = manager.enablePasswordEncodingStage(1, 1);
+                stage.encodeAsync("occupies the worker");
+                stage.encodeAsync("fills the queue");
+
+                OperationFailedException e = assertThrows(OperationFailedException.class,
+                        () -> manager.login("user", "password"));
+                assertEquals(LocalOperationResponse.ENCODING_ERROR, e.response.code);
+                assertEquals(1, manager.getFailureCount(LocalOperationResponse.ENCODING_ERROR));
+                release.countDown();
+                stage.close();
+        }
+}
@@ -0,0 +1,166 @@
+import hw.okit.IServerConnection;
+import hw.okit.InMemoryServerConnection;
+import hw.okit.MoneyScale;
+import hw.okit.PooledServerConnection;
+import hw.okit.ServerResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PooledServerConnectionTest {
+
+        // Local stand-in for one backend link: forwards to a shared server and can be switched off.
+        static class Link implements IServerConnection {
+                final IServerConnection server;
+                final AtomicInteger calls = new AtomicInteger();
+                volatile boolean down;
+                volatile CountDownLatch block;
+
+                Link(IServerConnection server) {
+                        this.server = server;
+                }
+
+                private void call() {
+                        calls.incrementAndGet();
+                        if (down)
+                                throw new IllegalStateException("link down");
+                        CountDownLatch latch = block;
+                        if (latch != null) {
+                                try {
+                                        latch.await();
+                                } catch (InterruptedException e) {
+                                        Thread.currentThread().interrupt();
+                                }
+                        }
+                }
+
+                public ServerResponse login(String userName, String mdPass) {
+                        call();
+                        return server.login(userName, mdPass);
+                }
+                public ServerResponse logout(long session) {
+                        call();
+                        return server.logout(session);
+                }
+                public ServerResponse withdraw(long session, double balance) {
+                        call();
+                        return server.withdraw(session, balance);
+                }
+                public ServerResponse deposit(long session, double balance) {
+                        call();
+                        return server.deposit(session, balance);
+                }
+                public ServerResponse getBalance(long session) {
+                        call();
+                        return server.getBalance(session);
+                }
+        }
+
+        private final InMemoryServerConnection server = new InMemoryServerConnection(64, MoneyScale.CENTS);
+        private final List<Link> created = new ArrayList<>();
+
+        private PooledServerConnection pool(int size, int maxInFlight) {
+                return new PooledServerConnection(() -> {
+                        Link link = new Link(server);
+                        created.add(link);
+                        return link;
+                }, size, maxInFlight);
+        }
+
+        private long open(PooledServerConnection pool, String login) {
+                server.addAccount(login, "p", 0);
+                return (Long) pool.login(login, "p").data;
+        }
+
+        @Test
+        public void sessionOperations_ShouldStickToOneLink() {
+                PooledServerConnection pool = pool(4, 8);
+                long session = open(pool, "a");
+                created.forEach(l -> l.calls.set(0));
+
+                for (int i = 0; i < 20; i++)
+                        assertEquals(ServerResponse.SUCCESS, pool.deposit(session, 1.0).code);
+
+                long used = created.stream().filter(l -> l.calls.get() > 0).count();
+                assertEquals(1, used);
+                assertEquals(20.0, pool.getBalance(session).data);
+        }
+
+        @Test
+        public void failingLink_ShouldBeTakenOutOfRotationAndReplacedByHealthCheck() {
+                PooledServerConnection pool = pool(2, 8);
+                long session = open(pool, "a");
+                Link home = null;
+                for (Link l : created) {
+                        l.calls.set(0);
+                }
+                pool.getBalance(session);
+                for (Link l : created)
+                        if (l.calls.get() > 0)
+                                home = l;
+                home.down = true;
+
+                // Три подряд ошибки выводят соединение из ротации
+                for (int i = 0; i < 3; i++)
+                        assertThrows(IllegalStateException.class, () -> pool.getBalance(session));
+                assertEquals(1, pool.getHealthyCount());
+                assertEquals(ServerResponse.SUCCESS, pool.getBalance(session).code);
+
+                pool.checkHealth();
+                assertEquals(3, created.size());
+                assertEquals(2, pool.getHealthyCount());
+        }
+
+        @Test
+        public void healthCheck_ShouldOnlyRunTheProbeItWasGiven() {
+                PooledServerConnection pool = pool(2, 8);
+                for (Link l : created)
+                        l.calls.set(0);
+
+                // Без пробы проверка ничего не отправляет на сервер
+                pool.checkHealth();
+                for (Link l : created)
+                        assertEquals(0, l.calls.get());
+
+                AtomicInteger probed = new AtomicInteger();
+                pool.setHealthProbe(c -> {
+                        probed.incrementAndGet();
+                        return c != created.get(0);
+                });
+                pool.checkHealth();
+                assertEquals(3, probed.get());
+                assertEquals(3, created.size());
+                assertEquals(2, pool.getHealthyCount());
+                for (Link l : created)
+                        assertEquals(0, l.calls.get());
+        }
+
+        @Test
+        public void saturatedLink_ShouldSpillOverToTheLeastLoadedOne() throws InterruptedException {
+                PooledServerConnection pool = pool(2, 1);
+                long session = open(pool, "a");
+                for (Link l : created)
+                        l.calls.set(0);
+                pool.getBalance(session);
+                Link home = created.get(0).calls.get() > 0 ? created.get(0) : created.get(1);
+                Link other = home == created.get(0) ? created.get(1) : created.get(0);
+
+                CountDownLatch release = new CountDownLatch(1);
+                home.block = release;
+                Thread holder = new Thread(() -> pool.getBalance(session));
+                holder.start();
+                while (home.calls.get() < 2)
+                        Thread.sleep(1);
+
+                assertEquals(ServerResponse.SUCCESS, pool.getBalance(session).code);
+                assertEquals(1, other.calls.get());
+
+                release.countDown();
+                holder.join();
+        }
+}
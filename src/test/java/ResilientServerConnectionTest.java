@@ -0,0 +1,161 @@
+import hw.okit.Account;
+import hw.okit.AccountManager;
+import hw.okit.LocalOperationResponse;
+import hw.okit.OperationMetrics;
+import hw.okit.ResilientServerConnection;
+import hw.okit.ServerResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResilientServerConnectionTest {
+
+        private final FaultInjectingServer server = new FaultInjectingServer();
+        private final AtomicLong now = new AtomicLong(1);
+
+        private ResilientServerConnection breaker() {
+                return new ResilientServerConnection(server, now::get)
+                        .withFailureRate(0.5, 4)
+                        .withOpenState(1, TimeUnit.SECONDS, 2);
+        }
+
+        @Test
+        public void failures_ShouldOpenTheBreakerAndFailFast() {
+                long session = server.open("a");
+                ResilientServerConnection resilient = breaker();
+                server.failNext.set(2);
+
+                for (int i = 0; i < 4; i++)
+                        resilient.getBalance(session);
+                assertEquals(ResilientServerConnection.OPEN, resilient.getState());
+
+                int callsBefore = server.calls.get();
+                ServerResponse response = resilient.getBalance(session);
+                assertEquals(ServerResponse.UNAVAILABLE, response.code);
+                assertEquals(callsBefore, server.calls.get());
+                assertEquals(1, resilient.getRejected());
+        }
+
+        @Test
+        public void successfulProbes_ShouldCloseTheBreaker() {
+                long session = server.open("a");
+                ResilientServerConnection resilient = breaker();
+                server.failNext.set(4);
+                for (int i = 0; i < 4; i++)
+                        resilient.getBalance(session);
+
+                now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+                assertEquals(ResilientServerConnection.HALF_OPEN, resilient.getState());
+                assertEquals(ServerResponse.SUCCESS, resilient.getBalance(session).code);
+                assertEquals(ServerResponse.SUCCESS, resilient.getBalance(session).code);
+
+                assertEquals(ResilientServerConnection.CLOSED, resilient.getState());
+        }
+
+        @Test
+        public void failedProbe_ShouldReopenTheBreaker() {
+                long session = server.open("a");
+                ResilientServerConnection resilient = breaker();
+                server.failNext.set(5);
+                for (int i = 0; i < 4; i++)
+                        resilient.getBalance(session);
+
+                now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+                assertEquals(ServerResponse.UNDEFINED_ERROR, resilient.getBalance(session).code);
+
+                assertEquals(ResilientServerConnection.OPEN, resilient.getState());
+                assertEquals(2, resilient.getTrips());
+        }
+
+        @Test
+        public void slowCalls_ShouldOpenTheBreaker() {
+                long session = server.open("a");
+                ResilientServerConnection resilient = new ResilientServerConnection(server, () -> now.addAndGet(TimeUnit.MILLISECONDS.toNanos(30)))
+                        .withFailureRate(0.5, 4)
+                        .withSlowCallRate(20, TimeUnit.MILLISECONDS, 0.5);
+
+                for (int i = 0; i < 4; i++)
+                        assertEquals(ServerResponse.SUCCESS, resilient.getBalance(session).code);
+
+                assertEquals(ResilientServerConnection.OPEN, resilient.getState());
+        }
+
+        @Test
+        public void hangingCall_ShouldBeCutOffAtTheDeadline() {
+                long session = server.open("a");
+                ResilientServerConnection resilient = new ResilientServerConnection(server)
+                        .withDeadline(OperationMetrics.DEPOSIT, 1, 50, TimeUnit.MILLISECONDS);
+                server.hangMillis = 2_000;
+
+                long start = System.nanoTime();
+                ServerResponse response = resilient.deposit(session, 1.0);
+
+                assertEquals(ServerResponse.UNAVAILABLE, response.code);
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+                assertEquals(1, resilient.getTimeouts());
+                resilient.close();
+        }
+
+        @Test
+        public void slowerServer_ShouldBackOffTheDeadlineUntilTheBreakerCloses() throws Exception {
+                long session = server.open("a");
+                ResilientServerConnection resilient = new ResilientServerConnection(server)
+                        .withDeadline(OperationMetrics.DEPOSIT, 5, 2_000, TimeUnit.MILLISECONDS)
+                        .withFailureRate(0.5, 4)
+                        .withOpenState(10, TimeUnit.MILLISECONDS, 1);
+                for (int i = 0; i < 8; i++)
+                        resilient.deposit(session, 1.0);
+                long fast = resilient.getDeadlineNanos(OperationMetrics.DEPOSIT);
+                server.hangMillis = 200;
+
+                for (int i = 0; i < 4; i++)
+                        resilient.deposit(session, 1.0);
+                assertEquals(ResilientServerConnection.OPEN, resilient.getState());
+                // Каждый таймаут удваивает срок, иначе пробные вызовы упирались бы в прежний
+                assertTrue(resilient.getDeadlineNanos(OperationMetrics.DEPOSIT) >= 16 * fast);
+
+                for (int probe = 0; probe < 8 && resilient.getState() != ResilientServerConnection.CLOSED; probe++) {
+                        Thread.sleep(20);
+                        resilient.deposit(session, 1.0);
+                }
+                assertEquals(ResilientServerConnection.CLOSED, resilient.getState());
+                resilient.close();
+        }
+
+        @Test
+        public void fullDeadlinePool_ShouldRejectInsteadOfStartingThreads() {
+                long session = server.open("a");
+                ResilientServerConnection resilient = new ResilientServerConnection(server)
+                        .withDeadline(OperationMetrics.DEPOSIT, 1, 50, TimeUnit.MILLISECONDS)
+                        .withDeadlineThreads(1);
+                server.hangMillis = 2_000;
+
+                // Первый вызов держит единственный поток, пока сервер не ответит
+                assertEquals(ServerResponse.UNAVAILABLE, resilient.deposit(session, 1.0).code);
+                int callsBefore = server.calls.get();
+                ServerResponse response = resilient.deposit(session, 1.0);
+
+                assertEquals(ServerResponse.UNAVAILABLE, response.code);
+                assertEquals(callsBefore, server.calls.get());
+                assertEquals(1, resilient.getRejected());
+                assertEquals(1, resilient.getTimeouts());
+                resilient.close();
+        }
+
+        @Test
+        public void account_WhenBreakerIsOpen_ShouldAnswerServiceUnavailable() throws Exception {
+                server.addAccount("user", "p", 0);
+                AccountManager manager = new AccountManager();
+                manager.AccountManager(server, password -> password);
+                manager.enableCircuitBreaker().withFailureRate(0.5, 2);
+                Account account = manager.login("user", "p");
+                server.failNext.set(2);
+                account.deposit(1.0);
+                account.deposit(1.0);
+
+                assertEquals(LocalOperationResponse.SERVICE_UNAVAILABLE, account.deposit(1.0).code);
+        }
+}
@@ -0,0 +1,157 @@
+import hw.okit.Account;
+import hw.okit.AccountManager;
+import hw.okit.AdmissionControl;
+import hw.okit.BalanceCache;
+import hw.okit.BalanceResult;
+import hw.okit.InMemoryServerConnection;
+import hw.okit.LocalOperationResponse;
+import hw.okit.MoneyScale;
+import hw.okit.Operation;
+import hw.okit.ServerResponse;
+import hw.okit.SessionLifecycleManager;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionLifecycleManagerTest {
+
+        private final InMemoryServerConnection server = new InMemoryServerConnection(1024, MoneyScale.CENTS);
+
+        private AccountManager manager() throws Exception {
+                AccountManager manager = new AccountManager();
+                manager.AccountManager(server, password -> password);
+                return manager;
+        }
+
+        @Test
+        public void idleSession_ShouldBeLoggedOutWhileActiveOneStays() throws Exception {
+                server.addAccount("idle", "p", 0);
+                server.addAccount("busy", "p", 0);
+                AccountManager manager = manager();
+                SessionLifecycleManager lifecycle = manager.enableIdleEviction(200, TimeUnit.MILLISECONDS);
+                Account idle = manager.login("idle", "p");
+                Account busy = manager.login("busy", "p");
+
+                long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+                while (System.nanoTime() < end) {
+                        busy.deposit(1.0);
+                        Thread.sleep(10);
+                }
+                lifecycle.expireIdle();
+
+                assertEquals(1, lifecycle.getEvicted());
+                assertEquals(1, server.getOpenSessions());
+                assertEquals(LocalOperationResponse.NOT_LOGGED, idle.deposit(1.0).code);
+                assertEquals(LocalOperationResponse.SUCCEED, busy.deposit(1.0).code);
+                lifecycle.close();
+        }
+
+        @Test
+        public void logoutAll_ShouldCloseEverySessionInParallelBatches() throws Exception {
+                AccountManager manager = manager();
+                for (int i = 0; i < 600; i++) {
+                        server.addAccount("u" + i, "p", 0);
+                        manager.login("u" + i, "p");
+                }
+                assertEquals(600, server.getOpenSessions());
+
+                assertEquals(600, manager.logoutAll());
+                assertEquals(0, server.getOpenSessions());
+                assertEquals(0, manager.logoutAll());
+        }
+
+        @Test
+        public void churn_ShouldNotGrowTheWheel() throws Exception {
+                AccountManager manager = manager();
+                SessionLifecycleManager lifecycle = manager.enableIdleEviction(64, TimeUnit.MILLISECONDS);
+                for (int i = 0; i < 100; i++)
+                        server.addAccount("c" + i, "p", 0);
+
+                // Каждый раунд заново открывает те же логины; заменённые и простаивающие сессии колесо должно забывать
+                for (int round = 0; round < 5; round++) {
+                        for (int i = 0; i < 100; i++) {
+                                Account a = manager.login("c" + i, "p");
+                                a.deposit(1.0);
+                        }
+                        Thread.sleep(150);
+                        lifecycle.expireIdle();
+                }
+
+                assertEquals(0, lifecycle.getTracked());
+                assertEquals(0, server.getOpenSessions());
+                lifecycle.close();
+        }
+
+        @Test
+        public void eviction_ShouldReleaseTheAdmissionBucket() throws Exception {
+                server.addAccount("idle", "p", 0);
+                AccountManager manager = manager();
+                AdmissionControl admission = manager.enableAdmissionControl(1_000, 5, 10_000, 50);
+                SessionLifecycleManager lifecycle = manager.enableIdleEviction(100, TimeUnit.MILLISECONDS);
+                Account idle = manager.login("idle", "p");
+                idle.deposit(1.0);
+                assertEquals(1, admission.getTrackedLogins());
+
+                Thread.sleep(300);
+                lifecycle.expireIdle();
+
+                assertEquals(1, lifecycle.getEvicted());
+                assertEquals(0, admission.getTrackedLogins());
+                lifecycle.close();
+        }
+
+        @Test
+        public void throwingConnection_ShouldFailOnlyItsOwnLogouts() throws Exception {
+                AtomicLong brokenSession = new AtomicLong();
+                InMemoryServerConnection flaky = new InMemoryServerConnection(16, MoneyScale.CENTS) {
+                        @Override
+                        public List<ServerResponse> executeBatch(List<Operation> operations) {
+                                for (Operation o : operations)
+                                        if (o.session == brokenSession.get())
+                                                throw new IllegalStateException("connection reset");
+                                return super.executeBatch(operations);
+                        }
+                };
+                flaky.addAccount("broken", "p", 0);
+                flaky.addAccount("fine", "p", 0);
+                AccountManager manager = new AccountManager();
+                manager.AccountManager(flaky, password -> password);
+                Account broken = manager.login("broken", "p");
+                brokenSession.set(broken.getActiveSession());
+                // Второй вход идёт через другое соединение, поэтому выход уходит отдельным пакетом
+                manager.enableCircuitBreaker();
+                Account fine = manager.login("fine", "p");
+
+                assertEquals(2, manager.logoutAll());
+
+                assertEquals(1, flaky.getOpenSessions());
+                assertNull(fine.getActiveSession());
+                assertNull(broken.getActiveSession());
+        }
+
+        @Test
+        public void evictionDuringAnOperation_ShouldAnswerNotLoggedInsteadOfThrowing() throws Exception {
+                server.addAccount("racer", "p", 1_000);
+                TestableAccount account = new TestableAccount();
+                account.callLogin(server, "racer", "p");
+                // Выселение срабатывает между проверкой сессии и вызовом сервера
+                account.setBalanceCache(new BalanceCache(0, TimeUnit.SECONDS) {
+                        @Override
+                        public double lookup() {
+                                server.logout(account.getActiveSession());
+                                account.setActiveSession(null);
+                                return Double.NaN;
+                        }
+                });
+
+                assertEquals(LocalOperationResponse.NOT_LOGGED, account.getBalance().code);
+                account.callLogin(server, "racer", "p");
+                assertEquals(LocalOperationResponse.NOT_LOGGED, account.getBalanceAsync().join().code);
+                account.callLogin(server, "racer", "p");
+                assertEquals(LocalOperationResponse.NOT_LOGGED, account.getBalance(new BalanceResult()));
+        }
+}
@@ -0,0 +1,109 @@
+import hw.okit.Account;
+import hw.okit.AccountDirectory;
+import hw.okit.IServerConnection;
+import hw.okit.InMemoryServerConnection;
+import hw.okit.LocalOperationResponse;
+import hw.okit.MoneyScale;
+import hw.okit.OperationMetrics;
+import hw.okit.ShardedAccountManager;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardedAccountManagerTest {
+
+        private final InMemoryServerConnection server = new InMemoryServerConnection(64, MoneyScale.CENTS);
+
+        @Test
+        public void logins_ShouldSpreadEvenlyAndStayPut() throws Exception {
+                ShardedAccountManager manager = new ShardedAccountManager(4, server, password -> password);
+                int[] perShard = new int[4];
+                for (int i = 0; i < 40_000; i++)
+                        perShard[manager.shardOf("user-" + i)]++;
+
+                for (int n : perShard)
+                        assertTrue(n > 7_000 && n < 13_000, "shard load " + n);
+                assertEquals(manager.shardOf("alice"), manager.shardOf("alice"));
+        }
+
+        @Test
+        public void addingAShard_ShouldMoveFewLogins() throws Exception {
+                ShardedAccountManager four = new ShardedAccountManager(4, server, password -> password);
+                ShardedAccountManager five = new ShardedAccountManager(5, server, password -> password);
+                int moved = 0;
+                for (int i = 0; i < 10_000; i++) {
+                        String login = "user-" + i;
+                        if (four.shardOf(login) != five.shardOf(login))
+                                moved++;
+                }
+                // Консистентное хеширование переносит около 1/5 логинов, а не почти все
+                assertTrue(moved < 3_000, "moved " + moved);
+        }
+
+        @Test
+        public void login_ShouldUseTheShardsOwnConnection() throws Exception {
+                InMemoryServerConnection[] servers = new InMemoryServerConnection[3];
+                for (int i = 0; i < servers.length; i++)
+                        servers[i] = new InMemoryServerConnection(8, MoneyScale.CENTS);
+                ShardedAccountManager manager = new ShardedAccountManager((IServerConnection[]) servers, password -> password);
+                servers[manager.shardOf("bob")].addAccount("bob", "p", 500);
+
+                Account account = manager.login("bob", "p");
+
+                assertEquals(LocalOperationResponse.SUCCEED, account.getBalance().code);
+                assertEquals(5.0, account.getBalance().response);
+        }
+
+        @Test
+        public void failuresAndMetrics_ShouldBeAggregated() throws Exception {
+                ShardedAccountManager manager = new ShardedAccountManager(4, server, password -> password);
+                manager.enableMetrics();
+                for (int i = 0; i < 20; i++) {
+                        server.addAccount("user-" + i, "p", 0);
+                        manager.login("user-" + i, "p");
+                }
+                manager.logout(null);
+                manager.login(null, "p");
+
+                assertEquals(2, manager.getExceptions().size());
+                assertEquals(2, manager.getFailureCount(LocalOperationResponse.NULL_ARGUMENT));
+                OperationMetrics.Snapshot metrics = manager.getMetricsSnapshot();
+                assertEquals(20, metrics.count(OperationMetrics.LOGIN, LocalOperationResponse.SUCCEED));
+                assertEquals(20, manager.logoutAll());
+        }
+
+        @Test
+        public void directory_ShouldBeSplitAlongTheRing() throws Exception {
+                ShardedAccountManager manager = new ShardedAccountManager(4, server, password -> password);
+                String[] logins = new String[1_000];
+                for (int i = 0; i < logins.length; i++)
+                        logins[i] = "user-" + i;
+                AccountDirectory directory = AccountDirectory.of(logins);
+                manager.setAccountDirectory(directory);
+
+                int total = 0;
+                for (int s = 0; s < 4; s++) {
+                        AccountDirectory part = manager.getShard(s).getAccountDirectory();
+                        total += part.size();
+                        // Представление хранит лишь индекс, строки остаются в общем отображении
+                        assertTrue(part.getIndexBytes() < 3 * directory.getIndexBytes());
+                }
+                // Каждый логин справочника достаётся ровно одному шарду
+                assertEquals(1_000, total);
+                boolean[][] seen = new boolean[4][];
+                for (int s = 0; s < 4; s++)
+                        seen[s] = new boolean[manager.getShard(s).getAccountDirectory().size()];
+                for (String login : logins)
+                        for (int s = 0; s < 4; s++) {
+                                int i = manager.getShard(s).getAccountDirectory().indexOf(login);
+                                assertEquals(s == manager.shardOf(login), i >= 0, login);
+                                if (i >= 0)
+                                        seen[s][i] = true;
+                        }
+                for (boolean[] part : seen)
+                        for (boolean b : part)
+                                assertTrue(b);
+                manager.enableMetrics();
+                assertEquals(0, manager.getMetricsSnapshot().activeSessions());
+        }
+}
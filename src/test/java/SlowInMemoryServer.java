@@ -0,0 +1,65 @@
+import hw.okit.IServerConnection;
+import hw.okit.ServerResponse;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// In-memory server that sleeps on every call to imitate a remote round trip.
+class SlowInMemoryServer implements IServerConnection {
+        private final long latencyMillis;
+        private final AtomicLong sessions = new AtomicLong();
+        private final ConcurrentHashMap<Long, Double> balances = new ConcurrentHashMap<>();
+
+        SlowInMemoryServer(long latencyMillis) {
+                this.latencyMillis = latencyMillis;
+        }
+
+        public ServerResponse login(String userName, String mdPass) {
+                pause();
+                long session = sessions.incrementAndGet();
+                balances.put(session, 0.0);
+                return new ServerResponse(ServerResponse.SUCCESS, session);
+        }
+
+        public ServerResponse logout(long session) {
+                pause();
+                return balances.remove(session) == null
+                        ? new ServerResponse(ServerResponse.NOT_LOGGED, null)
+                        : new ServerResponse(ServerResponse.SUCCESS, null);
+        }
+
+        public ServerResponse withdraw(long session, double balance) {
+                pause();
+                Double current = balances.get(session);
+                if (current == null)
+                        return new ServerResponse(ServerResponse.NOT_LOGGED, null);
+                if (current < balance)
+                        return new ServerResponse(ServerResponse.NO_MONEY, current);
+                Double updated = balances.merge(session, -balance, Double::sum);
+                return new ServerResponse(ServerResponse.SUCCESS, updated);
+        }
+
+        public ServerResponse deposit(long session, double balance) {
+                pause();
+                Double updated = balances.computeIfPresent(session, (k, v) -> v + balance);
+                return updated == null
+                        ? new ServerResponse(ServerResponse.NOT_LOGGED, null)
+                        : new ServerResponse(ServerResponse.SUCCESS, updated);
+        }
+
+        public ServerResponse getBalance(long session) {
+                pause();
+                Double current = balances.get(session);
+                return current == null
+                        ? new ServerResponse(ServerResponse.NOT_LOGGED, null)
+                        : new ServerResponse(ServerResponse.SUCCESS, current);
+        }
+
+        private void pause() {
+                try {
+                        Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                }
+        }
+}
@@ -1,4 +1,5 @@
 import hw.okit.Account;
+import hw.okit.BalanceCache;
 import hw.okit.IServerConnection;
 import hw.okit.LocalOperationResponse;
 
@@ -36,5 +37,9 @@ class TestableAccount extends Account {
                 this.activeSession = sessionId;
         }
 
+        public void setBalanceCache(BalanceCache balanceCache) {
+                this.balanceCache = balanceCache;
+        }
+
 
 }
\ No newline at end of file
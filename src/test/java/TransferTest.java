@@ -0,0 +1,213 @@
+import hw.okit.Account;
+import hw.okit.AccountManager;
+import hw.okit.IServerConnection;
+import hw.okit.InMemoryServerConnection;
+import hw.okit.LocalOperationResponse;
+import hw.okit.LoopbackServerConnection;
+import hw.okit.MoneyScale;
+import hw.okit.Operation;
+import hw.okit.OperationMetrics;
+import hw.okit.ServerResponse;
+import hw.okit.Transfer;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransferTest {
+
+        // Counts what reaches the server: single calls by kind, and batches.
+        static class CountingServer extends InMemoryServerConnection {
+                final AtomicInteger withdraws = new AtomicInteger();
+                final AtomicInteger deposits = new AtomicInteger();
+                final AtomicInteger transfers = new AtomicInteger();
+                final AtomicInteger batches = new AtomicInteger();
+
+                CountingServer() {
+                        super(16, MoneyScale.CENTS);
+                }
+
+                @Override
+                public ServerResponse withdraw(long session, double balance) {
+                        withdraws.incrementAndGet();
+                        return super.withdraw(session, balance);
+                }
+
+                @Override
+                public ServerResponse deposit(long session, double balance) {
+                        deposits.incrementAndGet();
+                        return super.deposit(session, balance);
+                }
+
+                @Override
+                public ServerResponse transfer(long fromSession, long toSession, double amount) {
+                        transfers.incrementAndGet();
+                        return super.transfer(fromSession, toSession, amount);
+                }
+
+                @Override
+                public List<ServerResponse> executeBatch(List<Operation> operations) {
+                        batches.incrementAndGet();
+                        return super.executeBatch(operations);
+                }
+        }
+
+        // Only the five basic calls, so transfer falls back to the interface default.
+        static class BasicServer implements IServerConnection {
+                final InMemoryServerConnection store = new InMemoryServerConnection(16, MoneyScale.CENTS);
+
+                public ServerResponse login(String userName, String mdPass) {
+                        return store.login(userName, mdPass);
+                }
+                public ServerResponse logout(long session) {
+                        return store.logout(session);
+                }
+                public ServerResponse withdraw(long session, double balance) {
+                        return store.withdraw(session, balance);
+                }
+                public ServerResponse deposit(long session, double balance) {
+                        return store.deposit(session, balance);
+                }
+                public ServerResponse getBalance(long session) {
+                        return store.getBalance(session);
+                }
+        }
+
+        private static AccountManager manager(IServerConnection server) throws Exception {
+                AccountManager manager = new AccountManager();
+                manager.AccountManager(server, password -> password);
+                return manager;
+        }
+
+        @Test
+        public void transfer_ShouldTakeOneServerCall() throws Exception {
+                CountingServer server = new CountingServer();
+                server.addAccount("alice", "p", 10_000);
+                server.addAccount("bob", "p", 500);
+                AccountManager manager = manager(server);
+                manager.enableMetrics();
+                Account alice = manager.login("alice", "p");
+                Account bob = manager.login("bob", "p");
+
+                LocalOperationResponse result = manager.transfer(alice, bob, 30.0);
+
+                assertEquals(LocalOperationResponse.SUCCEED, result.code);
+                assertEquals(70.0, result.response);
+                assertEquals(1, server.transfers.get());
+                assertEquals(0, server.withdraws.get() + server.deposits.get());
+                assertEquals(7_000, server.getBalanceMinor("alice"));
+                assertEquals(3_500, server.getBalanceMinor("bob"));
+                assertEquals(1, manager.getMetrics().getCount(OperationMetrics.TRANSFER, LocalOperationResponse.SUCCEED));
+        }
+
+        @Test
+        public void transferWithoutFunds_ShouldMoveNothing() throws Exception {
+                CountingServer server = new CountingServer();
+                server.addAccount("alice", "p", 1_000);
+                server.addAccount("bob", "p", 0);
+                AccountManager manager = manager(server);
+                Account alice = manager.login("alice", "p");
+                Account bob = manager.login("bob", "p");
+
+                LocalOperationResponse result = manager.transfer(alice, bob, 50.0);
+
+                assertEquals(LocalOperationResponse.NO_MONEY, result.code);
+                assertEquals(1_000, server.getBalanceMinor("alice"));
+                assertEquals(0, server.getBalanceMinor("bob"));
+        }
+
+        @Test
+        public void defaultTransfer_ShouldPutTheMoneyBackWhenTheDepositIsRefused() {
+                BasicServer server = new BasicServer();
+                server.store.addAccount("alice", "p", 10_000);
+                server.store.addAccount("bob", "p", 0);
+                long alice = (Long) server.login("alice", "p").data;
+                long bob = (Long) server.login("bob", "p").data;
+
+                assertEquals(ServerResponse.SUCCESS, server.transfer(alice, bob, 40.0).code);
+                assertEquals(6_000, server.store.getBalanceMinor("alice"));
+                assertEquals(4_000, server.store.getBalanceMinor("bob"));
+
+                // Получатель вышел: списание должно быть возвращено
+                server.logout(bob);
+                assertEquals(ServerResponse.NOT_LOGGED, server.transfer(alice, bob, 10.0).code);
+                assertEquals(6_000, server.store.getBalanceMinor("alice"));
+        }
+
+        @Test
+        public void transferAll_ShouldSendOneBatchPerConnection() throws Exception {
+                CountingServer server = new CountingServer();
+                server.addAccount("alice", "p", 10_000);
+                server.addAccount("bob", "p", 10_000);
+                server.addAccount("carol", "p", 0);
+                AccountManager manager = manager(server);
+                Account alice = manager.login("alice", "p");
+                Account bob = manager.login("bob", "p");
+                Account carol = manager.login("carol", "p");
+                Account loggedOut = new Account();
+
+                List<LocalOperationResponse> results = manager.transferAll(Arrays.asList(
+                        new Transfer(alice, carol, 10.0),
+                        new Transfer(loggedOut, carol, 1.0),
+                        new Transfer(bob, carol, 20.0),
+                        new Transfer(carol, alice, 500.0)));
+
+                assertEquals(1, server.batches.get());
+                assertEquals(0, server.transfers.get());
+                assertEquals(LocalOperationResponse.SUCCEED, results.get(0).code);
+                assertEquals(90.0, results.get(0).response);
+                assertEquals(LocalOperationResponse.NOT_LOGGED, results.get(1).code);
+                assertEquals(80.0, results.get(2).response);
+                assertEquals(LocalOperationResponse.NO_MONEY, results.get(3).code);
+                assertEquals(3_000, server.getBalanceMinor("carol"));
+        }
+
+        @Test
+        public void transferAcrossConnections_ShouldFallBackToWithdrawAndDeposit() throws Exception {
+                CountingServer first = new CountingServer();
+                CountingServer second = new CountingServer();
+                first.addAccount("alice", "p", 10_000);
+                second.addAccount("bob", "p", 0);
+                Account alice = manager(first).login("alice", "p");
+                AccountManager manager = manager(second);
+                Account bob = manager.login("bob", "p");
+
+                LocalOperationResponse result = manager.transfer(alice, bob, 25.0);
+
+                assertEquals(LocalOperationResponse.SUCCEED, result.code);
+                assertEquals(75.0, result.response);
+                assertEquals(0, first.transfers.get() + second.transfers.get());
+                assertEquals(7_500, first.getBalanceMinor("alice"));
+                assertEquals(2_500, second.getBalanceMinor("bob"));
+        }
+
+        @Test
+        public void transfer_ShouldTravelAsOneWireRequest() {
+                CountingServer server = new CountingServer();
+                LoopbackServerConnection loopback = new LoopbackServerConnection(server);
+                server.addAccount("alice", "p", 10_000);
+                server.addAccount("bob", "p", 0);
+                long alice = (Long) loopback.login("alice", "p").data;
+                long bob = (Long) loopback.login("bob", "p").data;
+                long sent = loopback.getBytesSent();
+
+                ServerResponse response = loopback.transfer(alice, bob, 12.5);
+
+                assertEquals(ServerResponse.SUCCESS, response.code);
+                assertEquals(87.5, response.data);
+                assertEquals(1, server.transfers.get());
+                assertEquals(25, loopback.getBytesSent() - sent);
+                assertEquals(1_250, server.getBalanceMinor("bob"));
+        }
+
+        @Test
+        public void transferWithNullAccount_ShouldRegisterFailure() throws Exception {
+                AccountManager manager = manager(new CountingServer());
+
+                assertEquals(LocalOperationResponse.NULL_ARGUMENT, manager.transfer(null, new Account(), 1.0).code);
+                assertEquals(1, manager.getFailureCount(LocalOperationResponse.NULL_ARGUMENT));
+        }
+}
@@ -0,0 +1,72 @@
+import hw.okit.Account;
+import hw.okit.AccountManager;
+import hw.okit.ExecutionMode;
+import hw.okit.InMemoryServerConnection;
+import hw.okit.LocalOperationResponse;
+import hw.okit.MoneyScale;
+import hw.okit.OperationFailedException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VirtualThreadLoadTest {
+
+        private static final int SESSIONS = 10_000;
+        private static final long LATENCY_MILLIS = 50;
+        private static final int PLATFORM_THREADS = 1_000;
+
+        @Test
+        public void tenThousandConcurrentSessions_ShouldCompleteInRoughlyOneRoundTripEach() throws OperationFailedException {
+                InMemoryServerConnection server = new InMemoryServerConnection(SESSIONS, MoneyScale.CENTS);
+                for (int i = 0; i < SESSIONS; i++)
+                        server.addAccount("load-" + i, "password", 100 * i);
+                server.setLatency(LATENCY_MILLIS, TimeUnit.MILLISECONDS);
+                AccountManager manager = new AccountManager();
+                manager.AccountManager(server, password -> password);
+                // Без виртуальных потоков ту же нагрузку несёт пул платформенных потоков
+                boolean virtual = ExecutionMode.VIRTUAL_THREADS.isSupported();
+                manager.setExecutionMode(virtual ? ExecutionMode.VIRTUAL_THREADS : ExecutionMode.CALLER_THREAD);
+                ExecutorService platform = virtual ? null : Executors.newFixedThreadPool(PLATFORM_THREADS);
+
+                long start = System.nanoTime();
+                List<CompletableFuture<LocalOperationResponse>> balances = new ArrayList<>(SESSIONS);
+                try {
+                        for (int i = 0; i < SESSIONS; i++) {
+                                String login = "load-" + i;
+                                balances.add(platform == null ? session(manager, login)
+                                        : CompletableFuture.supplyAsync(() -> session(manager, login), platform).thenCompose(f -> f));
+                        }
+                        CompletableFuture.allOf(balances.toArray(new CompletableFuture<?>[0])).join();
+                } finally {
+                        if (platform != null)
+                                platform.shutdown();
+                }
+                long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+                for (int i = 0; i < SESSIONS; i++) {
+                        LocalOperationResponse balance = balances.get(i).join();
+                        assertEquals(LocalOperationResponse.SUCCEED, balance.code);
+                        assertEquals((double) i, balance.response);
+                }
+                assertEquals(SESSIONS, server.getOpenSessions());
+                // Two round trips per session; run one after another this would take 1000 seconds.
+                assertTrue(elapsedMillis < 30_000, "took " + elapsedMillis + " ms");
+                assertTrue(manager.getExceptions().isEmpty());
+        }
+
+        private static CompletableFuture<LocalOperationResponse> session(AccountManager manager, String login) {
+                return manager.loginAsync(login, "password").thenCompose(Account::getBalanceAsync);
+        }
+
+        @Test
+        public void callerThreadMode_ShouldStayAvailableEverywhere() {
+                assertTrue(ExecutionMode.CALLER_THREAD.isSupported());
+        }
+}
@@ -0,0 +1,104 @@
+import hw.okit.Account;
+import hw.okit.AccountManager;
+import hw.okit.BalanceResult;
+import hw.okit.InMemoryServerConnection;
+import hw.okit.LocalOperationResponse;
+import hw.okit.LoopbackServerConnection;
+import hw.okit.MoneyScale;
+import hw.okit.ServerResponse;
+import hw.okit.WireCodec;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WireCodecTest {
+
+        private final InMemoryServerConnection server = new InMemoryServerConnection(8, MoneyScale.CENTS);
+        private final LoopbackServerConnection loopback = new LoopbackServerConnection(server);
+
+        private static ServerResponse roundTrip(ServerResponse response) {
+                ByteBuffer buffer = ByteBuffer.allocate(WireCodec.MAX_RESPONSE_BYTES);
+                WireCodec.encodeResponse(buffer, response);
+                buffer.flip();
+                return WireCodec.decodeResponse(buffer);
+        }
+
+        @Test
+        public void responses_ShouldKeepTheirCodeAndPrimitiveData() {
+                ServerResponse balance = roundTrip(new ServerResponse(ServerResponse.SUCCESS, 12.5));
+                assertEquals(ServerResponse.SUCCESS, balance.code);
+                assertEquals(12.5, balance.data);
+
+                ServerResponse session = roundTrip(new ServerResponse(ServerResponse.SUCCESS, 77L));
+                assertEquals(77L, session.data);
+
+                // Произвольные объекты по проводу не передаются
+                ServerResponse failure = roundTrip(new ServerResponse(ServerResponse.UNAVAILABLE, new RuntimeException()));
+                assertEquals(ServerResponse.UNAVAILABLE, failure.code);
+                assertNull(failure.data);
+        }
+
+        @Test
+        public void codesOutsideTheWireRange_ShouldBeRejected() {
+                ByteBuffer buffer = ByteBuffer.allocate(WireCodec.MAX_RESPONSE_BYTES);
+                assertThrows(IllegalArgumentException.class,
+                        () -> WireCodec.encodeResponse(buffer, new ServerResponse(1000, null)));
+        }
+
+        @Test
+        public void loopback_ShouldServeEveryOperation() {
+                server.addAccount("a", "p", 10_000);
+                ServerResponse login = loopback.login("a", "p");
+                assertEquals(ServerResponse.SUCCESS, login.code);
+                long session = (Long) login.data;
+
+                assertEquals(150.0, loopback.deposit(session, 50.0).data);
+                assertEquals(120.0, loopback.withdraw(session, 30.0).data);
+                assertEquals(ServerResponse.NO_MONEY, loopback.withdraw(session, 500.0).code);
+                assertEquals(120.0, loopback.getBalance(session).data);
+                assertEquals(ServerResponse.SUCCESS, loopback.logout(session).code);
+                assertEquals(ServerResponse.NOT_LOGGED, loopback.getBalance(session).code);
+        }
+
+        @Test
+        public void moneyMessages_ShouldHaveFixedSize() {
+                server.addAccount("a", "p", 10_000);
+                long session = (Long) loopback.login("a", "p").data;
+                long sent = loopback.getBytesSent(), received = loopback.getBytesReceived();
+                BalanceResult result = new BalanceResult();
+
+                loopback.withdraw(session, 1.0, result);
+
+                assertEquals(ServerResponse.SUCCESS, result.code);
+                assertEquals(99.0, result.balance);
+                assertEquals(WireCodec.MONEY_REQUEST_BYTES, loopback.getBytesSent() - sent);
+                assertEquals(WireCodec.MAX_RESPONSE_BYTES, loopback.getBytesReceived() - received);
+        }
+
+        @Test
+        public void idempotencyKey_ShouldTravelOverTheWire() {
+                server.addAccount("a", "p", 10_000);
+                long session = (Long) loopback.login("a", "p").data;
+
+                loopback.withdrawIdempotent(session, 10.0, 3L);
+                loopback.withdrawIdempotent(session, 10.0, 3L);
+
+                assertEquals(9_000, server.getBalanceMinor("a"));
+        }
+
+        @Test
+        public void account_ShouldWorkOverTheLoopback() throws Exception {
+                server.addAccount("a", "p", 10_000);
+                AccountManager manager = new AccountManager();
+                manager.AccountManager(loopback, password -> password);
+                Account account = manager.login("a", "p");
+
+                assertEquals(LocalOperationResponse.SUCCEED, account.deposit(5.0).code);
+                LocalOperationResponse balance = account.getBalance();
+                assertEquals(LocalOperationResponse.SUCCEED, balance.code);
+                assertEquals(105.0, balance.response);
+                assertEquals(LocalOperationResponse.NO_MONEY, account.withdraw(1_000.0).code);
+        }
+}